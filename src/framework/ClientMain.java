@@ -6,6 +6,7 @@ import java.nio.channels.SocketChannel;
 import framework.net.GameClient;
 import framework.net.Mux;
 import game.ClientMux;
+import game.CompressionDictionary;
 
 import javax.swing.JFrame;
 
@@ -23,7 +24,7 @@ public class ClientMain
         JFrame frame = new JFrame("Awesome Game");
         Canvas canvas = new Canvas();
         GameLoop gameLoop = new GameLoop(canvas);
-        GameClient clnt = new GameClient();
+        GameClient clnt = new GameClient(args.length > 1 && args[1].equals("inline"));
         Mux.setInstance(new ClientMux<SocketChannel>(
                 new HostAdapter<SocketChannel,ServerSocketChannel>(clnt),
                 frame,canvas,gameLoop));
@@ -36,9 +37,11 @@ public class ClientMain
         clnt.setObserver(
                 new HostListenerAdapter<SocketChannel,ServerSocketChannel>()
                 .setObserver(Mux.<SocketChannel>getInstance()));
+        clnt.setCompression(CompressionDictionary.THRESHOLD,CompressionDictionary.get());
         clnt.connect(args[0],7000);
 
-        gameLoop.register(clnt);
+        gameLoop.register((InputEntity)clnt);
+        gameLoop.register((OutputEntity)clnt);
         gameLoop.loop();
     }
 }
@@ -17,6 +17,15 @@ public abstract class GameEntity implements Entity, Drawable
         return renderDepth;
     }
 
+    /**
+     * returns the state that the {Mux} replicates to the clients, or null if
+     *   the entity's state isn't replicated.
+     */
+    public ReplicatedState<?> getReplicatedState()
+    {
+        return null;
+    }
+
     public GameEntity setCanvas(Canvas newCanvas)
     {
         // unregister from previous canvas
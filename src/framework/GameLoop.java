@@ -17,6 +17,10 @@ public class GameLoop
 
     private final Set<InputEntity> inputProvidersToRemove;
 
+    private final Set<OutputEntity> outputProviders;
+
+    private final Set<OutputEntity> outputProvidersToRemove;
+
     private final Set<Entity> entities;
 
     private final Set<Entity> entitiesToRemove;
@@ -32,6 +36,8 @@ public class GameLoop
         this.canvas = canvas;
         this.inputProviders = new LinkedHashSet<>();
         this.inputProvidersToRemove = new LinkedHashSet<>();
+        this.outputProviders = new LinkedHashSet<>();
+        this.outputProvidersToRemove = new LinkedHashSet<>();
         this.entities = new LinkedHashSet<>();
         this.entitiesToRemove = new LinkedHashSet<>();
     }
@@ -60,6 +66,7 @@ public class GameLoop
             double start = System.currentTimeMillis();
             processInputs();
             update();
+            processOutputs();
             render();
 
             long sleepTime = (long)start+STEP_INTERVAL-System.currentTimeMillis();
@@ -84,6 +91,16 @@ public class GameLoop
         inputProvidersToRemove.add(i);
     }
 
+    public void register(OutputEntity o)
+    {
+        outputProviders.add(o);
+    }
+
+    public void unregister(OutputEntity o)
+    {
+        outputProvidersToRemove.add(o);
+    }
+
     public void register(Entity e)
     {
         entities.add(e);
@@ -128,6 +145,21 @@ public class GameLoop
         entitiesToRemove.clear();
     }
 
+    private final void processOutputs()
+    {
+        for(OutputEntity o : outputProviders)
+        {
+            o.processOutputs();
+        }
+
+        for(OutputEntity o : outputProvidersToRemove)
+        {
+            outputProviders.remove(o);
+        }
+
+        outputProvidersToRemove.clear();
+    }
+
     private final void render()
     {
         if(canvas != null)
@@ -0,0 +1,6 @@
+package framework;
+
+public interface OutputEntity
+{
+    public void processOutputs();
+}
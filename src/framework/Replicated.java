@@ -0,0 +1,33 @@
+package framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a field as part of the replicated state of its class, so it is
+ *   encoded and decoded by the class's {ReplicatedCodec}.
+ *
+ * only fields of type int, short, byte, char, boolean and float can be
+ *   replicated.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Replicated
+{
+    /**
+     * number of bits the field is packed into, at most 32. 0 uses the natural
+     *   width of the field's type. integer values that don't fit are clamped
+     *   to the nearest value that does; int, short and byte fields are signed,
+     *   char and boolean fields are not.
+     */
+    public int bits() default 0;
+
+    /**
+     * for float fields, the step the value is quantized to before it is
+     *   packed as a signed integer of {bits} bits. 0 sends the raw 32 bits of
+     *   the float. ignored for other types.
+     */
+    public float precision() default 0;
+}
@@ -0,0 +1,493 @@
+package framework;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import net.VarInt;
+
+/**
+ * encodes and decodes the fields of a class that are marked as {Replicated}.
+ *
+ * the fields are found once, when the codec is created; encoding and
+ *   decoding an instance reads and writes its fields in place, and never
+ *   allocates. a class typically keeps its codec in a static field, and
+ *   implements {Serializable::writeTo} and {Serializable::readFrom} by
+ *   delegating to it.
+ *
+ * the fields are packed back to back, each into the number of bits given by
+ *   its annotation, least significant bits first, in order of their names.
+ *   the last byte is padded with zeros. only the fields declared by the class
+ *   itself are replicated, not the ones it inherits.
+ *
+ * the codec can also encode deltas: the values of the fields are captured
+ *   into arrays of packed values, and a delta holds only the fields whose
+ *   packed values differ from those of a baseline. a delta is a {VarInt}
+ *   bitmask of the fields it holds, bit {i} standing for the {i}th field,
+ *   followed by the fields themselves, packed like above. deltas work for
+ *   classes with at most {MAX_DELTA_FIELDS} replicated fields.
+ */
+public final class ReplicatedCodec<T>
+{
+    /**
+     * largest number of replicated fields that deltas can be encoded for;
+     *   one for each bit of the bitmask.
+     */
+    public static final int MAX_DELTA_FIELDS = 32;
+
+    /**
+     * replicated fields of the class, in the order they are encoded in.
+     */
+    private final ReplicatedField[] fields;
+
+    /**
+     * number of bytes an encoded instance takes.
+     */
+    private final int serializedSize;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    public ReplicatedCodec(Class<T> cls)
+    {
+        // find the replicated fields. declared fields aren't returned in any
+        // particular order, so sort them by name so both ends agree
+        List<ReplicatedField> found = new ArrayList<>();
+        for(Field field : cls.getDeclaredFields())
+        {
+            Replicated annotation = field.getAnnotation(Replicated.class);
+            if(annotation != null)
+            {
+                found.add(new ReplicatedField(field,annotation));
+            }
+        }
+        found.sort(Comparator.comparing(f -> f.field.getName()));
+
+        int bits = 0;
+        for(ReplicatedField field : found)
+        {
+            bits += field.bits;
+        }
+
+        this.fields = found.toArray(new ReplicatedField[found.size()]);
+        this.serializedSize = (bits+7)/8;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns the number of bytes an encoded instance takes.
+     *
+     * @return   the number of bytes {writeTo} writes, and {readFrom} reads.
+     */
+    public int serializedSize()
+    {
+        return serializedSize;
+    }
+
+    /**
+     * returns the number of replicated fields, which is the length of the
+     *   arrays used by {capture} and {apply}.
+     *
+     * @return   the number of replicated fields.
+     */
+    public int fieldCount()
+    {
+        return fields.length;
+    }
+
+    /**
+     * stores the packed value of each replicated field of {obj} into {dst}.
+     *
+     * @param    obj   instance to capture the fields of.
+     * @param    dst   array to store the values in, starting at {offset}.
+     * @param    offset   index of {dst} to store the first value at.
+     */
+    public void capture(T obj, long[] dst, int offset)
+    {
+        for(int i = 0; i < fields.length; ++i)
+        {
+            dst[offset+i] = fields[i].get(obj)&fields[i].mask;
+        }
+    }
+
+    /**
+     * sets the replicated fields of {obj} to the packed values in {src},
+     *   which were stored by {capture}, or decoded by {readDelta}.
+     *
+     * @param    obj   instance to set the fields of.
+     * @param    src   array holding the values, starting at {offset}.
+     * @param    offset   index of {src} that holds the first value.
+     */
+    public void apply(T obj, long[] src, int offset)
+    {
+        for(int i = 0; i < fields.length; ++i)
+        {
+            fields[i].set(obj,src[offset+i]);
+        }
+    }
+
+    /**
+     * returns the bitmask of the fields whose values in {values} differ from
+     *   the ones in {baseline}.
+     *
+     * @param    values   captured values.
+     * @param    baseline   array holding the baseline values, starting at
+     *   {offset}. if null, every field is dirty.
+     * @param    offset   index of {baseline} that holds the first value.
+     *
+     * @return   bitmask with bit {i} set if the {i}th field is dirty.
+     */
+    public int dirtyMask(long[] values, long[] baseline, int offset)
+    {
+        checkDeltaFields();
+        int mask = 0;
+        for(int i = 0; i < fields.length; ++i)
+        {
+            if(baseline == null || values[i] != baseline[offset+i])
+            {
+                mask |= 1<<i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * returns the number of bytes {writeDelta} writes for {mask}.
+     *
+     * @param    mask   bitmask of the fields in the delta.
+     *
+     * @return   the size of the delta, in bytes.
+     */
+    public int deltaSize(int mask)
+    {
+        int bits = 0;
+        for(int i = 0; i < fields.length; ++i)
+        {
+            if((mask&(1<<i)) != 0)
+            {
+                bits += fields[i].bits;
+            }
+        }
+        return VarInt.size(mask)+(bits+7)/8;
+    }
+
+    /**
+     * encodes the fields of {values} selected by {mask} into {dst} as a
+     *   delta, and advances its position past it.
+     *
+     * @param    values   captured values.
+     * @param    mask   bitmask of the fields to encode.
+     * @param    dst   buffer to write into. it must have at least
+     *   {deltaSize(mask)} bytes remaining.
+     */
+    public void writeDelta(long[] values, int mask, ByteBuffer dst)
+    {
+        checkDeltaFields();
+        VarInt.put(dst,mask);
+        long pending = 0;
+        int pendingBits = 0;
+        for(int i = 0; i < fields.length; ++i)
+        {
+            if((mask&(1<<i)) == 0)
+            {
+                continue;
+            }
+            pending |= values[i]<<pendingBits;
+            pendingBits += fields[i].bits;
+            while(pendingBits >= 8)
+            {
+                dst.put((byte)pending);
+                pending >>>= 8;
+                pendingBits -= 8;
+            }
+        }
+        if(pendingBits > 0)
+        {
+            dst.put((byte)pending);
+        }
+    }
+
+    /**
+     * decodes a delta written by {writeDelta} from {src}, and stores the
+     *   values it holds into {values}. the other elements of {values} are
+     *   left as they are, so they should hold the baseline that the delta
+     *   was made against.
+     *
+     * @param    src   buffer to read from.
+     * @param    values   array to store the decoded values in.
+     *
+     * @return   bitmask of the fields that were decoded.
+     */
+    public int readDelta(ByteBuffer src, long[] values)
+    {
+        checkDeltaFields();
+        int mask = VarInt.get(src);
+        long pending = 0;
+        int pendingBits = 0;
+        for(int i = 0; i < fields.length; ++i)
+        {
+            if((mask&(1<<i)) == 0)
+            {
+                continue;
+            }
+            while(pendingBits < fields[i].bits)
+            {
+                pending |= (src.get()&0xffL)<<pendingBits;
+                pendingBits += 8;
+            }
+            values[i] = pending&fields[i].mask;
+            pending >>>= fields[i].bits;
+            pendingBits -= fields[i].bits;
+        }
+        return mask;
+    }
+
+    /**
+     * encodes the replicated fields of {obj} into {dst}, starting at its
+     *   current position, and advances the position past them.
+     *
+     * @param    obj   instance to encode.
+     * @param    dst   buffer to write into. it must have at least
+     *   {serializedSize()} bytes remaining.
+     */
+    public void writeTo(T obj, ByteBuffer dst)
+    {
+        long pending = 0;
+        int pendingBits = 0;
+        for(ReplicatedField field : fields)
+        {
+            pending |= (field.get(obj)&field.mask)<<pendingBits;
+            pendingBits += field.bits;
+            while(pendingBits >= 8)
+            {
+                dst.put((byte)pending);
+                pending >>>= 8;
+                pendingBits -= 8;
+            }
+        }
+        if(pendingBits > 0)
+        {
+            dst.put((byte)pending);
+        }
+    }
+
+    /**
+     * decodes the replicated fields of {obj} from {src}, starting at its
+     *   current position, and advances the position past them.
+     *
+     * @param    obj   instance to set the fields of.
+     * @param    src   buffer to read from. its next {serializedSize()} bytes
+     *   should have been created using {writeTo}.
+     */
+    public void readFrom(T obj, ByteBuffer src)
+    {
+        long pending = 0;
+        int pendingBits = 0;
+        for(ReplicatedField field : fields)
+        {
+            while(pendingBits < field.bits)
+            {
+                pending |= (src.get()&0xffL)<<pendingBits;
+                pendingBits += 8;
+            }
+            field.set(obj,pending&field.mask);
+            pending >>>= field.bits;
+            pendingBits -= field.bits;
+        }
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    private void checkDeltaFields()
+    {
+        if(fields.length > MAX_DELTA_FIELDS)
+        {
+            throw new IllegalStateException("can't encode deltas of more than "
+                +MAX_DELTA_FIELDS+" fields");
+        }
+    }
+
+    /////////////////////
+    // ReplicatedField //
+    /////////////////////
+
+    /**
+     * a replicated field, and how its value is packed.
+     */
+    private static class ReplicatedField
+    {
+        public final Field field;
+
+        public final Class<?> type;
+
+        /**
+         * number of bits the value is packed into.
+         */
+        public final int bits;
+
+        /**
+         * mask of the lowest {bits} bits.
+         */
+        public final long mask;
+
+        /**
+         * true if the packed value is sign extended when it is unpacked.
+         */
+        public final boolean signed;
+
+        /**
+         * step float values are quantized to, or 0 to send their raw bits.
+         */
+        public final float precision;
+
+        /**
+         * smallest and largest values that fit in {bits} bits.
+         */
+        public final long min;
+        public final long max;
+
+        public ReplicatedField(Field field, Replicated annotation)
+        {
+            Class<?> type = field.getType();
+            int naturalBits;
+            boolean signed;
+            if(type == int.class || type == float.class)
+            {
+                naturalBits = 32;
+                signed = true;
+            }
+            else if(type == short.class)
+            {
+                naturalBits = 16;
+                signed = true;
+            }
+            else if(type == byte.class)
+            {
+                naturalBits = 8;
+                signed = true;
+            }
+            else if(type == char.class)
+            {
+                naturalBits = 16;
+                signed = false;
+            }
+            else if(type == boolean.class)
+            {
+                naturalBits = 1;
+                signed = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("can't replicate "+field+" of type "+type);
+            }
+
+            float precision = type == float.class ? annotation.precision() : 0;
+            int bits = annotation.bits() == 0 ? naturalBits : annotation.bits();
+            if(Modifier.isStatic(field.getModifiers()))
+            {
+                throw new IllegalArgumentException("can't replicate static field "+field);
+            }
+            if(bits < 1 || bits > naturalBits
+                || (type == float.class && precision == 0 && bits != 32)
+                || precision < 0)
+            {
+                throw new IllegalArgumentException("invalid bits or precision for "+field);
+            }
+            field.setAccessible(true);
+
+            this.field = field;
+            this.type = type;
+            this.bits = bits;
+            this.mask = (1L<<bits)-1;
+            this.signed = signed;
+            this.precision = precision;
+            this.min = signed ? -(1L<<(bits-1)) : 0;
+            this.max = signed ? (1L<<(bits-1))-1 : (1L<<bits)-1;
+        }
+
+        /**
+         * returns the value of the field of {obj}, converted to an integer
+         *   that fits in {bits} bits.
+         */
+        public long get(Object obj)
+        {
+            try
+            {
+                long value;
+                if(type == float.class)
+                {
+                    float f = field.getFloat(obj);
+                    if(precision == 0)
+                    {
+                        return Float.floatToRawIntBits(f);
+                    }
+                    value = Math.round((double)f/precision);
+                }
+                else if(type == boolean.class)
+                {
+                    value = field.getBoolean(obj) ? 1 : 0;
+                }
+                else
+                {
+                    value = field.getInt(obj);
+                }
+                return Math.max(min,Math.min(max,value));
+            }
+            catch(IllegalAccessException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * sets the field of {obj} to the value that {packed}, the lowest
+         *   {bits} bits of which were returned by {get}, stands for.
+         */
+        public void set(Object obj, long packed)
+        {
+            long value = signed ? (packed<<(64-bits))>>(64-bits) : packed;
+            try
+            {
+                if(type == int.class)
+                {
+                    field.setInt(obj,(int)value);
+                }
+                else if(type == float.class)
+                {
+                    field.setFloat(obj,precision == 0
+                        ? Float.intBitsToFloat((int)value)
+                        : value*precision);
+                }
+                else if(type == short.class)
+                {
+                    field.setShort(obj,(short)value);
+                }
+                else if(type == byte.class)
+                {
+                    field.setByte(obj,(byte)value);
+                }
+                else if(type == char.class)
+                {
+                    field.setChar(obj,(char)value);
+                }
+                else
+                {
+                    field.setBoolean(obj,value != 0);
+                }
+            }
+            catch(IllegalAccessException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
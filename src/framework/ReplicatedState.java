@@ -0,0 +1,122 @@
+package framework;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * the replicated fields of an object, as captured by its {ReplicatedCodec},
+ *   for the {Mux} to send deltas of. the values are packed like the codec
+ *   packs them, so two states can be compared field by field.
+ *
+ * holds a buffer of values that {capture} fills, and that can be filled and
+ *   passed to {apply} to set the fields of the object.
+ */
+public final class ReplicatedState<T>
+{
+    private final ReplicatedCodec<T> codec;
+
+    private final T obj;
+
+    /**
+     * invoked after the fields of {obj} are set by {apply}, so the object
+     *   can update whatever it derives from them. may be null.
+     */
+    private final Runnable onApplied;
+
+    private long[] values;
+
+    /**
+     * the values before the last {capture}.
+     */
+    private long[] previous;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public ReplicatedState(ReplicatedCodec<T> codec, T obj, Runnable onApplied)
+    {
+        this.codec = codec;
+        this.obj = obj;
+        this.onApplied = onApplied;
+        this.values = new long[codec.fieldCount()];
+        this.previous = new long[codec.fieldCount()];
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public int fieldCount()
+    {
+        return values.length;
+    }
+
+    /**
+     * returns the buffer of values, as {capture} last left it.
+     */
+    public long[] values()
+    {
+        return values;
+    }
+
+    /**
+     * stores the values of the replicated fields of the object into the
+     *   buffer of values.
+     *
+     * @return   true if any of the values differs from the one stored by the
+     *   previous call.
+     */
+    public boolean capture()
+    {
+        long[] swap = previous;
+        previous = values;
+        values = swap;
+        codec.capture(obj,values,0);
+        return !Arrays.equals(values,previous);
+    }
+
+    /**
+     * sets the replicated fields of the object to {values}.
+     */
+    public void apply(long[] values)
+    {
+        codec.apply(obj,values,0);
+        if(onApplied != null)
+        {
+            onApplied.run();
+        }
+    }
+
+    /**
+     * see {ReplicatedCodec.dirtyMask}.
+     */
+    public int dirtyMask(long[] values, long[] baseline, int offset)
+    {
+        return codec.dirtyMask(values,baseline,offset);
+    }
+
+    /**
+     * see {ReplicatedCodec.deltaSize}.
+     */
+    public int deltaSize(int mask)
+    {
+        return codec.deltaSize(mask);
+    }
+
+    /**
+     * see {ReplicatedCodec.writeDelta}.
+     */
+    public void writeDelta(long[] values, int mask, ByteBuffer dst)
+    {
+        codec.writeDelta(values,mask,dst);
+    }
+
+    /**
+     * see {ReplicatedCodec.readDelta}.
+     */
+    public int readDelta(ByteBuffer src, long[] values)
+    {
+        return codec.readDelta(src,values);
+    }
+}
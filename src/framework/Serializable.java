@@ -1,5 +1,7 @@
 package framework;
 
+import java.nio.ByteBuffer;
+
 public interface Serializable
 {
     /**
@@ -20,7 +22,58 @@ public interface Serializable
      *   calling {fromBytes}, while passing it the byte array created from
      *   {toBytes}.
      *
-     * @return   the byte version of the {Serializable} instance. 
+     * @return   the byte version of the {Serializable} instance.
      */
     public byte[] toBytes();
+
+    /**
+     * returns the number of bytes {writeTo} writes, and {toBytes} returns.
+     *
+     * the default implementation serializes the instance to find out;
+     *   implementers that override {writeTo} should override this as well.
+     *
+     * @return   the length of the byte version of the {Serializable}.
+     */
+    public default int serializedSize()
+    {
+        return toBytes().length;
+    }
+
+    /**
+     * writes the byte version of the {Serializable} into {dst}, starting at its
+     *   current position, and advances the position past it.
+     *
+     * the default implementation copies the array returned by {toBytes};
+     *   implementers should override this to encode their state directly into
+     *   {dst}, without allocating an intermediate array.
+     *
+     * @param    dst   buffer to write into. it must have at least
+     *   {serializedSize()} bytes remaining.
+     */
+    public default void writeTo(ByteBuffer dst)
+    {
+        dst.put(toBytes());
+    }
+
+    /**
+     * parses the bytes remaining in {src}, and sets the instance's state to the
+     *   one described by them. the position of {src} is advanced past the bytes
+     *   that were parsed.
+     *
+     * the default implementation copies the remaining bytes into an array,
+     *   and passes it to {fromBytes}; implementers should override this to
+     *   decode their state directly from {src}.
+     *
+     * @param    src   buffer to parse. its remaining bytes should have been
+     *   created using the Serializable::writeTo or Serializable::toBytes
+     *   methods.
+     *
+     * @return   returns a reference to the calling instance.
+     */
+    public default Serializable readFrom(ByteBuffer src)
+    {
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        return fromBytes(data);
+    }
 }
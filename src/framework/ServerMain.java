@@ -7,14 +7,34 @@ import net.HostAdapter;
 import net.HostListenerAdapter;
 import framework.net.GameServer;
 import framework.net.Mux;
+import framework.net.SnapshotStage;
+import game.CompressionDictionary;
 import game.ServerMux;
 
 public class ServerMain
 {
+    /**
+     * rate at which the states of the entities are sent to the clients; the
+     *   game loop ticks about 66 times a second.
+     */
+    public static final int SNAPSHOTS_PER_SECOND = 20;
+
     public static void main(String[] args)
     {
         GameLoop gameLoop = new GameLoop();
-        GameServer svr = new GameServer();
+        // the first argument is the number of I/O threads, or "inline" to do
+        // the networking on the game loop's thread
+        GameServer svr;
+        if(args.length > 0 && args[0].equals("inline"))
+        {
+            svr = new GameServer(true);
+        }
+        else
+        {
+            svr = new GameServer((args.length > 0)
+                ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors()/2);
+        }
         Mux.setInstance(new ServerMux<SocketChannel>(
                 new HostAdapter<SocketChannel,ServerSocketChannel>(svr),
                 gameLoop));
@@ -22,9 +42,14 @@ public class ServerMain
         svr.setObserver(
                 new HostListenerAdapter<SocketChannel,ServerSocketChannel>()
                 .setObserver(Mux.<SocketChannel>getInstance()));
+        svr.setCompression(CompressionDictionary.THRESHOLD,CompressionDictionary.get());
         svr.startListening(7000);
 
-        gameLoop.register(svr);
+        gameLoop.register((InputEntity)svr);
+        // replicate the states of the entities before the messages are
+        // written out at the end of the tick
+        gameLoop.register(new SnapshotStage(Mux.getInstance(),SNAPSHOTS_PER_SECOND));
+        gameLoop.register((OutputEntity)svr);
         gameLoop.loop();
     }
 }
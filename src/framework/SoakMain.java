@@ -0,0 +1,157 @@
+package framework;
+
+import net.HostAdapter;
+import net.HostListenerAdapter;
+import net.LoopbackChannel;
+import net.LoopbackClient;
+import net.LoopbackServer;
+import net.Packet;
+import framework.net.Mux;
+import framework.net.SnapshotStage;
+import game.PairType;
+import game.ServerMux;
+
+/**
+ * runs the game server together with {args[0]} headless clients in one
+ *   process, connected through a {Loopback} network, for {args[1]} seconds.
+ *
+ * every second, prints how long the server's game loop spent working per
+ *   tick, and how many messages the clients received, so the cost of the
+ *   {Mux} and the {GameLoop} can be measured without a transport.
+ */
+public class SoakMain
+{
+    private static final int PORT = 7000;
+
+    /**
+     * nanosecond time at which the current tick started. only used on the
+     *   game loop's thread.
+     */
+    private static long tickStart;
+
+    private static volatile long tickCount;
+
+    private static volatile long tickNanos;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        int clientCount = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        // set up the server like ServerMain does, but on the loopback network
+        GameLoop gameLoop = new GameLoop();
+        LoopbackServer svr = new LoopbackServer();
+        Mux.setInstance(new ServerMux<LoopbackChannel>(
+                new HostAdapter<LoopbackChannel,Integer>(svr),
+                gameLoop));
+        svr.setObserver(
+                new HostListenerAdapter<LoopbackChannel,Integer>()
+                .setObserver(Mux.<LoopbackChannel>getInstance()));
+        svr.startListening(PORT);
+
+        // time everything between the first input and the last output
+        gameLoop.register((InputEntity)() -> tickStart = System.nanoTime());
+        gameLoop.register((InputEntity)svr::handleMessages);
+        gameLoop.register(new SnapshotStage(Mux.getInstance(),ServerMain.SNAPSHOTS_PER_SECOND));
+        gameLoop.register((OutputEntity)() ->
+        {
+            tickNanos += System.nanoTime()-tickStart;
+            ++tickCount;
+        });
+        Thread loopThread = new Thread(gameLoop::loop);
+        loopThread.setDaemon(true);
+        loopThread.start();
+
+        // connect the clients; their callbacks are handled on this thread
+        LoopbackClient[] clnts = new LoopbackClient[clientCount];
+        HeadlessMux[] muxes = new HeadlessMux[clientCount];
+        for(int i = 0; i < clientCount; ++i)
+        {
+            clnts[i] = new LoopbackClient();
+            muxes[i] = new HeadlessMux(new HostAdapter<LoopbackChannel,Integer>(clnts[i]));
+            clnts[i].setObserver(
+                    new HostListenerAdapter<LoopbackChannel,Integer>()
+                    .setObserver(muxes[i]));
+            clnts[i].connect("localhost",PORT);
+        }
+
+        long lastTicks = 0;
+        long lastTickNanos = 0;
+        long lastReceived = 0;
+        long nextReport = System.currentTimeMillis()+1000;
+        long end = System.currentTimeMillis()+seconds*1000L;
+        while(System.currentTimeMillis() < end)
+        {
+            for(LoopbackClient clnt : clnts)
+            {
+                clnt.handleMessages();
+            }
+
+            if(System.currentTimeMillis() >= nextReport)
+            {
+                nextReport += 1000;
+                long ticks = tickCount;
+                long nanos = tickNanos;
+                long received = 0;
+                for(HeadlessMux mux : muxes)
+                {
+                    received += mux.received;
+                }
+                System.out.println(clientCount+" clients: "
+                    +(ticks-lastTicks)+" ticks, "
+                    +((nanos-lastTickNanos)/1000/Math.max(ticks-lastTicks,1))+" us per tick, "
+                    +(received-lastReceived)+" messages received");
+                lastTicks = ticks;
+                lastTickNanos = nanos;
+                lastReceived = received;
+            }
+            Thread.sleep(1);
+        }
+        System.exit(0);
+    }
+
+    /////////////////
+    // HeadlessMux //
+    /////////////////
+
+    /**
+     * client side {Mux} that only counts the messages it receives.
+     */
+    private static class HeadlessMux extends Mux<LoopbackChannel>
+    {
+        public long received;
+
+        public HeadlessMux(HostAdapter<LoopbackChannel,Integer> adaptee)
+        {
+            super(adaptee);
+        }
+
+        @Override
+        public void onMessage(LoopbackChannel conn, Packet packet)
+        {
+            ++received;
+            super.onMessage(conn,packet);
+        }
+
+        @Override
+        protected framework.net.Entity onRegister(int id, PairType pairType, Packet packet)
+        {
+            return new framework.net.Entity(id,pairType)
+            {
+                @Override
+                public Packet getRegisterPacket()
+                {
+                    return null;
+                }
+                @Override
+                public void onUpdate(Packet packet)
+                {
+                }
+                @Override
+                public void onUnregister(Packet packet)
+                {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package framework;
+
+/**
+ * something that has a position in the game world. the {Mux} only registers
+ *   the network entities of {Spatial}s with the clients whose areas of
+ *   interest they are in.
+ */
+public interface Spatial
+{
+    public int getX();
+    public int getY();
+}
@@ -5,18 +5,27 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import net.Packet;
 import framework.Controller;
+import framework.GameEntity;
+import framework.ReplicatedState;
 import game.PairType;
 
 public class ClientController extends framework.net.Entity implements Controller
 {
     private Queue<Packet> events;
 
+    private GameEntity controllee;
+
     public ClientController(int id)
     {
         super(id,PairType.SVRCTRL_NETCTRL);
         this.events = new LinkedBlockingQueue<>();
     }
 
+    public void setControllee(GameEntity controllee)
+    {
+        this.controllee = controllee;
+    }
+
     @Override
     public final Packet[] getEvents()
     {
@@ -33,6 +42,12 @@ public class ClientController extends framework.net.Entity implements Controller
         events.add(packet);
     }
 
+    @Override
+    public ReplicatedState<?> getReplicatedState()
+    {
+        return (controllee != null) ? controllee.getReplicatedState() : null;
+    }
+
     @Override
     public Packet getRegisterPacket()
     {
@@ -43,7 +58,10 @@ public class ClientController extends framework.net.Entity implements Controller
     @Override
     public void onUnregister(Packet packet)
     {
-        // TODO Auto-generated method stub
-        
+        if(controllee != null)
+        {
+            controllee.unsetCanvas();
+            controllee.unsetGameLoop();
+        }
     }
 }
@@ -3,24 +3,43 @@ package framework.net;
 import java.util.Set;
 import java.util.LinkedHashSet;
 
+import framework.ReplicatedState;
+import framework.Spatial;
 import game.PairType;
 import net.Packet;
 
 public abstract class Entity
 {
+    private static final IdAllocator ids = new IdAllocator();
     private final int id;
-    private static int nextId = 0;
+    /**
+     * true if the id was allocated by {ids}, and should be freed once the
+     *   entity is gone.
+     */
+    private final boolean allocatedId;
     private final PairType pairType;
     final Set<Object> registeredClients;
+    /**
+     * the remote host that registered the entity with this one, or null if
+     *   the entity was made on this host. only states received from it are
+     *   applied to the entity.
+     */
+    Object registeredBy;
     public Entity(int id, PairType pairType)
     {
-        this.id = id;
-        this.pairType = pairType;
-        this.registeredClients = new LinkedHashSet<>();
+        this(id,false,pairType);
     }
     public Entity(PairType pairType)
     {
-        this(nextId++,pairType);
+        this(ids.allocate(),true,pairType);
+    }
+    private Entity(int id, boolean allocatedId, PairType pairType)
+    {
+        this.id = id;
+        this.allocatedId = allocatedId;
+        this.pairType = pairType;
+        this.registeredClients = new LinkedHashSet<>();
+        this.registeredBy = null;
     }
     public final int getId()
     {
@@ -30,6 +49,34 @@ public abstract class Entity
     {
         return pairType;
     }
+    /**
+     * lets the id of the entity be given to a new one. invoked by the {Mux}
+     *   once the entity is gone for good.
+     */
+    final void freeId()
+    {
+        if(allocatedId)
+        {
+            ids.free(id);
+        }
+    }
+    /**
+     * returns the state that the {Mux} replicates to the clients that the
+     *   entity is registered with, or null if it has none.
+     */
+    public ReplicatedState<?> getReplicatedState()
+    {
+        return null;
+    }
+    /**
+     * returns the position of the entity, or null if it has none. entities
+     *   with positions are only registered with the clients whose areas of
+     *   interest they are in, if the {Mux} has areas of interest.
+     */
+    public Spatial getSpatial()
+    {
+        return null;
+    }
     public abstract Packet getRegisterPacket();
     public abstract void onUpdate(Packet packet);
     public abstract void onUnregister(Packet packet);
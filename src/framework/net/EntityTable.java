@@ -0,0 +1,199 @@
+package framework.net;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * the entities of a {Mux}, by their ids. a hash table with open addressing
+ *   and linear probing, keyed by the ids of the entities it holds, so looking
+ *   an entity up neither boxes its id nor allocates.
+ *
+ * the capacity is a power of two, and is doubled whenever the table gets more
+ *   than half full. removed entries are filled by shifting the entries after
+ *   them back, so there are no tombstones.
+ *
+ * the table must not be changed while it is being iterated over.
+ */
+class EntityTable implements Iterable<Entity>
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * the entities, each in the first empty slot at or after its hash.
+     */
+    private Entity[] slots;
+
+    private int size;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public EntityTable()
+    {
+        this.slots = new Entity[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * returns the entity whose id is {id}, or null if there is none.
+     */
+    public Entity get(int id)
+    {
+        int mask = slots.length-1;
+        for(int i = hash(id)&mask; slots[i] != null; i = (i+1)&mask)
+        {
+            if(slots[i].getId() == id)
+            {
+                return slots[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * adds {entity} to the table, replacing the one with the same id.
+     *
+     * @return   the entity that was replaced, or null if there was none.
+     */
+    public Entity put(Entity entity)
+    {
+        if((size+1)*2 > slots.length)
+        {
+            resize(slots.length*2);
+        }
+        int mask = slots.length-1;
+        int i = hash(entity.getId())&mask;
+        for(; slots[i] != null; i = (i+1)&mask)
+        {
+            if(slots[i].getId() == entity.getId())
+            {
+                Entity replaced = slots[i];
+                slots[i] = entity;
+                return replaced;
+            }
+        }
+        slots[i] = entity;
+        ++size;
+        return null;
+    }
+
+    /**
+     * removes the entity whose id is {id}.
+     *
+     * @return   the entity that was removed, or null if there was none.
+     */
+    public Entity remove(int id)
+    {
+        int mask = slots.length-1;
+        int i = hash(id)&mask;
+        while(slots[i] != null && slots[i].getId() != id)
+        {
+            i = (i+1)&mask;
+        }
+        Entity removed = slots[i];
+        if(removed == null)
+        {
+            return null;
+        }
+
+        // shift back the entries after the removed one that would no longer
+        // be found, because they were placed past it
+        int hole = i;
+        for(int j = (i+1)&mask; slots[j] != null; j = (j+1)&mask)
+        {
+            int home = hash(slots[j].getId())&mask;
+            if(((j-home)&mask) >= ((j-hole)&mask))
+            {
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        slots[hole] = null;
+        --size;
+        return removed;
+    }
+
+    //////////////////////
+    // Iterable<Entity> //
+    //////////////////////
+
+    @Override
+    public Iterator<Entity> iterator()
+    {
+        return new Iterator<Entity>()
+        {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < slots.length;
+            }
+
+            @Override
+            public Entity next()
+            {
+                if(next >= slots.length)
+                {
+                    throw new NoSuchElementException();
+                }
+                Entity entity = slots[next];
+                next = advance(next+1);
+                return entity;
+            }
+
+            private int advance(int i)
+            {
+                while(i < slots.length && slots[i] == null)
+                {
+                    ++i;
+                }
+                return i;
+            }
+        };
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    /**
+     * spreads the bits of {id}, since ids that are close to one another would
+     *   otherwise land in the same run of slots.
+     */
+    private static int hash(int id)
+    {
+        int h = id*0x9e3779b9;
+        return h^(h>>>16);
+    }
+
+    private void resize(int capacity)
+    {
+        Entity[] old = slots;
+        slots = new Entity[capacity];
+        int mask = capacity-1;
+        for(Entity entity : old)
+        {
+            if(entity == null)
+            {
+                continue;
+            }
+            int i = hash(entity.getId())&mask;
+            while(slots[i] != null)
+            {
+                i = (i+1)&mask;
+            }
+            slots[i] = entity;
+        }
+    }
+}
@@ -1,11 +1,38 @@
 package framework.net;
 
 import framework.InputEntity;
+import framework.OutputEntity;
 
 import net.SelectClient;
 
-public class GameClient extends SelectClient implements InputEntity
+public class GameClient extends SelectClient implements InputEntity, OutputEntity
 {
+    /////////////////
+    // constructor //
+    /////////////////
+
+    /**
+     * messages sent by the game are held back until the end of the game loop
+     *   tick, and then written out together.
+     */
+    public GameClient()
+    {
+        this(false);
+    }
+
+    /**
+     * creates a {GameClient} that is inline if {inline} is true: its
+     *   networking is then done on the game loop's thread, when inputs are
+     *   processed, and when outputs are written out at the end of the tick.
+     *
+     * @param   inline   true to do the networking on the game loop's thread.
+     */
+    public GameClient(boolean inline)
+    {
+        super(inline);
+        setCoalesceWrites(true);
+    }
+
     ///////////////////
     // InputProvider //
     ///////////////////
@@ -13,6 +40,20 @@ public class GameClient extends SelectClient implements InputEntity
     @Override
     public void processInputs()
     {
+        if(isInline())
+        {
+            poll();
+        }
         handleMessages(this);
     }
+
+    //////////////////
+    // OutputEntity //
+    //////////////////
+
+    @Override
+    public void processOutputs()
+    {
+        flush();
+    }
 }
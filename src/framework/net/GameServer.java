@@ -1,11 +1,59 @@
 package framework.net;
 
 import framework.InputEntity;
+import framework.OutputEntity;
 
 import net.SelectServer;
 
-public class GameServer extends SelectServer implements InputEntity
+public class GameServer extends SelectServer implements InputEntity, OutputEntity
 {
+    /**
+     * nanoseconds of each game loop tick that may be spent handling the
+     *   messages from clients. the ones that don't fit are handled on the
+     *   next tick, so a flood of messages slows the clients down instead of
+     *   the simulation.
+     */
+    public static final long INPUT_BUDGET_NANOS = 5*1000*1000;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    /**
+     * messages sent by the game are held back until the end of the game loop
+     *   tick, and then written out together.
+     */
+    public GameServer()
+    {
+        this(0);
+    }
+
+    /**
+     * creates a {GameServer} that hands the connections it accepts off to
+     *   {ioThreadCount} I/O threads, spreading them by connection count.
+     *
+     * @param   ioThreadCount   number of threads that read from and write to
+     *   connections. if 0, the thread accepting connections does it.
+     */
+    public GameServer(int ioThreadCount)
+    {
+        super(ioThreadCount,Balancing.LEAST_CONNECTIONS);
+        setCoalesceWrites(true);
+    }
+
+    /**
+     * creates a {GameServer} that is inline if {inline} is true: its
+     *   networking is then done on the game loop's thread, when inputs are
+     *   processed, and when outputs are written out at the end of the tick.
+     *
+     * @param   inline   true to do the networking on the game loop's thread.
+     */
+    public GameServer(boolean inline)
+    {
+        super(inline);
+        setCoalesceWrites(true);
+    }
+
     ///////////////////
     // InputProvider //
     ///////////////////
@@ -13,6 +61,20 @@ public class GameServer extends SelectServer implements InputEntity
     @Override
     public void processInputs()
     {
-        handleMessages(this);
+        if(isInline())
+        {
+            poll();
+        }
+        handleMessages(this,Integer.MAX_VALUE,INPUT_BUDGET_NANOS);
+    }
+
+    //////////////////
+    // OutputEntity //
+    //////////////////
+
+    @Override
+    public void processOutputs()
+    {
+        flush();
     }
 }
@@ -0,0 +1,123 @@
+package framework.net;
+
+import java.util.Arrays;
+
+/**
+ * hands out the ids of the entities created on this host. safe to use from
+ *   any number of threads at once.
+ *
+ * an id is the index of a slot. the ids that are freed are handed out again
+ *   in the order they were freed in, but only once {REUSE_DELAY_MILLIS} have
+ *   passed, so ids stay as small as the number of live entities allows, and
+ *   are cheap to send as {VarInt}s. the messages about an entity that are
+ *   sent reliably arrive in order, so they can't be mistaken for ones about
+ *   the entity that got its id; the delay is there for late snapshots, which
+ *   are dropped by then, since newer ones were applied.
+ *
+ * the freed ids are kept in a ring of primitive ints, so recycling an id
+ *   allocates nothing. the allocator is shared by every {Mux} in the process,
+ *   and entities may be constructed on any thread, so {allocate} and {free}
+ *   take a lock; it is held for a few instructions, and is nearly never
+ *   contended.
+ */
+final class IdAllocator
+{
+    /**
+     * how long a freed id waits before it is handed out again, in
+     *   milliseconds.
+     */
+    public static final long REUSE_DELAY_MILLIS = 1000;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * the next id that was never handed out.
+     */
+    private int nextId;
+
+    /**
+     * ids that were freed, and can be handed out again, oldest first from
+     *   {head}. {freedCount} elements are used, wrapping around the end.
+     */
+    private int[] freed;
+
+    /**
+     * {System.nanoTime} at which each id in {freed} was freed.
+     */
+    private long[] freedAt;
+
+    private int head;
+
+    private int freedCount;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public IdAllocator()
+    {
+        this.nextId = 0;
+        this.freed = new int[INITIAL_CAPACITY];
+        this.freedAt = new long[INITIAL_CAPACITY];
+        this.head = 0;
+        this.freedCount = 0;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns an id that isn't in use.
+     */
+    public synchronized int allocate()
+    {
+        if(freedCount > 0
+            && System.nanoTime()-freedAt[head] >= REUSE_DELAY_MILLIS*1000000)
+        {
+            int id = freed[head];
+            head = (head+1)%freed.length;
+            --freedCount;
+            return id;
+        }
+        if(nextId < 0)
+        {
+            throw new IllegalStateException("out of entity ids");
+        }
+        return nextId++;
+    }
+
+    /**
+     * makes {id} available to {allocate} again. {id} must have been returned
+     *   by {allocate}, and not be in use anymore.
+     */
+    public synchronized void free(int id)
+    {
+        if(freedCount == freed.length)
+        {
+            grow();
+        }
+        int tail = (head+freedCount)%freed.length;
+        freed[tail] = id;
+        freedAt[tail] = System.nanoTime();
+        ++freedCount;
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    /**
+     * doubles the capacity of the ring, moving its elements to the front.
+     */
+    private void grow()
+    {
+        int[] ids = Arrays.copyOf(freed,freed.length*2);
+        long[] times = Arrays.copyOf(freedAt,freedAt.length*2);
+        // the elements that wrapped around go after the others
+        System.arraycopy(freed,0,ids,freed.length,head);
+        System.arraycopy(freedAt,0,times,freedAt.length,head);
+        freed = ids;
+        freedAt = times;
+    }
+}
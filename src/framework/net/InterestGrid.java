@@ -0,0 +1,229 @@
+package framework.net;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import framework.Spatial;
+
+/**
+ * a uniform grid of square cells that entities are put into by their
+ *   positions, so that the ones near a point can be found without looking at
+ *   all of them. the {Mux} rebuilds it every tick, from the positions the
+ *   entities are at.
+ *
+ * the non-empty cells are kept in a hash table with open addressing and
+ *   linear probing, keyed by the primitive {key} of each cell, like an
+ *   {EntityTable}. cells, and their lists, are kept from one tick to the
+ *   next, so rebuilding the grid only allocates for cells that no entity was
+ *   in the tick before.
+ */
+class InterestGrid
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int cellSize;
+
+    /**
+     * the cells, each in the first empty slot at or after the hash of its
+     *   {key}.
+     */
+    private Cell[] slots;
+
+    /**
+     * array that the cells are moved into by {clear}, and swapped with
+     *   {slots}. always as long as {slots}.
+     */
+    private Cell[] spareSlots;
+
+    private int size;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public InterestGrid(int cellSize)
+    {
+        this.cellSize = cellSize;
+        this.slots = new Cell[INITIAL_CAPACITY];
+        this.spareSlots = new Cell[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * removes all entities from the grid. the cells are kept for the entities
+     *   added next, unless they were empty already.
+     */
+    public void clear()
+    {
+        // move the cells that were used into the spare slots, leaving the
+        // empty ones behind
+        Cell[] old = slots;
+        slots = spareSlots;
+        spareSlots = old;
+        size = 0;
+        int mask = slots.length-1;
+        for(int i = 0; i < old.length; ++i)
+        {
+            Cell cell = old[i];
+            old[i] = null;
+            if(cell == null || cell.entities.isEmpty())
+            {
+                continue;
+            }
+            cell.entities.clear();
+            int j = hash(cell.key)&mask;
+            while(slots[j] != null)
+            {
+                j = (j+1)&mask;
+            }
+            slots[j] = cell;
+            ++size;
+        }
+    }
+
+    /**
+     * puts {entity} into the cell that holds ({x},{y}).
+     */
+    public void add(Entity entity, int x, int y)
+    {
+        long key = key(Math.floorDiv(x,cellSize),Math.floorDiv(y,cellSize));
+        Cell cell = get(key);
+        if(cell == null)
+        {
+            cell = new Cell(key);
+            put(cell);
+        }
+        cell.entities.add(entity);
+    }
+
+    /**
+     * adds the entities that are at most {range} away from ({x},{y}) on each
+     *   axis to {dst}.
+     */
+    public void query(int x, int y, int range, Collection<Entity> dst)
+    {
+        int minCol = Math.floorDiv(x-range,cellSize);
+        int maxCol = Math.floorDiv(x+range,cellSize);
+        int minRow = Math.floorDiv(y-range,cellSize);
+        int maxRow = Math.floorDiv(y+range,cellSize);
+        for(int col = minCol; col <= maxCol; ++col)
+        {
+            for(int row = minRow; row <= maxRow; ++row)
+            {
+                Cell cell = get(key(col,row));
+                if(cell == null)
+                {
+                    continue;
+                }
+                for(Entity entity : cell.entities)
+                {
+                    Spatial spatial = entity.getSpatial();
+                    if(Math.abs(spatial.getX()-x) <= range
+                        && Math.abs(spatial.getY()-y) <= range)
+                    {
+                        dst.add(entity);
+                    }
+                }
+            }
+        }
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    private static long key(int col, int row)
+    {
+        return ((long)col<<32)|(row&0xffffffffL);
+    }
+
+    /**
+     * spreads the bits of {key}, since the keys of neighboring cells would
+     *   otherwise land in the same run of slots.
+     */
+    private static int hash(long key)
+    {
+        long h = key*0x9e3779b97f4a7c15L;
+        return (int)(h^(h>>>32));
+    }
+
+    /**
+     * returns the cell whose key is {key}, or null if there is none.
+     */
+    private Cell get(long key)
+    {
+        int mask = slots.length-1;
+        for(int i = hash(key)&mask; slots[i] != null; i = (i+1)&mask)
+        {
+            if(slots[i].key == key)
+            {
+                return slots[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * adds {cell}, which isn't in the table yet, to the table.
+     */
+    private void put(Cell cell)
+    {
+        if((size+1)*2 > slots.length)
+        {
+            resize(slots.length*2);
+        }
+        int mask = slots.length-1;
+        int i = hash(cell.key)&mask;
+        while(slots[i] != null)
+        {
+            i = (i+1)&mask;
+        }
+        slots[i] = cell;
+        ++size;
+    }
+
+    private void resize(int capacity)
+    {
+        Cell[] old = slots;
+        slots = new Cell[capacity];
+        spareSlots = new Cell[capacity];
+        int mask = capacity-1;
+        for(Cell cell : old)
+        {
+            if(cell == null)
+            {
+                continue;
+            }
+            int i = hash(cell.key)&mask;
+            while(slots[i] != null)
+            {
+                i = (i+1)&mask;
+            }
+            slots[i] = cell;
+        }
+    }
+
+    //////////
+    // Cell //
+    //////////
+
+    /**
+     * a cell of the grid, and the entities in it.
+     */
+    private static class Cell
+    {
+        public final long key;
+        public final List<Entity> entities;
+
+        public Cell(long key)
+        {
+            this.key = key;
+            this.entities = new ArrayList<>();
+        }
+    }
+}
@@ -1,27 +1,124 @@
 package framework.net;
 
+import framework.ReplicatedState;
 import framework.Serializable;
+import framework.Spatial;
 import game.PairType;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import net.Host;
 import net.HostListener;
 import net.Packet;
-
+import net.VarInt;
+
+/**
+ * multiplexes the messages of many entities over the connections of a
+ *   {Host}.
+ *
+ * the server also replicates the states of the entities that have any, in
+ *   {replicate}: each client is sent a snapshot of the states of the entities
+ *   it is registered with, and acknowledges the snapshots it applies. the
+ *   state of an entity is sent as a delta against the last state of it that
+ *   the client acknowledged, holding only the fields that changed since, so
+ *   an entity that doesn't change costs nothing once the client has its
+ *   state. snapshots are sent unreliably; a lost one is made up for by the
+ *   next, since it is made against the same acknowledged states.
+ */
 public abstract class Mux<ClientKey> implements HostListener<ClientKey>
 {
+    /**
+     * size of a {MuxHeader} in the legacy format, where the id, pair type and
+     *   message type are each a 32-bit integer.
+     */
+    private static final int LEGACY_HEADER_SIZE = 12;
+
+    private static final PairType[] PAIR_TYPES = PairType.values();
+
+    private static final MuxMsg[] MSG_TYPES = MuxMsg.values();
+
+    /**
+     * key that {STATE} and {ACK} messages are sent unreliably with; a newer
+     *   one supersedes an older one.
+     */
+    private static final int STATE_KEY = -1;
+
+    /**
+     * packet sent with the {UNREGISTER} messages of entities that leave the
+     *   areas of interest of clients. packets are values, so it can be sent
+     *   any number of times.
+     */
+    private static final Packet EMPTY_PACKET = new Packet();
+
     private static Mux<?> instance;
 
     private final Host<ClientKey> adaptee;
 
     private final Set<ClientKey> clients;
 
-    private final Map<Integer,framework.net.Entity> entities;
+    private final EntityTable entities;
+
+    /**
+     * states sent to each client by {replicate}.
+     */
+    private final Map<ClientKey,States> sentStates;
+
+    /**
+     * states received from each remote host.
+     */
+    private final Map<ClientKey,States> receivedStates;
+
+    /**
+     * entities whose states were captured by the current call to
+     *   {replicate}, by the clients they are registered with.
+     */
+    private final Map<ClientKey,List<Entity>> replicated;
+
+    /**
+     * how far away from its focus an entity may be, on each axis, to be in
+     *   the area of interest of a client. 0 if every client is interested in
+     *   every entity.
+     */
+    private int interestRadius;
+
+    /**
+     * the entities that have positions, by where they are. null if every
+     *   client is interested in every entity.
+     */
+    private InterestGrid grid;
+
+    /**
+     * the entity whose position is the center of each client's area of
+     *   interest.
+     */
+    private final Map<ClientKey,Entity> foci;
+
+    /**
+     * the entities with positions that are registered with each client,
+     *   because they are in its area of interest.
+     */
+    private final Map<ClientKey,Set<Entity>> interests;
+
+    /**
+     * entities near the focus of the client whose area of interest is being
+     *   updated.
+     */
+    private final Set<Entity> nearby;
+
+    /**
+     * entities that entered the area of interest of the client whose area
+     *   of interest is being updated.
+     */
+    private final List<Entity> entered;
 
     //////////////////
     // constructors //
@@ -31,7 +128,16 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
     {
         this.adaptee = adaptee;
         this.clients = new LinkedHashSet<>();
-        this.entities = new LinkedHashMap<>();
+        this.entities = new EntityTable();
+        this.sentStates = new HashMap<>();
+        this.receivedStates = new HashMap<>();
+        this.replicated = new HashMap<>();
+        this.interestRadius = 0;
+        this.grid = null;
+        this.foci = new HashMap<>();
+        this.interests = new HashMap<>();
+        this.nearby = new HashSet<>();
+        this.entered = new ArrayList<>();
     }
 
     //////////////////////
@@ -64,40 +170,169 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
         }
     }
 
+    /**
+     * gives each client an area of interest, which is the square reaching
+     *   {radius} away from its focus on each axis. once set, entities that
+     *   have positions are only registered with the clients whose areas of
+     *   interest they are in; they are registered with a client when they
+     *   enter its area, and unregistered when they leave it. this is done by
+     *   {replicate}, so {register} and {registerWithAll} only add such
+     *   entities to the {Mux}.
+     *
+     * @param    radius   half the width of the areas of interest. 0 for every
+     *   client to be interested in every entity.
+     */
+    public final void setAreaOfInterest(int radius)
+    {
+        interestRadius = radius;
+        grid = (radius > 0) ? new InterestGrid(radius) : null;
+    }
+
+    /**
+     * centers the area of interest of {client} on {focus}, which should have
+     *   a position.
+     */
+    public final void setFocus(ClientKey client, Entity focus)
+    {
+        foci.put(client,focus);
+    }
+
     public final void register(ClientKey client, Entity entity, Packet packet)
     {
-        entities.put(entity.getId(),entity);
+        entities.put(entity);
+        if(isInterestManaged(entity))
+        {
+            return;
+        }
         entity.registeredClients.add(client);
+        trackState(client,entity);
         sendMuxMsg(client,entity.getId(),entity.getPairType(),MuxMsg.REGISTER,packet);
     }
 
+    /**
+     * registers {entities} with {client}, in one {JOIN_SNAPSHOT} message
+     *   rather than one {REGISTER} message each. the entities are registered
+     *   with the client in the order they are iterated in. like {register},
+     *   the entities that have positions are only added to the {Mux}, if the
+     *   clients have areas of interest.
+     */
+    public final void registerAll(ClientKey client, Collection<? extends Entity> entities)
+    {
+        List<Entity> batch = new ArrayList<>(entities.size());
+        for(Entity entity : entities)
+        {
+            this.entities.put(entity);
+            if(!isInterestManaged(entity))
+            {
+                entity.registeredClients.add(client);
+                trackState(client,entity);
+                batch.add(entity);
+            }
+        }
+        sendRegisters(client,batch);
+    }
+
     public final void registerWithAll(Entity entity, Packet packet)
     {
-        entities.put(entity.getId(),entity);
-        for(ClientKey c : clients)
+        entities.put(entity);
+        if(isInterestManaged(entity))
         {
-            entity.registeredClients.add(c);
-            sendMuxMsg(c,entity.getId(),entity.getPairType(),MuxMsg.REGISTER,packet);
+            return;
         }
+        entity.registeredClients.addAll(clients);
+        for(ClientKey client : clients)
+        {
+            trackState(client,entity);
+        }
+        sendMuxMsgToGroup(clients,entity.getId(),entity.getPairType(),MuxMsg.REGISTER,packet);
     }
 
+    @SuppressWarnings("unchecked")
     public final void unregisterWithAll(Entity entity, Packet packet)
     {
-        entities.put(entity.getId(),entity);
-        for(ClientKey c : clients)
+        Set<ClientKey> registered = new LinkedHashSet<>((Set<ClientKey>) entity.registeredClients);
+        if(entities.remove(entity.getId()) != null)
+        {
+            // the entity is gone, and its id can be given to a new one
+            entity.freeId();
+        }
+        entity.registeredClients.clear();
+        for(ClientKey client : registered)
         {
-            entity.registeredClients.add(c);
-            sendMuxMsg(c,entity.getId(),entity.getPairType(),MuxMsg.UNREGISTER,packet);
+            forgetInterest(client,entity);
+            forgetState(client,entity);
         }
+        sendMuxMsgToGroup(registered,entity.getId(),entity.getPairType(),MuxMsg.UNREGISTER,packet);
     }
 
     public final void unregister(ClientKey client, Entity entity, Packet packet)
     {
         entities.remove(entity.getId());
         entity.registeredClients.remove(client);
+        forgetInterest(client,entity);
+        forgetState(client,entity);
         sendMuxMsg(client,entity.getId(),entity.getPairType(),MuxMsg.UNREGISTER,packet);
     }
 
+    /**
+     * sends each client a snapshot of the replicated states of the entities
+     *   it is registered with. the state of an entity is left out if the
+     *   client has it already. should be invoked after the entities are
+     *   updated, every tick, or at a lower rate by a {SnapshotStage}.
+     *
+     * only the entities whose states changed since the last call, and the
+     *   ones whose states each client may not have yet, are looked at, so
+     *   entities that stay the same cost nothing.
+     *
+     * if the clients have areas of interest, the entities that entered or
+     *   left them are registered or unregistered first.
+     */
+    @SuppressWarnings("unchecked")
+    public final void replicate()
+    {
+        updateInterests();
+
+        // capture the state of each entity once, no matter how many clients
+        // it is sent to, and sort the ones that changed by the clients they
+        // are registered with
+        for(List<Entity> changed : replicated.values())
+        {
+            changed.clear();
+        }
+        for(Entity entity : entities)
+        {
+            ReplicatedState<?> state = entity.getReplicatedState();
+            if(state == null || !state.capture())
+            {
+                continue;
+            }
+            for(Object client : entity.registeredClients)
+            {
+                List<Entity> changed = replicated.get(client);
+                if(changed == null && clients.contains(client))
+                {
+                    changed = new ArrayList<>();
+                    replicated.put((ClientKey) client,changed);
+                }
+                if(changed != null)
+                {
+                    changed.add(entity);
+                }
+            }
+        }
+
+        for(ClientKey client : clients)
+        {
+            List<Entity> changed = replicated.get(client);
+            States sent = sentStates.get(client);
+            if((changed != null && !changed.isEmpty())
+                || (sent != null && !sent.unacked.isEmpty()))
+            {
+                sendState(client,changed);
+            }
+        }
+    }
+
     /////////////////////////
     // protected interface //
     /////////////////////////
@@ -114,31 +349,407 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
     // private interface //
     ///////////////////////
 
+    /**
+     * handles a message received through the {Mux}. for {STATE} and {ACK}
+     *   messages, {id} is the sequence number of the snapshot.
+     */
     private void onMessage(ClientKey conn, int id, PairType pairType, MuxMsg msgType, Packet packet)
     {
+        Entity entity;
         switch(msgType)
         {
         case REGISTER:
-            entities.put(id,onRegister(id,pairType,packet));
-            entities.get(id).registeredClients.add(conn);
+            entity = onRegister(id,pairType,packet);
+            entities.put(entity);
+            entity.registeredClients.add(conn);
+            entity.registeredBy = conn;
             break;
         case UPDATE:
-            entities.get(id).onUpdate(packet);
+            // updates for entities that aren't registered are ignored
+            entity = entities.get(id);
+            if(entity != null)
+            {
+                entity.onUpdate(packet);
+            }
             break;
         case UNREGISTER:
-            entities.get(id).onUnregister(packet);
-            entities.get(id).registeredClients.remove(conn);
-            entities.remove(id);
+            entity = entities.remove(id);
+            entity.onUnregister(packet);
+            entity.registeredClients.remove(conn);
+            forgetInterest(conn,entity);
+            forgetState(conn,entity);
+            break;
+        case STATE:
+            onState(conn,id,packet);
+            break;
+        case JOIN_SNAPSHOT:
+            onJoinSnapshot(conn,packet);
+            break;
+        case ACK:
+            onAck(conn,id);
             break;
         default:
             throw new RuntimeException("default case hit");
         }
     }
 
+    private boolean isInterestManaged(Entity entity)
+    {
+        return grid != null && entity.getSpatial() != null;
+    }
+
+    /**
+     * registers the entities that entered the area of interest of each
+     *   client with it, and unregisters the ones that left.
+     */
+    private void updateInterests()
+    {
+        if(grid == null)
+        {
+            return;
+        }
+        grid.clear();
+        for(Entity entity : entities)
+        {
+            Spatial spatial = entity.getSpatial();
+            if(spatial != null)
+            {
+                grid.add(entity,spatial.getX(),spatial.getY());
+            }
+        }
+
+        // entities leave an area a bit further out than they enter it, so the
+        // ones on its edge aren't registered and unregistered over and over
+        int leaveRadius = interestRadius+interestRadius/4;
+        for(ClientKey client : clients)
+        {
+            Set<Entity> interest = interests.computeIfAbsent(client,k -> new LinkedHashSet<>());
+            Entity focus = foci.get(client);
+            Spatial center = (focus != null) ? focus.getSpatial() : null;
+            nearby.clear();
+            if(center != null)
+            {
+                grid.query(center.getX(),center.getY(),leaveRadius,nearby);
+            }
+
+            entered.clear();
+            Iterator<Entity> it = interest.iterator();
+            while(it.hasNext())
+            {
+                Entity entity = it.next();
+                if(!nearby.contains(entity))
+                {
+                    it.remove();
+                    entity.registeredClients.remove(client);
+                    forgetState(client,entity);
+                    sendMuxMsg(client,entity.getId(),entity.getPairType(),MuxMsg.UNREGISTER,EMPTY_PACKET);
+                }
+            }
+            for(Entity entity : nearby)
+            {
+                Spatial spatial = entity.getSpatial();
+                if(Math.abs(spatial.getX()-center.getX()) <= interestRadius
+                    && Math.abs(spatial.getY()-center.getY()) <= interestRadius
+                    && interest.add(entity))
+                {
+                    entity.registeredClients.add(client);
+                    trackState(client,entity);
+                    entered.add(entity);
+                }
+            }
+            sendRegisters(client,entered);
+        }
+    }
+
+    /**
+     * sends {client} the message that registers the entities in {batch},
+     *   which must already be marked as registered with it. a lone entity is
+     *   sent in a {REGISTER} message, and more in a {JOIN_SNAPSHOT} message.
+     *
+     * the entries of a {JOIN_SNAPSHOT} are the id of the entity as a
+     *   {VarInt}, one byte holding its pair type, and the length of the byte
+     *   version of its register packet as a {VarInt}, followed by the byte
+     *   version itself.
+     */
+    private void sendRegisters(ClientKey client, List<Entity> batch)
+    {
+        if(batch.isEmpty())
+        {
+            return;
+        }
+        if(batch.size() == 1)
+        {
+            Entity entity = batch.get(0);
+            sendMuxMsg(client,entity.getId(),entity.getPairType(),MuxMsg.REGISTER,entity.getRegisterPacket());
+            return;
+        }
+
+        // build all the register packets first, to size the buffer once
+        Packet[] packets = new Packet[batch.size()];
+        int size = 0;
+        for(int i = 0; i < packets.length; ++i)
+        {
+            Entity entity = batch.get(i);
+            packets[i] = entity.getRegisterPacket();
+            int length = packets[i].length();
+            size += VarInt.size(entity.getId())+1+VarInt.size(length)+length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for(int i = 0; i < packets.length; ++i)
+        {
+            Entity entity = batch.get(i);
+            VarInt.put(buf,entity.getId());
+            buf.put((byte)entity.getPairType().ordinal());
+            VarInt.put(buf,packets[i].length());
+            packets[i].writeTo(buf);
+        }
+        sendMuxMsg(client,batch.size(),null,MuxMsg.JOIN_SNAPSHOT,new Packet().pushData(buf.array()));
+    }
+
+    /**
+     * registers each entity in the {JOIN_SNAPSHOT} message {packet}
+     *   received from {conn}, in order.
+     */
+    private void onJoinSnapshot(ClientKey conn, Packet packet)
+    {
+        ByteBuffer buf = packet.peekBuffer();
+        while(buf.hasRemaining())
+        {
+            int id = VarInt.get(buf);
+            PairType pairType = PAIR_TYPES[buf.get()];
+            byte[] data = new byte[VarInt.get(buf)];
+            buf.get(data);
+            Entity entity = onRegister(id,pairType,new Packet().fromBytes(data));
+            entities.put(entity);
+            entity.registeredClients.add(conn);
+            entity.registeredBy = conn;
+        }
+    }
+
+    /**
+     * removes {entity} from the area of interest of {client}.
+     */
+    private void forgetInterest(ClientKey client, Entity entity)
+    {
+        Set<Entity> interest = interests.get(client);
+        if(interest != null && entity != null)
+        {
+            interest.remove(entity);
+        }
+    }
+
+    /**
+     * makes {replicate} send the state of {entity} to {client} even if it
+     *   doesn't change, because the client doesn't have it yet.
+     */
+    private void trackState(ClientKey client, Entity entity)
+    {
+        if(entity.getReplicatedState() != null)
+        {
+            sentStates.computeIfAbsent(client,k -> new States()).unacked.add(entity);
+        }
+    }
+
+    /**
+     * sends {client} a snapshot of the states captured by {replicate} of the
+     *   entities in {changed}, which may be null, and of the ones that it
+     *   may not have, if it doesn't have them all already.
+     */
+    private void sendState(ClientKey client, List<Entity> changed)
+    {
+        States sent = sentStates.computeIfAbsent(client,k -> new States());
+        int seq = sent.seq;
+        List<Entity> candidates = new ArrayList<>(sent.unacked);
+        if(changed != null)
+        {
+            candidates.addAll(changed);
+        }
+        List<StateEntry> entries = new ArrayList<>();
+        int size = 0;
+        for(Entity entity : candidates)
+        {
+            ReplicatedState<?> state = entity.getReplicatedState();
+            StateHistory history = sent.histories.computeIfAbsent(entity,
+                k -> new StateHistory(state.fieldCount()));
+            if(history.lastSentSeq == seq)
+            {
+                // both changed and unacknowledged
+                continue;
+            }
+
+            // make a delta against the last state that the client
+            // acknowledged, if it still has it; otherwise send all of it
+            int baseline = (seq-history.ackedSeq < StateHistory.SIZE)
+                ? history.find(history.ackedSeq)
+                : -1;
+            long[] values = state.values();
+            int mask = (baseline >= 0)
+                ? state.dirtyMask(values,history.values(),baseline)
+                : state.dirtyMask(values,null,0);
+
+            // leave the entity out if the client has acknowledged its state,
+            // and wasn't sent a different one since
+            if(mask == 0 && history.lastSentSeq <= history.ackedSeq)
+            {
+                sent.unacked.remove(entity);
+                continue;
+            }
+            history.store(seq,values);
+            history.lastSentSeq = seq;
+            sent.unacked.add(entity);
+            StateEntry entry = new StateEntry(entity.getId(),
+                (baseline >= 0) ? seq-history.ackedSeq : 0,mask,state);
+            entries.add(entry);
+            size += entry.serializedSize();
+        }
+        if(entries.isEmpty())
+        {
+            return;
+        }
+        sent.seq = seq+1;
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for(StateEntry entry : entries)
+        {
+            entry.writeTo(buf);
+        }
+        Packet packet = new Packet()
+            .pushData(buf.array())
+            .pushData(new MuxHeader(seq,null,MuxMsg.STATE));
+        adaptee.sendUnreliableMessage(client,STATE_KEY,packet);
+    }
+
+    /**
+     * applies the states in the snapshot {seq} received from {conn}, and
+     *   acknowledges it if all of them could be applied.
+     */
+    private void onState(ClientKey conn, int seq, Packet packet)
+    {
+        // snapshots may arrive out of order; drop the ones older than the
+        // last one that was applied
+        States received = receivedStates.computeIfAbsent(conn,k -> new States());
+        if(seq < received.seq)
+        {
+            return;
+        }
+        received.seq = seq+1;
+
+        boolean complete = true;
+        ByteBuffer buf = packet.peekBuffer();
+        while(buf.hasRemaining())
+        {
+            int id = VarInt.get(buf);
+            int distance = VarInt.get(buf);
+            int length = VarInt.get(buf);
+            int end = buf.position()+length;
+            Entity entity = entities.get(id);
+            if(entity == null)
+            {
+                // the entity isn't registered yet, or anymore
+                complete = false;
+            }
+            else if(!conn.equals(entity.registeredBy))
+            {
+                // only the host that registered an entity has a say in its
+                // state; a server never takes states from its clients
+                complete = false;
+            }
+            else if(entity.getReplicatedState() != null)
+            {
+                complete &= applyState(received,entity,seq,distance,buf);
+            }
+            buf.position(end);
+        }
+
+        // only acknowledge snapshots that were applied whole, so deltas are
+        // never made against states that this host doesn't have
+        if(complete)
+        {
+            Packet ack = new Packet().pushData(new MuxHeader(seq,null,MuxMsg.ACK));
+            adaptee.sendUnreliableMessage(conn,STATE_KEY,ack);
+        }
+    }
+
+    /**
+     * decodes the state of {entity} in snapshot {seq} from {buf}, and
+     *   applies it. returns false if the state it is a delta against isn't
+     *   known.
+     */
+    private boolean applyState(States received, Entity entity, int seq, int distance, ByteBuffer buf)
+    {
+        ReplicatedState<?> state = entity.getReplicatedState();
+        StateHistory history = received.histories.computeIfAbsent(entity,
+            k -> new StateHistory(state.fieldCount()));
+        long[] values = state.values();
+        if(distance > 0)
+        {
+            int baseline = history.find(seq-distance);
+            if(baseline < 0)
+            {
+                return false;
+            }
+            System.arraycopy(history.values(),baseline,values,0,values.length);
+        }
+        state.readDelta(buf,values);
+        history.store(seq,values);
+        state.apply(values);
+        return true;
+    }
+
+    /**
+     * marks the states that were sent to {conn} in snapshot {seq} as
+     *   acknowledged, so later deltas are made against them.
+     */
+    private void onAck(ClientKey conn, int seq)
+    {
+        States sent = sentStates.get(conn);
+        if(sent == null)
+        {
+            return;
+        }
+        // only the unacknowledged states can be acknowledged
+        Iterator<Entity> it = sent.unacked.iterator();
+        while(it.hasNext())
+        {
+            StateHistory history = sent.histories.get(it.next());
+            if(history == null)
+            {
+                continue;
+            }
+            if(seq > history.ackedSeq && history.find(seq) >= 0)
+            {
+                history.ackedSeq = seq;
+            }
+            if(history.lastSentSeq <= history.ackedSeq)
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * forgets the states of {entity} that were sent to, or received from,
+     *   {client}.
+     */
+    private void forgetState(ClientKey client, Entity entity)
+    {
+        States states = sentStates.get(client);
+        if(states != null)
+        {
+            states.histories.remove(entity);
+            states.unacked.remove(entity);
+        }
+        states = receivedStates.get(client);
+        if(states != null)
+        {
+            states.histories.remove(entity);
+        }
+    }
+
     private void sendMuxMsgToGroup(Set<ClientKey> clients, int id, PairType pairType, MuxMsg msgType, Packet packet)
     {
         // prepare the packet with custom header data
-        packet = packet.pushData(new MuxHeader(id,pairType,msgType).toBytes());
+        packet = packet.pushData(new MuxHeader(id,pairType,msgType));
 
         // send the packet to all connected clients
         sendMessageToGroup(clients,packet);
@@ -147,7 +758,7 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
     private void sendMuxMsg(ClientKey client, int id, PairType pairType, MuxMsg msgType, Packet packet)
     {
         // prepare the packet with custom header data
-        packet = packet.pushData(new MuxHeader(id,pairType,msgType).toBytes());
+        packet = packet.pushData(new MuxHeader(id,pairType,msgType));
 
         // send the packet to all connected clients
         sendMessage(client,packet);
@@ -155,11 +766,9 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
 
     private void sendMessageToGroup(Set<ClientKey> clients, Packet packet)
     {
-        // send the packet to all connected clients
-        for(ClientKey c : clients)
-        {
-            adaptee.sendMessage(c,packet);
-        }
+        // send the packet to all connected clients; the packet is framed
+        // once and shared between all of them
+        adaptee.sendMessageToGroup(clients,packet);
     }
 
     private void sendMessage(ClientKey client, Packet packet)
@@ -180,7 +789,7 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
     public void onMessage(ClientKey conn, Packet packet)
     {
         // parse header data from packet
-        MuxHeader hdr = new MuxHeader(packet.peekData());
+        MuxHeader hdr = new MuxHeader(packet.peekBuffer());
         packet = packet.popData();
 
         // invoke callback
@@ -198,12 +807,97 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
     {
         System.out.println("connection"+conn.hashCode()+" closed by "+(remote?"remote":"local")+" host");
         clients.remove(conn);
+        sentStates.remove(conn);
+        receivedStates.remove(conn);
+        replicated.remove(conn);
+        foci.remove(conn);
+        interests.remove(conn);
+
+        // entities may have been registered with the connection through its
+        // area of interest, or directly by {register} and the like
+        for(Entity entity : entities)
+        {
+            entity.registeredClients.remove(conn);
+        }
+    }
+
+    ////////////
+    // States //
+    ////////////
+
+    /**
+     * the states of entities sent to, or received from, one remote host.
+     */
+    private static class States
+    {
+        /**
+         * sequence number of the next snapshot to send, or the lowest one
+         *   that may still be applied.
+         */
+        public int seq;
+        public final Map<Entity,StateHistory> histories = new HashMap<>();
+        /**
+         * entities whose states the remote host may not have: they were sent
+         *   to it, and not acknowledged yet, or were never sent. only used on
+         *   the sending side.
+         */
+        public final Set<Entity> unacked = new LinkedHashSet<>();
+    }
+
+    ////////////////
+    // StateEntry //
+    ////////////////
+
+    /**
+     * the state of one entity in a snapshot. encoded as the entity's id, the
+     *   distance from the snapshot back to the one whose state the delta is
+     *   against, or 0 if it isn't a delta, and the length of the delta, all as
+     *   {VarInt}s, followed by the delta itself.
+     */
+    private static class StateEntry
+    {
+        public final int id;
+        public final int distance;
+        public final int mask;
+        public final ReplicatedState<?> state;
+        public StateEntry(int id, int distance, int mask, ReplicatedState<?> state)
+        {
+            this.id = id;
+            this.distance = distance;
+            this.mask = mask;
+            this.state = state;
+        }
+        public int serializedSize()
+        {
+            int length = state.deltaSize(mask);
+            return VarInt.size(id)+VarInt.size(distance)+VarInt.size(length)+length;
+        }
+        public void writeTo(ByteBuffer dst)
+        {
+            VarInt.put(dst,id);
+            VarInt.put(dst,distance);
+            VarInt.put(dst,state.deltaSize(mask));
+            state.writeDelta(state.values(),mask,dst);
+        }
     }
 
     ///////////////
     // MuxHeader //
     ///////////////
 
+    /**
+     * header pushed onto every packet sent through the {Mux}.
+     *
+     * the id is encoded as a {VarInt}, followed by one byte that holds the
+     *   pair type in its upper four bits, and the message type in its lower
+     *   four bits. headers in the legacy format, which is three 32-bit
+     *   integers, are recognized by their length, and can still be parsed.
+     *
+     * {STATE} and {ACK} messages aren't about one entity; their id is the
+     *   sequence number of the snapshot, and their pair type is null. the id
+     *   of a {JOIN_SNAPSHOT} message is the number of entities it registers,
+     *   and its pair type is null too.
+     */
     private class MuxHeader implements Serializable
     {
         public int id;
@@ -215,28 +909,55 @@ public abstract class Mux<ClientKey> implements HostListener<ClientKey>
             this.pairType = pairType;
             this.msgType = msgType;
         }
-        public MuxHeader(byte[] data)
+        public MuxHeader(ByteBuffer buf)
         {
-            fromBytes(data);
+            readFrom(buf);
         }
         @Override
         public MuxHeader fromBytes(byte[] data)
+        {
+            return readFrom(ByteBuffer.wrap(data));
+        }
+        @Override
+        public MuxHeader readFrom(ByteBuffer buf)
         {
             // parse header data from packet
-            ByteBuffer buf = ByteBuffer.wrap(data);
-            id = buf.getInt();
-            pairType = PairType.values()[buf.getInt()];
-            msgType = MuxMsg.values()[buf.getInt()];
+            if(buf.remaining() == LEGACY_HEADER_SIZE)
+            {
+                id = buf.getInt();
+                pairType = PAIR_TYPES[buf.getInt()];
+                msgType = MSG_TYPES[buf.getInt()];
+            }
+            else
+            {
+                id = VarInt.get(buf);
+                int types = buf.get()&0xff;
+                msgType = MSG_TYPES[types&0x0f];
+                pairType = (msgType == MuxMsg.STATE || msgType == MuxMsg.ACK
+                        || msgType == MuxMsg.JOIN_SNAPSHOT)
+                    ? null
+                    : PAIR_TYPES[types>>>4];
+            }
             return this;
         }
         @Override
         public byte[] toBytes()
         {
-            ByteBuffer buf = ByteBuffer.allocate(12);
-            buf.putInt(id);
-            buf.putInt(pairType.ordinal());
-            buf.putInt(msgType.ordinal());
-            return buf.array();
+            byte[] data = new byte[serializedSize()];
+            writeTo(ByteBuffer.wrap(data));
+            return data;
+        }
+        @Override
+        public int serializedSize()
+        {
+            return VarInt.size(id)+1;
+        }
+        @Override
+        public void writeTo(ByteBuffer dst)
+        {
+            VarInt.put(dst,id);
+            int pairBits = (pairType != null) ? pairType.ordinal()<<4 : 0;
+            dst.put((byte)(pairBits|msgType.ordinal()));
         }
     }
 }
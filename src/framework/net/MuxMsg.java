@@ -4,5 +4,18 @@ public enum MuxMsg
 {
     REGISTER,
     UPDATE,
-    UNREGISTER
+    UNREGISTER,
+    /**
+     * snapshot of the replicated states of entities, sent by {Mux.replicate}.
+     */
+    STATE,
+    /**
+     * acknowledges that a {STATE} was applied.
+     */
+    ACK,
+    /**
+     * registers many entities at once, such as the ones that a client is
+     *   sent when it joins, sent by {Mux.registerAll}.
+     */
+    JOIN_SNAPSHOT
 }
@@ -6,6 +6,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import net.Packet;
 import framework.Controller;
 import framework.GameEntity;
+import framework.ReplicatedState;
+import framework.Spatial;
 import game.PairType;
 
 public class ServerController extends framework.net.Entity implements Controller
@@ -52,11 +54,23 @@ public class ServerController extends framework.net.Entity implements Controller
         events.add(packet);
     }
 
+    @Override
+    public ReplicatedState<?> getReplicatedState()
+    {
+        return (controllee != null) ? controllee.getReplicatedState() : null;
+    }
+
+    @Override
+    public Spatial getSpatial()
+    {
+        return (controllee instanceof Spatial) ? (Spatial)controllee : null;
+    }
+
     @Override
     public Packet getRegisterPacket()
     {
         return new Packet()
-            .pushData(controllee.toBytes())
+            .pushData(controllee)
             .pushData(controllee.getClass().getSimpleName().getBytes());
     }
 
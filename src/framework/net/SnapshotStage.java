@@ -0,0 +1,68 @@
+package framework.net;
+
+import java.util.concurrent.TimeUnit;
+
+import framework.OutputEntity;
+
+/**
+ * invokes {Mux.replicate} at a fixed rate, which may be lower than the rate
+ *   the game loop ticks at. registered with the game loop as an
+ *   {OutputEntity}, so the snapshots are taken after the entities are
+ *   updated, and before the messages are written out.
+ *
+ * however many entities change between two snapshots, and however often, each
+ *   client is sent at most one snapshot per interval, so the bandwidth and
+ *   the number of messages the replication costs are bounded by the rate.
+ */
+public class SnapshotStage implements OutputEntity
+{
+    private final Mux<?> mux;
+
+    private final long intervalNanos;
+
+    /**
+     * nanosecond time at which the next snapshot is due.
+     */
+    private long nextSnapshot;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    /**
+     * @param   mux   {Mux} to replicate the entities of.
+     * @param   snapshotsPerSecond   number of snapshots to take per second.
+     *   if it is higher than the game loop's tick rate, one is taken every
+     *   tick.
+     */
+    public SnapshotStage(Mux<?> mux, int snapshotsPerSecond)
+    {
+        this.mux = mux;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1)/snapshotsPerSecond;
+        this.nextSnapshot = System.nanoTime();
+    }
+
+    //////////////////
+    // OutputEntity //
+    //////////////////
+
+    @Override
+    public void processOutputs()
+    {
+        long now = System.nanoTime();
+        if(now-nextSnapshot < 0)
+        {
+            return;
+        }
+
+        // schedule the next snapshot from when this one was due, so the
+        // ticks that the snapshots fall on average out to the right rate;
+        // but don't try to catch up on the ones missed by a slow tick
+        nextSnapshot += intervalNanos;
+        if(now-nextSnapshot >= 0)
+        {
+            nextSnapshot = now+intervalNanos;
+        }
+        mux.replicate();
+    }
+}
@@ -0,0 +1,94 @@
+package framework.net;
+
+import java.util.Arrays;
+
+/**
+ * the last {SIZE} replicated states of an entity that were sent to, or
+ *   received from, one host, each tagged with the sequence number of the
+ *   snapshot that held it.
+ */
+class StateHistory
+{
+    /**
+     * number of states kept. a delta can only be made against a state that is
+     *   less than this many snapshots old.
+     */
+    public static final int SIZE = 16;
+
+    private final int fieldCount;
+
+    /**
+     * the values of the states, {fieldCount} for each slot.
+     */
+    private final long[] values;
+
+    /**
+     * sequence number of the snapshot that each slot's state was in, or -1 if
+     *   the slot is empty.
+     */
+    private final int[] seqs;
+
+    /**
+     * sequence number of the newest state the remote host acknowledged, or
+     *   -1 if none. only used on the sending side.
+     */
+    public int ackedSeq;
+
+    /**
+     * sequence number of the newest state that was sent, or -1 if none. only
+     *   used on the sending side.
+     */
+    public int lastSentSeq;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public StateHistory(int fieldCount)
+    {
+        this.fieldCount = fieldCount;
+        this.values = new long[SIZE*fieldCount];
+        this.seqs = new int[SIZE];
+        this.ackedSeq = -1;
+        this.lastSentSeq = -1;
+        Arrays.fill(seqs,-1);
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns the array that holds the states; use with the offsets returned
+     *   by {find}.
+     */
+    public long[] values()
+    {
+        return values;
+    }
+
+    /**
+     * stores a copy of {state} as the state of snapshot {seq}, replacing the
+     *   one that is {SIZE} snapshots older.
+     */
+    public void store(int seq, long[] state)
+    {
+        int slot = seq%SIZE;
+        System.arraycopy(state,0,values,slot*fieldCount,fieldCount);
+        seqs[slot] = seq;
+    }
+
+    /**
+     * returns the offset into {values()} of the state of snapshot {seq}, or
+     *   -1 if it isn't stored.
+     */
+    public int find(int seq)
+    {
+        if(seq < 0)
+        {
+            return -1;
+        }
+        int slot = seq%SIZE;
+        return (seqs[slot] == seq) ? slot*fieldCount : -1;
+    }
+}
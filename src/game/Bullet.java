@@ -3,22 +3,31 @@ package game;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 
 import net.Packet;
 import framework.Controller;
+import framework.Replicated;
+import framework.ReplicatedCodec;
+import framework.Spatial;
 import framework.net.Mux;
 import framework.net.ServerController;
 
-public class Bullet extends framework.GameEntity
+public class Bullet extends framework.GameEntity implements Spatial
 {
     public static final int BULLET_SPEED = 10;
+    private static final ReplicatedCodec<Bullet> CODEC = new ReplicatedCodec<>(Bullet.class);
+    @Replicated(bits=24,precision=1f/64)
     private float x;
+    @Replicated(bits=24,precision=1f/64)
     private float y;
+    @Replicated(bits=16,precision=1f/1024)
     private float xSpeed;
+    @Replicated(bits=16,precision=1f/1024)
     private float ySpeed;
     private int life;
     private Controller ctrl;
+    @Replicated
+    private int renderRgb;
     private Color renderColor;
 
     public Bullet(Controller ctrl, int x, int y, double angle, Color renderColor)
@@ -32,6 +41,19 @@ public class Bullet extends framework.GameEntity
         this.xSpeed = (float) (Math.cos(angle)*BULLET_SPEED);
         this.ySpeed = (float) (Math.sin(angle)*BULLET_SPEED);
         this.renderColor = renderColor;
+        this.renderRgb = renderColor.getRGB();
+    }
+
+    @Override
+    public int getX()
+    {
+        return (int)x;
+    }
+
+    @Override
+    public int getY()
+    {
+        return (int)y;
     }
 
     @Override
@@ -40,15 +62,8 @@ public class Bullet extends framework.GameEntity
         x += xSpeed;
         y += ySpeed;
 
-        Packet[] events = ctrl.getEvents();
-        if(events.length > 0)
-        {
-            unsetCanvas();
-            unsetGameLoop();
-            framework.net.Entity netEntity = (framework.net.Entity) ctrl;
-            Mux.<SocketChannel>getInstance().unregisterWithAll(netEntity,new Packet());
-            ctrl = null;
-        }
+        // on the server, this lets the controller invoke serverUpdate
+        ctrl.getEvents();
     }
 
     @Override
@@ -56,33 +71,47 @@ public class Bullet extends framework.GameEntity
     {
         if(--life < 0)
         {
+            // the bullet is removed on the server, and on the clients it is
+            // registered with; the ones whose areas of interest it isn't in
+            // never hear of it
+            unsetGameLoop();
             ServerController svrCtrl = (ServerController) ctrl;
-            svrCtrl.update(new Packet());
+            Mux.getInstance().unregisterWithAll(svrCtrl,new Packet());
         }
     }
 
     @Override
     public Bullet fromBytes(byte[] data)
     {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        x = buf.getFloat();
-        y = buf.getFloat();
-        xSpeed = buf.getFloat();
-        ySpeed = buf.getFloat();
-        renderColor = new Color(buf.getInt());
-        return this;
+        return readFrom(ByteBuffer.wrap(data));
     }
 
     @Override
     public byte[] toBytes()
     {
-        ByteBuffer buf = ByteBuffer.allocate(5*4);
-        buf.putFloat(x);
-        buf.putFloat(y);
-        buf.putFloat(xSpeed);
-        buf.putFloat(ySpeed);
-        buf.putInt(renderColor.getRGB());
-        return buf.array();
+        byte[] data = new byte[CODEC.serializedSize()];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    @Override
+    public int serializedSize()
+    {
+        return CODEC.serializedSize();
+    }
+
+    @Override
+    public Bullet readFrom(ByteBuffer src)
+    {
+        CODEC.readFrom(this,src);
+        renderColor = new Color(renderRgb);
+        return this;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst)
+    {
+        CODEC.writeTo(this,dst);
     }
 
     @Override
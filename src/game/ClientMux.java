@@ -49,17 +49,19 @@ public class ClientMux<ClientKey> extends Mux<ClientKey>
             packet = packet.popData();
             if(controlleeName.equals(Gunner.class.getSimpleName()))
             {
-                Gunner gunner = new Gunner(ctrl,0,0).fromBytes(packet.peekData());
+                Gunner gunner = new Gunner(ctrl,0,0).readFrom(packet.peekBuffer());
                 packet = packet.popData();
                 gunner.setCanvas(canvas);
                 gunner.setGameLoop(gameLoop);
+                ctrl.setControllee(gunner);
             }
             if(controlleeName.equals(Bullet.class.getSimpleName()))
             {
-                Bullet bullet = new Bullet(ctrl,0,0,0,Color.BLACK).fromBytes(packet.peekData());
+                Bullet bullet = new Bullet(ctrl,0,0,0,Color.BLACK).readFrom(packet.peekBuffer());
                 packet = packet.popData();
                 bullet.setCanvas(canvas);
                 bullet.setGameLoop(gameLoop);
+                ctrl.setControllee(bullet);
             }
             ret = ctrl;
             break;
@@ -0,0 +1,47 @@
+package game;
+
+import java.io.ByteArrayOutputStream;
+
+import framework.ReplicatedCodec;
+import net.Packet;
+
+/**
+ * preset dictionary for the compression streams between the game's server and
+ *   clients, and the size above which frames are compressed.
+ *
+ * the dictionary is made of packets shaped like the ones the game sends most
+ *   when a client joins: register packets of each kind of controllee, which
+ *   hold its class name and its serialized state.
+ */
+public final class CompressionDictionary
+{
+    /**
+     * frames with payloads bigger than this many bytes are compressed.
+     */
+    public static final int THRESHOLD = 256;
+
+    private CompressionDictionary()
+    {
+    }
+
+    /**
+     * returns the preset dictionary. the server and its clients must use the
+     *   same one.
+     *
+     * @return   the preset dictionary.
+     */
+    public static byte[] get()
+    {
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        Class<?>[] controllees = {Bullet.class,Gunner.class};
+        for(Class<?> controllee : controllees)
+        {
+            byte[] sample = new Packet()
+                .pushData(new byte[new ReplicatedCodec<>(controllee).serializedSize()])
+                .pushData(controllee.getSimpleName().getBytes())
+                .toBytes();
+            dictionary.write(sample,0,sample.length);
+        }
+        return dictionary.toByteArray();
+    }
+}
@@ -6,24 +6,33 @@ import java.nio.ByteBuffer;
 
 import net.Packet;
 import framework.Controller;
+import framework.Replicated;
+import framework.ReplicatedCodec;
+import framework.ReplicatedState;
 import framework.GameEntity;
-import framework.net.ServerController;
+import framework.Spatial;
 
-public class Gunner extends GameEntity
+public class Gunner extends GameEntity implements Spatial
 {
     public static final int MAX_SPEED = 7;
-    public static final int JUMP_COMMAND_INTERVAL = 500;
     public static final int DRAW_RADIUS = 20;
     public static final int DEMI_DRAW_RADIUS = DRAW_RADIUS/2;
+    private static final ReplicatedCodec<Gunner> CODEC = new ReplicatedCodec<>(Gunner.class);
+    @Replicated(bits=16)
     private int x;
+    @Replicated(bits=16)
     private int y;
+    @Replicated(bits=8)
     private int xSpeed;
+    @Replicated(bits=8)
     private int ySpeed;
     private int targetXSpeed;
     private int targetYSpeed;
     private Controller ctrl;
-    private int sendJumpCommandTimer;
+    @Replicated
+    private int renderRgb;
     private Color renderColor;
+    private final ReplicatedState<Gunner> state;
 
     public Gunner(Controller ctrl, int x, int y)
     {
@@ -40,15 +49,19 @@ public class Gunner extends GameEntity
         float saturation = 0.9f;
         float luminance = 1.0f;
         this.renderColor = Color.getHSBColor(hue,saturation,luminance);
+        this.renderRgb = renderColor.getRGB();
 
-        this.sendJumpCommandTimer = JUMP_COMMAND_INTERVAL;
+        this.state = new ReplicatedState<>(CODEC,this,
+            () -> renderColor = new Color(renderRgb));
     }
 
+    @Override
     public int getX()
     {
         return x;
     }
 
+    @Override
     public int getY()
     {
         return y;
@@ -59,28 +72,44 @@ public class Gunner extends GameEntity
         return renderColor;
     }
 
+    @Override
+    public ReplicatedState<Gunner> getReplicatedState()
+    {
+        return state;
+    }
+
     @Override
     public Gunner fromBytes(byte[] data)
     {
-        ByteBuffer buf = ByteBuffer.wrap(data);
-        x = buf.getInt();
-        y = buf.getInt();
-        xSpeed = buf.getInt();
-        ySpeed = buf.getInt();
-        renderColor = new Color(buf.getInt());
-        return this;
+        return readFrom(ByteBuffer.wrap(data));
     }
 
     @Override
     public byte[] toBytes()
     {
-        ByteBuffer buf = ByteBuffer.allocate(5*4);
-        buf.putInt(x);
-        buf.putInt(y);
-        buf.putInt(xSpeed);
-        buf.putInt(ySpeed);
-        buf.putInt(renderColor.getRGB());
-        return buf.array();
+        byte[] data = new byte[CODEC.serializedSize()];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    @Override
+    public int serializedSize()
+    {
+        return CODEC.serializedSize();
+    }
+
+    @Override
+    public Gunner readFrom(ByteBuffer src)
+    {
+        CODEC.readFrom(this,src);
+        renderColor = new Color(renderRgb);
+        return this;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst)
+    {
+        CODEC.writeTo(this,dst);
     }
 
     @Override
@@ -112,7 +141,7 @@ public class Gunner extends GameEntity
         Packet[] events = ctrl.getEvents();
         for(Packet e : events)
         {
-        ByteBuffer buf = ByteBuffer.wrap(e.peekData());
+        ByteBuffer buf = e.peekBuffer();
         e = e.popData();
         switch(Command.values()[buf.getInt()])
         {
@@ -143,24 +172,8 @@ public class Gunner extends GameEntity
     @Override
     public void serverUpdate()
     {
-        if(--sendJumpCommandTimer < 0)
-        {
-            // reset jump timer
-            sendJumpCommandTimer = JUMP_COMMAND_INTERVAL;
-
-            // create the jump command packet, and send it
-            ByteBuffer payload = ByteBuffer.allocate(5*4);
-            Packet packet = new Packet();
-
-            payload.putInt(Command.JUMP.ordinal());
-            payload.putInt(x);
-            payload.putInt(y);
-            payload.putInt(xSpeed);
-            payload.putInt(ySpeed);
-
-            ServerController svrCtrl = (ServerController) ctrl;
-            svrCtrl.update(packet.pushData(payload.array()));
-        }
+        // the gunner's state is kept in sync with the clients by the mux,
+        // which replicates it at the end of every tick
     }
 
     @Override
@@ -45,7 +45,7 @@ public class ServerCommand extends framework.net.Entity
     @Override
     public void onUpdate(Packet packet)
     {
-        ByteBuffer buf = ByteBuffer.wrap(packet.peekData());
+        ByteBuffer buf = packet.peekBuffer();
         switch(Command.values()[buf.getInt()])
         {
         case MAKE_BULLET:
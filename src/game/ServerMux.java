@@ -1,6 +1,8 @@
 package game;
 
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import framework.GameLoop;
@@ -19,11 +21,20 @@ public class ServerMux<ClientKey> extends Mux<ClientKey>
      */
     private Set<framework.net.Entity> sharedEntities;
 
+    /**
+     * how far away from a client's gunner, on each axis, the entities it is
+     *   sent may be. a little more than the client's window, so whatever is
+     *   in the window is registered with the client wherever in it the
+     *   gunner is.
+     */
+    public static final int AREA_OF_INTEREST_RADIUS = 600;
+
     public ServerMux(Host<ClientKey> adaptee, GameLoop gameLoop)
     {
         super(adaptee);
         this.sharedEntities = new LinkedHashSet<>();
         this.gameLoop = gameLoop;
+        setAreaOfInterest(AREA_OF_INTEREST_RADIUS);
     }
 
     @Override
@@ -38,12 +49,16 @@ public class ServerMux<ClientKey> extends Mux<ClientKey>
      * sets up the initial entities used to communicate with the new client.
      *
      * registers existing shared network entities with the newly connected
-     *   client.
+     *   client, together with its special entities, in one message.
      *
      * registers special network entities with the newly connected clients.
      *
      * adds new shared entities to the set of shared entities, and registers it
      *   with all previously connected clients.
+     *
+     * the client's area of interest is centered on its gunner; the gunners
+     *   and bullets are only registered with the clients whose areas of
+     *   interest they are in.
      */
     @Override
     public void onOpen(ClientKey conn)
@@ -59,13 +74,14 @@ public class ServerMux<ClientKey> extends Mux<ClientKey>
         ctrl.setControllee(gunner);
         gunner.setGameLoop(gameLoop);
         cmd.setServerController(ctrl);
-        register(conn,cmd,new Packet());
+        setFocus(conn,ctrl);
 
-        // register all shared entities with the new client
-        for(framework.net.Entity e : sharedEntities)
-        {
-            register(conn,e,e.getRegisterPacket());
-        }
+        // register the command entity and all shared entities with the new
+        // client at once
+        List<framework.net.Entity> joined = new ArrayList<>(sharedEntities.size()+1);
+        joined.add(cmd);
+        joined.addAll(sharedEntities);
+        registerAll(conn,joined);
 
         // register the new shared entity with all currently connected clients
         registerWithAll(ctrl,ctrl.getRegisterPacket());
@@ -0,0 +1,179 @@
+package net;
+
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * a {Client} that does its networking over blocking channels, with a reader
+ *   and a writer thread for every connection. the threads are virtual threads
+ *   if the runtime has them.
+ *
+ * it sends and receives the same frames as a {SelectClient}, and its
+ *   callbacks are likewise only invoked from {handleMessages}, so the two can
+ *   be swapped for one another.
+ */
+public abstract class BlockingClient implements Client<SocketChannel>, SelectThread.SelectListener
+{
+    private final BlockingTransport transport;
+
+    private ClientListener<SocketChannel> observer;
+
+    private static final NullClientListener<SocketChannel> NULL_OBSERVER
+            = new NullClientListener<>();
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public BlockingClient()
+    {
+        this.transport = new BlockingTransport();
+        this.observer = NULL_OBSERVER;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public BlockingClient setObserver(ClientListener<SocketChannel> observer)
+    {
+        this.observer = (observer != null) ? observer : NULL_OBSERVER;
+        return this;
+    }
+
+    /**
+     * sets the largest frame payload, in bytes, that is accepted from a remote
+     *   host. connections that send bigger frames are closed.
+     *
+     * @param   maxFrameSize   largest frame payload to accept, in bytes.
+     */
+    public BlockingClient setMaxFrameSize(int maxFrameSize)
+    {
+        transport.setMaxFrameSize(maxFrameSize);
+        return this;
+    }
+
+    /**
+     * enables compression of frames bigger than {threshold} bytes on
+     *   connections opened after this call. the remote host must use the same
+     *   {dictionary}.
+     *
+     * @param   threshold   frames with payloads bigger than this many bytes are
+     *   compressed. negative to disable compression.
+     * @param   dictionary   preset dictionary for the compression streams. may
+     *   be null.
+     */
+    public BlockingClient setCompression(int threshold, byte[] dictionary)
+    {
+        transport.setCompression(threshold,dictionary);
+        return this;
+    }
+
+    /**
+     * sets whether sent messages are written out right away, or held back
+     *   until the next call to {flush}.
+     *
+     * @param   coalesceWrites   true to hold messages back until {flush} is
+     *   called; false to write them out right away.
+     */
+    public BlockingClient setCoalesceWrites(boolean coalesceWrites)
+    {
+        transport.setCoalesceWrites(coalesceWrites);
+        return this;
+    }
+
+    /**
+     * writes out all messages held back since the last flush, with the
+     *   messages to each connection written together.
+     */
+    public void flush()
+    {
+        transport.flush();
+    }
+
+    /**
+     * returns true if the connections are handled by virtual threads, and
+     *   false if they are handled by platform threads.
+     */
+    public boolean usesVirtualThreads()
+    {
+        return transport.usesVirtualThreads();
+    }
+
+    public void handleMessages(SelectThread.SelectListener listener)
+    {
+        transport.handleMessages(this);
+    }
+
+    //////////////////////////////////////////////
+    // public interface & Client implementation //
+    //////////////////////////////////////////////
+
+    @Override
+    public SocketChannel connect(String remoteName, int remotePort)
+    {
+        return transport.connect(remoteName,remotePort);
+    }
+
+    @Override
+    public void disconnect(SocketChannel channel)
+    {
+        transport.disconnect(channel);
+    }
+
+    @Override
+    public void sendMessage(SocketChannel channel, Packet packet)
+    {
+        transport.sendMessage(channel,packet);
+    }
+
+    /////////////////////////////////
+    // SelectThread.SelectListsner //
+    /////////////////////////////////
+
+    // callbacks
+
+    @Override
+    public final void onConnect(SocketChannel conn)
+    {
+        observer.onConnect(conn);
+    }
+
+    @Override
+    public final void onConnectFail(SocketChannel conn, Exception e)
+    {
+        observer.onConnectFail(conn,e);
+    }
+
+    @Override
+    public final void onMessage(SocketChannel conn, Packet packet)
+    {
+        observer.onMessage(conn,packet);
+    }
+
+    @Override
+    public final void onClose(SocketChannel conn, boolean remote)
+    {
+        observer.onClose(conn,remote);
+    }
+
+    // unused callbacks
+
+    @Override
+    public final void onAccept(SocketChannel chnl)
+    {
+        throw new UnsupportedOperationException("method is an unused callback");
+    }
+
+    @Override
+    public final void onAcceptFail(ServerSocketChannel chnl, Exception e)
+    {
+        throw new UnsupportedOperationException("method is an unused callback");
+    }
+
+    @Override
+    public final void onListenFail(ServerSocketChannel chnl, Exception e)
+    {
+        throw new UnsupportedOperationException("method is an unused callback");
+    }
+}
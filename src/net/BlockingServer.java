@@ -0,0 +1,265 @@
+package net;
+
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+
+/**
+ * a {Server} that does its networking over blocking channels, with a reader
+ *   and a writer thread for every connection. the threads are virtual threads
+ *   if the runtime has them.
+ *
+ * it sends and receives the same frames as a {SelectServer}, and its
+ *   callbacks are likewise only invoked from {handleMessages}, so the two can
+ *   be swapped for one another.
+ */
+public abstract class BlockingServer implements Server<SocketChannel,ServerSocketChannel>, SelectThread.SelectListener
+{
+    private final BlockingTransport transport;
+
+    private ServerListener<SocketChannel,ServerSocketChannel> observer;
+
+    private static final ServerListener<SocketChannel,ServerSocketChannel>
+            NULL_OBSERVER = new NullServerListener<>();
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public BlockingServer()
+    {
+        this.transport = new BlockingTransport();
+        this.observer = NULL_OBSERVER;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public BlockingServer setObserver(ServerListener<SocketChannel,ServerSocketChannel> observer)
+    {
+        this.observer = (observer != null) ? observer : NULL_OBSERVER;
+        return this;
+    }
+
+    /**
+     * sets the largest frame payload, in bytes, that is accepted from a remote
+     *   host. connections that send bigger frames are closed.
+     *
+     * @param   maxFrameSize   largest frame payload to accept, in bytes.
+     */
+    public BlockingServer setMaxFrameSize(int maxFrameSize)
+    {
+        transport.setMaxFrameSize(maxFrameSize);
+        return this;
+    }
+
+    /**
+     * enables compression of frames bigger than {threshold} bytes on
+     *   connections accepted after this call. the remote hosts must use the
+     *   same {dictionary}.
+     *
+     * @param   threshold   frames with payloads bigger than this many bytes are
+     *   compressed. negative to disable compression.
+     * @param   dictionary   preset dictionary for the compression streams. may
+     *   be null.
+     */
+    public BlockingServer setCompression(int threshold, byte[] dictionary)
+    {
+        transport.setCompression(threshold,dictionary);
+        return this;
+    }
+
+    /**
+     * sets whether sent messages are written out right away, or held back
+     *   until the next call to {flush}.
+     *
+     * @param   coalesceWrites   true to hold messages back until {flush} is
+     *   called; false to write them out right away.
+     */
+    public BlockingServer setCoalesceWrites(boolean coalesceWrites)
+    {
+        transport.setCoalesceWrites(coalesceWrites);
+        return this;
+    }
+
+    /**
+     * writes out all messages held back since the last flush, with the
+     *   messages to each connection written together.
+     */
+    public void flush()
+    {
+        transport.flush();
+    }
+
+    /**
+     * returns true if the connections are handled by virtual threads, and
+     *   false if they are handled by platform threads.
+     */
+    public boolean usesVirtualThreads()
+    {
+        return transport.usesVirtualThreads();
+    }
+
+    /**
+     * returns the number of open connections.
+     */
+    public int getConnectionCount()
+    {
+        return transport.getConnectionCount();
+    }
+
+    public void handleMessages(SelectThread.SelectListener listener)
+    {
+        transport.handleMessages(this);
+    }
+
+    //////////////////////////////////////////////
+    // public interface & Server implementation //
+    //////////////////////////////////////////////
+
+    @Override
+    public ServerSocketChannel startListening(int serverPort)
+    {
+        return transport.startListening(serverPort);
+    }
+
+    @Override
+    public void stopListening(ServerSocketChannel channel)
+    {
+        transport.stopListening(channel);
+    }
+
+    @Override
+    public void sendMessage(SocketChannel channel, Packet packet)
+    {
+        transport.sendMessage(channel,packet);
+    }
+
+    @Override
+    public void sendMessageToGroup(Collection<SocketChannel> channels, Packet packet)
+    {
+        transport.sendMessageToGroup(channels,packet);
+    }
+
+    /////////////////////////////////
+    // SelectThread.SelectListsner //
+    /////////////////////////////////
+
+    // callbacks
+
+    @Override
+    public final void onAcceptFail(ServerSocketChannel channel, Exception e)
+    {
+        observer.onAcceptFail(channel,e);
+    }
+
+    @Override
+    public final void onListenFail(ServerSocketChannel channel, Exception e)
+    {
+        observer.onListenFail(channel,e);
+    }
+
+    @Override
+    public final void onAccept(SocketChannel channel)
+    {
+        observer.onAccept(channel);
+    }
+
+    @Override
+    public final void onMessage(SocketChannel channel, Packet packet)
+    {
+        observer.onMessage(channel,packet);
+    }
+
+    @Override
+    public final void onClose(SocketChannel channel, boolean remote)
+    {
+        observer.onClose(channel,remote);
+    }
+
+    // unused callbacks
+
+    @Override
+    public final void onConnect(SocketChannel chnl)
+    {
+        throw new UnsupportedOperationException("method is an unused callback");
+    }
+
+    @Override
+    public final void onConnectFail(SocketChannel chnl, Exception e)
+    {
+        throw new UnsupportedOperationException("method is an unused callback");
+    }
+
+    //////////
+    // main //
+    //////////
+
+    /**
+     * opens {args[1]} connections to a {BlockingServer} listening on port
+     *   {args[0]}, has each of them send a message that the server echoes
+     *   back, and prints how long it took for all the echoes to arrive.
+     *
+     * the clients use a {SelectClient}, so the server can be compared against
+     *   a {SelectServer} driven by the same clients.
+     */
+    public static void main(String[] args)
+    {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7000;
+        int connectionCount = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int[] echoes = new int[1];
+
+        BlockingServer svr = new BlockingServer(){};
+        svr.setObserver(new NullServerListener<SocketChannel,ServerSocketChannel>()
+        {
+            @Override
+            public void onMessage(SocketChannel chnl, Packet packet)
+            {
+                svr.sendMessage(chnl,packet);
+            }
+        });
+        SelectClient clnt = new SelectClient(){};
+        clnt.setObserver(new NullClientListener<SocketChannel>()
+        {
+            @Override
+            public void onConnect(SocketChannel chnl)
+            {
+                clnt.sendMessage(chnl,new Packet().pushData("echo".getBytes()));
+            }
+            @Override
+            public void onMessage(SocketChannel chnl, Packet packet)
+            {
+                ++echoes[0];
+            }
+        });
+
+        svr.startListening(port);
+        try
+        {
+            Thread.sleep(100);
+        }
+        catch(InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        long start = System.nanoTime();
+        for(int i = 0; i < connectionCount; ++i)
+        {
+            clnt.connect("localhost",port);
+        }
+        while(echoes[0] < connectionCount)
+        {
+            svr.handleMessages(svr);
+            clnt.handleMessages(clnt);
+            Thread.yield();
+        }
+        long elapsed = System.nanoTime()-start;
+
+        System.out.println(connectionCount+" connections echoed in "
+            +(elapsed/1000000)+" ms, on "
+            +(svr.usesVirtualThreads() ? "virtual" : "platform")+" threads");
+        System.exit(0);
+    }
+}
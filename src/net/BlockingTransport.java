@@ -0,0 +1,874 @@
+package net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import net.BufferPool.PooledBuffer;
+import net.SelectThread.Message;
+import net.SelectThread.Message.Type;
+import net.SelectThread.SelectListener;
+
+/**
+ * does networking over blocking channels, with threads of its own for every
+ *   connection.
+ *
+ * each connection has a reader thread, that blocks reading frames from its
+ *   channel, and a writer thread, that blocks writing the frames sent to it.
+ *   each listening channel has a thread that blocks accepting connections.
+ *   the threads are virtual threads if the runtime has them, so that
+ *   thousands of connections are cheap; otherwise, they are daemon platform
+ *   threads with small stacks.
+ *
+ * frames are the same as the ones a {SelectThread} sends and receives, so
+ *   either end of a connection may use either one.
+ *
+ * like a {SelectThread}'s, the callback tokens are accumulated into an
+ *   internal message queue, and consumed by {handleMessages}. the callbacks
+ *   for each connection are invoked in the order they happened in. when the
+ *   queue is full, the threads producing callback tokens wait for room, so
+ *   connections stop being read from until the callbacks are handled.
+ */
+class BlockingTransport
+{
+    /**
+     * how long threads producing callback tokens wait before checking for
+     *   room in the {outMsgq} again, in nanoseconds.
+     */
+    private static final long EMIT_RETRY_NANOS = 100*1000;
+
+    /**
+     * stack size of the platform threads used when virtual threads are not
+     *   available, in bytes.
+     */
+    private static final long PLATFORM_STACK_SIZE = 256*1024;
+
+    /**
+     * number of pending connections a listening channel holds while its
+     *   thread is busy starting the threads of the ones it just accepted.
+     */
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    /**
+     * maximum number of queued frames written to a channel by a single
+     *   gathering write.
+     */
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * creates the threads of the connections and listening channels.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * true if {threadFactory} creates virtual threads.
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * queue of messages used to accumulate callback tokens that can be
+     *   consumed using the {handleMessages} method.
+     */
+    private final MessageRing outMsgq;
+
+    /**
+     * pool of direct buffers used to frame outgoing packets, and to hold the
+     *   payloads of incoming packets until they are consumed by
+     *   {handleMessages}.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * open connections, by channel.
+     */
+    private final Map<SocketChannel,BlockingConnection> connections;
+
+    /**
+     * connections that have frames queued that are waiting for the next
+     *   {flush}.
+     */
+    private final Set<BlockingConnection> unflushedConnections;
+
+    /**
+     * largest frame payload, in bytes, that is accepted from a remote host.
+     *   connections that send bigger frames are closed.
+     */
+    private volatile int maxFrameSize;
+
+    /**
+     * if true, sent frames are only written out once {flush} is called.
+     */
+    private volatile boolean coalesceWrites;
+
+    /**
+     * frames with payloads bigger than this many bytes are compressed, on
+     *   connections opened after it is set. negative if compression is
+     *   disabled.
+     */
+    private volatile int compressionThreshold;
+
+    /**
+     * preset dictionary used by the compression streams of connections
+     *   opened after it is set. may be null.
+     */
+    private volatile byte[] compressionDictionary;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    public BlockingTransport()
+    {
+        ThreadFactory virtualThreadFactory = virtualThreadFactory();
+        this.virtualThreads = virtualThreadFactory != null;
+        this.threadFactory = virtualThreads
+            ? virtualThreadFactory
+            : BlockingTransport::newPlatformThread;
+        this.outMsgq = new MessageRing(SelectThread.MESSAGE_QUEUE_CAPACITY);
+        this.bufferPool = new BufferPool();
+        this.connections = new ConcurrentHashMap<>();
+        this.unflushedConnections = ConcurrentHashMap.newKeySet();
+        this.maxFrameSize = SelectThread.DEFAULT_MAX_FRAME_SIZE;
+        this.coalesceWrites = false;
+        this.compressionThreshold = -1;
+        this.compressionDictionary = null;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public void setMaxFrameSize(int maxFrameSize)
+    {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public void setCoalesceWrites(boolean coalesceWrites)
+    {
+        this.coalesceWrites = coalesceWrites;
+        if(!coalesceWrites)
+        {
+            flush();
+        }
+    }
+
+    public void setCompression(int threshold, byte[] dictionary)
+    {
+        this.compressionDictionary = dictionary;
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * returns true if the connections are handled by virtual threads.
+     */
+    public boolean usesVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * returns the number of open connections.
+     */
+    public int getConnectionCount()
+    {
+        return connections.size();
+    }
+
+    /**
+     * dequeues all callback tokens from the internal message queue, parses
+     *   them, and invokes the callback methods of {listener} on the calling
+     *   thread.
+     *
+     * must not be invoked by more than one thread at a time.
+     *
+     * @param   listener   listener used to handle the callback tokens.
+     */
+    public void handleMessages(SelectListener listener)
+    {
+        Message msg = new Message(null,null,null);
+        while(outMsgq.poll(msg))
+        {
+            switch(msg.type)
+            {
+            case ON_ACCEPT:
+                listener.onAccept((SocketChannel)msg.obj1);
+                break;
+            case ON_CONNECT:
+                listener.onConnect((SocketChannel)msg.obj1);
+                break;
+            case ON_ACCEPT_FAIL:
+                listener.onAcceptFail((ServerSocketChannel)msg.obj1,(Exception)msg.obj2);
+                break;
+            case ON_LISTEN_FAIL:
+                listener.onListenFail((ServerSocketChannel)msg.obj1,(Exception)msg.obj2);
+                break;
+            case ON_CONNECT_FAIL:
+                listener.onConnectFail((SocketChannel)msg.obj1,(Exception)msg.obj2);
+                break;
+            case ON_MESSAGE:
+                listener.onMessage((SocketChannel)msg.obj1,toPacket((PooledBuffer)msg.obj2));
+                break;
+            case ON_CLOSE:
+                listener.onClose((SocketChannel)msg.obj1,(boolean)msg.obj2);
+                break;
+            default:
+                throw new RuntimeException("default case hit");
+            }
+        }
+    }
+
+    /**
+     * creates a new {SocketChannel}, and connects it to the remote host at
+     *   {remoteName}:{remotePort} on a thread of its own.
+     *
+     * @param   remoteName   IP address in dotted decimal format, or name of the
+     *   remote host to connect to.
+     * @param   remotePort   port number of the remote host to connect to.
+     *
+     * @return   the new {SocketChannel}. it may still be connecting.
+     */
+    public SocketChannel connect(String remoteName, int remotePort)
+    {
+        try
+        {
+            SocketChannel channel = SocketChannel.open();
+            open(channel,new InetSocketAddress(remoteName,remotePort));
+            return channel;
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * closes {channel} once everything queued for it has been written.
+     *
+     * @param   channel   channel to close.
+     */
+    public void disconnect(SocketChannel channel)
+    {
+        BlockingConnection conn = connections.get(channel);
+        if(conn != null)
+        {
+            conn.closeAfterFlush();
+        }
+    }
+
+    /**
+     * opens a new {ServerSocketChannel}, and starts a thread that binds it to
+     *   port {serverPort}, and accepts connections from it.
+     *
+     * @param   serverPort   port to listen for new connections on.
+     *
+     * @return   the new {ServerSocketChannel}.
+     */
+    public ServerSocketChannel startListening(int serverPort)
+    {
+        try
+        {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            InetSocketAddress addr = new InetSocketAddress(serverPort);
+            threadFactory.newThread(() -> accept(channel,addr)).start();
+            return channel;
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * closes the listening {channel}, which stops its thread from accepting
+     *   new connections.
+     *
+     * @param   channel   {ServerSocketChannel} to close.
+     */
+    public void stopListening(ServerSocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * queues {packet} to be written to {channel} by its writer thread.
+     *
+     * @param   channel   channel to send the message to.
+     * @param   packet   packet to send through the channel.
+     */
+    public void sendMessage(SocketChannel channel, Packet packet)
+    {
+        BlockingConnection conn = connections.get(channel);
+        if(conn == null)
+        {
+            return;
+        }
+
+        PooledBuffer frame = frame(packet);
+        conn.enqueue(frame,frame.buffer);
+        scheduleFlush(conn);
+    }
+
+    /**
+     * queues {packet} to be written to all {channels}. the packet is framed
+     *   once into a shared buffer; each channel is written from its own view
+     *   of it.
+     *
+     * @param   channels   channels to send the message to.
+     * @param   packet   packet to send through the channels.
+     */
+    public void sendMessageToGroup(Collection<SocketChannel> channels, Packet packet)
+    {
+        if(channels.isEmpty())
+        {
+            return;
+        }
+
+        PooledBuffer frame = frame(packet);
+        try
+        {
+            for(SocketChannel channel : channels)
+            {
+                BlockingConnection conn = connections.get(channel);
+                if(conn != null)
+                {
+                    conn.enqueue(frame.retain(),frame.buffer.duplicate());
+                    scheduleFlush(conn);
+                }
+            }
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    /**
+     * lets the writer threads write out everything queued since the last
+     *   flush.
+     */
+    public void flush()
+    {
+        Iterator<BlockingConnection> it = unflushedConnections.iterator();
+        while(it.hasNext())
+        {
+            BlockingConnection conn = it.next();
+            it.remove();
+            conn.flush();
+        }
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    /**
+     * returns a factory of virtual threads, or null if the runtime doesn't
+     *   have them. they are looked up reflectively, so this compiles against
+     *   runtimes that don't have them.
+     */
+    private static ThreadFactory virtualThreadFactory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder")
+                .getMethod("factory")
+                .invoke(builder);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+
+    private static Thread newPlatformThread(Runnable task)
+    {
+        Thread thread = new Thread(null,task,"BlockingTransport",PLATFORM_STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * adds a callback token to the {outMsgq}, waiting for room if it is full.
+     *
+     * only invoked by the threads of the {BlockingTransport}, never by the
+     *   thread that consumes the callback tokens, so the wait always ends.
+     */
+    private void emit(Type type, Object obj1, Object obj2)
+    {
+        while(!outMsgq.offer(type,obj1,obj2))
+        {
+            LockSupport.parkNanos(EMIT_RETRY_NANOS);
+        }
+    }
+
+    /**
+     * serializes {packet} into a pooled buffer, preceded by its length,
+     *   encoded as a {VarInt}.
+     */
+    private PooledBuffer frame(Packet packet)
+    {
+        int length = packet.length();
+        PooledBuffer frame = bufferPool.acquire(VarInt.size(length)+length);
+        VarInt.put(frame.buffer,length);
+        packet.writeTo(frame.buffer);
+        frame.buffer.flip();
+        return frame;
+    }
+
+    /**
+     * copies the frame payload in {payload} into a new {Packet}, and releases
+     *   {payload} back to the {bufferPool}.
+     */
+    private Packet toPacket(PooledBuffer payload)
+    {
+        try
+        {
+            byte[] data = new byte[payload.buffer.remaining()];
+            payload.buffer.get(data);
+            return new Packet().fromBytes(data);
+        }
+        finally
+        {
+            payload.release();
+        }
+    }
+
+    /**
+     * lets {conn}'s writer thread write its queue out right away, or, if
+     *   writes are coalesced, remembers to do so on the next flush.
+     */
+    private void scheduleFlush(BlockingConnection conn)
+    {
+        if(coalesceWrites)
+        {
+            unflushedConnections.add(conn);
+        }
+        else
+        {
+            conn.flush();
+        }
+    }
+
+    /**
+     * adds a connection for {channel}, and starts its reader thread.
+     *
+     * @param   channel   blocking channel of the connection.
+     * @param   remoteAddr   address to connect {channel} to, or null if it is
+     *   already connected.
+     */
+    private void open(SocketChannel channel, InetSocketAddress remoteAddr)
+    {
+        BlockingConnection conn = new BlockingConnection(channel);
+        connections.put(channel,conn);
+        threadFactory.newThread(() -> conn.read(remoteAddr)).start();
+    }
+
+    /**
+     * binds {channel} to {addr}, and accepts connections from it until it is
+     *   closed. runs on the listening channel's own thread.
+     */
+    private void accept(ServerSocketChannel channel, InetSocketAddress addr)
+    {
+        try
+        {
+            channel.bind(addr,ACCEPT_BACKLOG);
+        }
+        catch(IOException e)
+        {
+            emit(Type.ON_LISTEN_FAIL,channel,e);
+            return;
+        }
+
+        while(true)
+        {
+            SocketChannel accepted;
+            try
+            {
+                accepted = channel.accept();
+            }
+            catch(ClosedChannelException e)
+            {
+                // stopped listening
+                return;
+            }
+            catch(IOException e)
+            {
+                emit(Type.ON_ACCEPT_FAIL,channel,e);
+                continue;
+            }
+
+            // the ON_ACCEPT callback token has to come before any others for
+            // the channel, so it is enqueued before its reader thread starts
+            emit(Type.ON_ACCEPT,accepted,null);
+            open(accepted,null);
+        }
+    }
+
+    ////////////////////////
+    // BlockingConnection //
+    ////////////////////////
+
+    /**
+     * a connection, and its reader and writer threads.
+     *
+     * frames are pulled out of the bytes read from the channel by a
+     *   {Connection}, which only its reader thread uses. frames sent to the
+     *   connection are queued here, and written by its writer thread, so
+     *   threads that send messages never block on the channel.
+     */
+    private class BlockingConnection
+    {
+        private final SocketChannel channel;
+
+        /**
+         * reads frames from the {channel}, and decompresses them.
+         */
+        private final Connection inbound;
+
+        /**
+         * compresses frames written to the {channel}. only used by the writer
+         *   thread.
+         */
+        private final StreamCompressor compressor;
+
+        /**
+         * frames with payloads bigger than this many bytes are compressed
+         *   before being written. compression is disabled if this is
+         *   negative.
+         */
+        private final int compressionThreshold;
+
+        /**
+         * frames waiting to be written to the channel, in the order they are
+         *   to be written.
+         */
+        private final ArrayDeque<Outbound> outbound;
+
+        /**
+         * number of frames at the front of {outbound} that the writer thread
+         *   may write. the ones after them are waiting for the next flush.
+         */
+        private int writable;
+
+        /**
+         * true if the channel should be closed once all queued frames are
+         *   written.
+         */
+        private boolean closeAfterFlush;
+
+        /**
+         * true once the channel has been closed.
+         */
+        private boolean closed;
+
+        /**
+         * true if the channel was closed by the remote host.
+         */
+        private boolean closedRemotely;
+
+        public BlockingConnection(SocketChannel channel)
+        {
+            int compressionThreshold = BlockingTransport.this.compressionThreshold;
+            byte[] compressionDictionary = BlockingTransport.this.compressionDictionary;
+
+            this.channel = channel;
+            this.inbound = new Connection(channel,null,bufferPool,compressionThreshold,
+                compressionDictionary,-1,0,null);
+            this.compressor = new StreamCompressor(bufferPool,compressionDictionary);
+            this.compressionThreshold = compressionThreshold;
+            this.outbound = new ArrayDeque<>();
+            this.writable = 0;
+            this.closeAfterFlush = false;
+            this.closed = false;
+            this.closedRemotely = false;
+        }
+
+        /**
+         * queues {view} to be written to the channel on the next flush.
+         *
+         * @param   frame   reference to the pooled buffer that {view} is a
+         *   view of. ownership of the reference is passed to the connection.
+         * @param   view   bytes to write to the channel.
+         */
+        public synchronized void enqueue(PooledBuffer frame, ByteBuffer view)
+        {
+            if(closed || closeAfterFlush)
+            {
+                frame.release();
+                return;
+            }
+            outbound.add(new Outbound(frame,view));
+        }
+
+        /**
+         * lets the writer thread write all queued frames.
+         */
+        public synchronized void flush()
+        {
+            if(writable != outbound.size())
+            {
+                writable = outbound.size();
+                notifyAll();
+            }
+        }
+
+        /**
+         * closes the channel once all queued frames have been written.
+         */
+        public synchronized void closeAfterFlush()
+        {
+            closeAfterFlush = true;
+            writable = outbound.size();
+            notifyAll();
+        }
+
+        /**
+         * closes the channel, and drops the frames still queued for it. a
+         *   reader thread blocked on the channel is woken up by this, and
+         *   enqueues the ON_CLOSE callback token.
+         *
+         * @param   remote   true if the channel was closed by the remote
+         *   host.
+         */
+        public void close(boolean remote)
+        {
+            synchronized(this)
+            {
+                if(closed)
+                {
+                    return;
+                }
+                closed = true;
+                closedRemotely = remote;
+                writable = 0;
+                while(!outbound.isEmpty())
+                {
+                    outbound.poll().frame.release();
+                }
+                notifyAll();
+            }
+
+            try
+            {
+                channel.close();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * connects the channel if {remoteAddr} is not null, starts the
+         *   writer thread, then reads frames from the channel until it is
+         *   closed. runs on the connection's reader thread.
+         */
+        public void read(InetSocketAddress remoteAddr)
+        {
+            if(remoteAddr != null)
+            {
+                try
+                {
+                    channel.connect(remoteAddr);
+                }
+                catch(IOException e)
+                {
+                    connections.remove(channel);
+                    inbound.close();
+                    close(false);
+                    emit(Type.ON_CONNECT_FAIL,channel,e);
+                    return;
+                }
+                emit(Type.ON_CONNECT,channel,null);
+            }
+
+            threadFactory.newThread(this::write).start();
+
+            try
+            {
+                // a blocking read returns as soon as there is something to
+                // read; frames that are only partially received are kept by
+                // the inbound connection until the rest of them arrives
+                while(inbound.read() != -1)
+                {
+                    PooledBuffer payload;
+                    while((payload = inbound.nextFrame(maxFrameSize)) != null)
+                    {
+                        emit(Type.ON_MESSAGE,channel,payload);
+                    }
+                }
+                close(true);
+            }
+            catch(ProtocolException e)
+            {
+                // remote host sent a frame we won't take; close the socket
+                close(false);
+            }
+            catch(IOException e)
+            {
+                // does nothing if the socket was closed by the local host,
+                // which is what interrupted the read
+                close(true);
+            }
+            finally
+            {
+                connections.remove(channel);
+                unflushedConnections.remove(this);
+                inbound.close();
+                boolean remote;
+                synchronized(this)
+                {
+                    remote = closedRemotely;
+                }
+                emit(Type.ON_CLOSE,channel,remote);
+            }
+        }
+
+        /**
+         * writes queued frames to the channel as they are flushed, until the
+         *   channel is closed. runs on the connection's writer thread.
+         */
+        private void write()
+        {
+            Outbound[] batch = new Outbound[MAX_GATHER];
+            ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+            int count = 0;
+            try
+            {
+                while(true)
+                {
+                    // wait for frames to be flushed, and take as many of them
+                    // as one gathering write takes
+                    synchronized(this)
+                    {
+                        while(writable == 0 && !closed && !(closeAfterFlush && outbound.isEmpty()))
+                        {
+                            wait();
+                        }
+                        if(closed)
+                        {
+                            return;
+                        }
+                        if(writable == 0)
+                        {
+                            break;
+                        }
+                        count = Math.min(writable,MAX_GATHER);
+                        for(int i = 0; i < count; ++i)
+                        {
+                            batch[i] = outbound.poll();
+                        }
+                        writable -= count;
+                    }
+
+                    // compress big frames; only this thread compresses, so
+                    // they are compressed in the order they are written in
+                    for(int i = 0; i < count; ++i)
+                    {
+                        batch[i] = compress(batch[i]);
+                        gather[i] = batch[i].view;
+                    }
+
+                    // a blocking write only returns once everything is
+                    // written, unless the channel is closed
+                    while(gather[count-1].hasRemaining())
+                    {
+                        channel.write(gather,0,count);
+                    }
+                    release(batch,count);
+                    Arrays.fill(gather,0,count,null);
+                    count = 0;
+                }
+            }
+            catch(InterruptedException e)
+            {
+                throw new RuntimeException(e);
+            }
+            catch(IOException e)
+            {
+                close(true);
+                return;
+            }
+            finally
+            {
+                release(batch,count);
+                compressor.end();
+            }
+
+            // everything was written, and the channel was to be closed then
+            close(false);
+        }
+
+        /**
+         * compresses {o}'s frame if its payload is bigger than the
+         *   compression threshold.
+         */
+        private Outbound compress(Outbound o)
+        {
+            if(compressionThreshold < 0)
+            {
+                return o;
+            }
+
+            ByteBuffer payload = o.view.duplicate();
+            payload.position(o.view.position()+VarInt.sizeAt(o.view,o.view.position(),o.view.limit()));
+            if(payload.remaining() <= compressionThreshold)
+            {
+                return o;
+            }
+
+            PooledBuffer compressed = compressor.compress(payload);
+            o.frame.release();
+            return new Outbound(compressed,compressed.buffer);
+        }
+
+        private void release(Outbound[] batch, int count)
+        {
+            for(int i = 0; i < count; ++i)
+            {
+                batch[i].frame.release();
+                batch[i] = null;
+            }
+        }
+    }
+
+    //////////////
+    // Outbound //
+    //////////////
+
+    /**
+     * a queued frame, and the view of it that is written to the channel.
+     */
+    private static class Outbound
+    {
+        public final PooledBuffer frame;
+        public final ByteBuffer view;
+
+        public Outbound(PooledBuffer frame, ByteBuffer view)
+        {
+            this.frame = frame;
+            this.view = view;
+        }
+    }
+}
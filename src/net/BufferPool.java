@@ -0,0 +1,190 @@
+package net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * pool of direct {ByteBuffer}s, grouped into power-of-two size classes.
+ *
+ * buffers are handed out as reference counted {PooledBuffer}s. when the last
+ *   reference to a {PooledBuffer} is released, its {ByteBuffer} is returned to
+ *   the pool, so it can be reused by a later call to {acquire}.
+ *
+ * buffers may be acquired and released from any thread.
+ */
+class BufferPool
+{
+    /**
+     * capacity of the smallest size class, in bytes.
+     */
+    private static final int MIN_CAPACITY = 256;
+
+    /**
+     * capacity of the largest size class, in bytes. requests for buffers
+     *   larger than this are allocated without being pooled.
+     */
+    private static final int MAX_CAPACITY = 64*1024;
+
+    /**
+     * maximum number of free buffers kept in each size class. buffers released
+     *   into a full size class are left for the garbage collector.
+     */
+    private static final int MAX_FREE_PER_CLASS = 64;
+
+    /**
+     * free lists of buffers, indexed by size class.
+     */
+    private final ArrayDeque<ByteBuffer>[] freeLists;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    @SuppressWarnings({"unchecked","rawtypes"})
+    public BufferPool()
+    {
+        int numClasses = sizeClass(MAX_CAPACITY)+1;
+        freeLists = new ArrayDeque[numClasses];
+        for(int i = 0; i < numClasses; ++i)
+        {
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns a buffer with at least {capacity} bytes of space. the returned
+     *   buffer's position is 0, its limit is {capacity}, and it has a
+     *   reference count of 1.
+     *
+     * @param   capacity   minimum number of bytes the buffer must be able to
+     *   hold.
+     *
+     * @return   a buffer with at least {capacity} bytes of space.
+     */
+    public PooledBuffer acquire(int capacity)
+    {
+        ByteBuffer buf = null;
+
+        // try to reuse a free buffer from the size class first
+        if(capacity <= MAX_CAPACITY)
+        {
+            ArrayDeque<ByteBuffer> freeList = freeLists[sizeClass(capacity)];
+            synchronized(freeList)
+            {
+                buf = freeList.poll();
+            }
+            if(buf == null)
+            {
+                buf = ByteBuffer.allocateDirect(classCapacity(sizeClass(capacity)));
+            }
+        }
+        else
+        {
+            buf = ByteBuffer.allocateDirect(capacity);
+        }
+
+        buf.clear().limit(capacity);
+        return new PooledBuffer(buf);
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    private void recycle(ByteBuffer buf)
+    {
+        // buffers that are not the exact size of a size class were allocated
+        // because they were too big to be pooled; let them be collected
+        int sizeClass = sizeClass(buf.capacity());
+        if(buf.capacity() > MAX_CAPACITY || classCapacity(sizeClass) != buf.capacity())
+        {
+            return;
+        }
+
+        ArrayDeque<ByteBuffer> freeList = freeLists[sizeClass];
+        synchronized(freeList)
+        {
+            if(freeList.size() < MAX_FREE_PER_CLASS)
+            {
+                freeList.push(buf);
+            }
+        }
+    }
+
+    private static int sizeClass(int capacity)
+    {
+        int rounded = Math.max(capacity,MIN_CAPACITY)-1;
+        return (32-Integer.numberOfLeadingZeros(rounded))
+            -Integer.numberOfTrailingZeros(MIN_CAPACITY);
+    }
+
+    private static int classCapacity(int sizeClass)
+    {
+        return MIN_CAPACITY<<sizeClass;
+    }
+
+    //////////////////
+    // PooledBuffer //
+    //////////////////
+
+    /**
+     * reference counted handle to a {ByteBuffer} borrowed from a {BufferPool}.
+     *
+     * the buffer must not be used after the handle's reference count drops to
+     *   zero.
+     */
+    public class PooledBuffer
+    {
+        /**
+         * the borrowed buffer.
+         */
+        public final ByteBuffer buffer;
+
+        /**
+         * number of outstanding references to this buffer.
+         */
+        private final AtomicInteger refCount;
+
+        private PooledBuffer(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+            this.refCount = new AtomicInteger(1);
+        }
+
+        /**
+         * adds a reference to this buffer.
+         *
+         * @return   returns a this pointer.
+         */
+        public PooledBuffer retain()
+        {
+            if(refCount.getAndIncrement() <= 0)
+            {
+                throw new IllegalStateException("buffer already released");
+            }
+            return this;
+        }
+
+        /**
+         * removes a reference from this buffer. when the last reference is
+         *   removed, the buffer is returned to the pool.
+         */
+        public void release()
+        {
+            int remaining = refCount.decrementAndGet();
+            if(remaining == 0)
+            {
+                recycle(buffer);
+            }
+            else if(remaining < 0)
+            {
+                throw new IllegalStateException("buffer already released");
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net;
+
+/**
+ * the counters of one connection of a {SelectThread}, as they were when the
+ *   {ChannelMetrics} was made. returned by {SelectThreadMXBean.getChannels}.
+ */
+public final class ChannelMetrics
+{
+    private final String remoteAddress;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long framesIn;
+    private final long framesOut;
+    private final long partialWrites;
+    private final long largestFrame;
+    private final long queuedBytes;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public ChannelMetrics(String remoteAddress, long bytesIn, long bytesOut,
+        long framesIn, long framesOut, long partialWrites, long largestFrame,
+        long queuedBytes)
+    {
+        this.remoteAddress = remoteAddress;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.framesIn = framesIn;
+        this.framesOut = framesOut;
+        this.partialWrites = partialWrites;
+        this.largestFrame = largestFrame;
+        this.queuedBytes = queuedBytes;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns the address of the remote host, or null if it isn't connected.
+     */
+    public String getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn;
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut;
+    }
+
+    public long getFramesIn()
+    {
+        return framesIn;
+    }
+
+    public long getFramesOut()
+    {
+        return framesOut;
+    }
+
+    public long getPartialWrites()
+    {
+        return partialWrites;
+    }
+
+    /**
+     * returns the size in bytes of the largest frame received or sent through
+     *   the connection, including its length prefix.
+     */
+    public long getLargestFrame()
+    {
+        return largestFrame;
+    }
+
+    /**
+     * returns the number of bytes queued to be written to the connection.
+     */
+    public long getQueuedBytes()
+    {
+        return queuedBytes;
+    }
+}
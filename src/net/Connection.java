@@ -0,0 +1,843 @@
+package net;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.BufferPool.PooledBuffer;
+
+/**
+ * per-connection state kept by a {SelectThread} for each of its
+ *   {SocketChannel}s. it is attached to the channel's {SelectionKey}. a
+ *   {BlockingTransport} uses it to read frames from its blocking channels.
+ *
+ * holds the queue of frames waiting to be written to the channel. frames are
+ *   written as far as the socket allows without blocking; whatever is left is
+ *   written when the selector reports that the channel is writable again.
+ *   {SelectionKey.OP_WRITE} is only in the key's interest set while there is
+ *   data waiting to be written.
+ *
+ * also holds the buffer that bytes read from the channel are accumulated in.
+ *   each read takes as many bytes as the socket has; complete length-prefixed
+ *   frames are then pulled out of the buffer, and the bytes of a partially
+ *   received frame are kept for the next read.
+ *
+ * a frame's length prefix is a {VarInt}. frames from hosts that still use the
+ *   legacy 32-bit big-endian prefix are recognized by their first byte, which
+ *   is 0 for every legacy frame shorter than 16 MiB; a {VarInt} prefix only
+ *   starts with 0 for an empty frame, and every {Packet} is at least one byte.
+ *
+ * frames whose payload is bigger than the compression threshold are
+ *   compressed by the connection's {StreamCompressor} when they are handed to
+ *   a write, so they are compressed in the order they are written in, and can
+ *   be conflated until then. compressed frames that are received are always
+ *   decompressed.
+ *
+ * the bytes waiting to be written are counted against an outbound budget.
+ *   once a connection is over its budget, a conflatable frame drops the
+ *   frame queued with the same key before it, if that one hasn't been handed
+ *   to a write yet. the new frame is still added to the end of the
+ *   queue, so frames are always written in the order they were queued in.
+ *   a connection that stays over its budget for too long, or that falls too
+ *   far behind in bytes, is reported as being behind, once, so that it can
+ *   be closed.
+ *
+ * the bytes and frames that go through the connection are counted, both by
+ *   the connection, and by the {SelectThreadMetrics} of its {SelectThread}.
+ *
+ * all methods are synchronized, so frames may be queued and flushed from
+ *   threads other than the {SelectThread}.
+ */
+class Connection
+{
+    /**
+     * capacity of the buffer that incoming bytes are accumulated in. it only
+     *   grows past this to hold frames that are bigger than it.
+     */
+    private static final int INBOUND_CAPACITY = 4*1024;
+
+    /**
+     * number of bytes used to store the length of each frame in the legacy
+     *   format.
+     */
+    private static final int LEGACY_LENGTH_SIZE = 4;
+
+    /**
+     * maximum number of queued frames written to the channel by a single
+     *   gathering write.
+     */
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * a connection with more than this many times its outbound budget queued
+     *   is behind, no matter how long it has been over budget.
+     */
+    private static final int OUTBOUND_LIMIT_FACTOR = 4;
+
+    /**
+     * view of the frames that were dropped by newer ones; nothing is written
+     *   for them.
+     */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    /**
+     * the channel this connection wraps.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * the selection key of {channel}.
+     */
+    private final SelectionKey key;
+
+    /**
+     * pool that inbound buffers are borrowed from.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * buffer that bytes read from the channel are accumulated in. the unread
+     *   bytes are between {inboundStart} and the buffer's position. null until
+     *   the first read.
+     */
+    private PooledBuffer inbound;
+
+    /**
+     * offset into {inbound} where the first frame that hasn't been pulled out
+     *   of it yet starts.
+     */
+    private int inboundStart;
+
+    /**
+     * frames waiting to be written to the channel, in the order they are to be
+     *   written.
+     */
+    private final ArrayDeque<Outbound> outbound;
+
+    /**
+     * views of the queued frames passed to the channel's gathering write.
+     *   reused by every call to {flush}.
+     */
+    private final ByteBuffer[] gather;
+
+    /**
+     * frames with payloads bigger than this many bytes are compressed before
+     *   being written. compression is disabled if this is negative.
+     */
+    private final int compressionThreshold;
+
+    /**
+     * compresses outgoing frames and decompresses incoming ones.
+     */
+    private final StreamCompressor compressor;
+
+    /**
+     * number of queued bytes that the connection may have before it is over
+     *   budget. negative if the queue is unbounded.
+     */
+    private final int outboundBudget;
+
+    /**
+     * nanoseconds that the connection may stay over budget before it is
+     *   behind.
+     */
+    private final long maxBehindNanos;
+
+    /**
+     * number of bytes of the queued frames, counted until each frame has been
+     *   written completely.
+     */
+    private long queuedBytes;
+
+    /**
+     * true while {queuedBytes} is over {outboundBudget}.
+     */
+    private boolean overBudget;
+
+    /**
+     * {System.nanoTime} at which the connection last went over budget.
+     */
+    private long overBudgetSince;
+
+    /**
+     * true once the connection was reported as behind. the frames queued
+     *   after that are dropped, since the connection is about to be closed.
+     */
+    private boolean behind;
+
+    /**
+     * the most recently queued conflatable frame of each key, until it has
+     *   been written.
+     */
+    private final Map<Integer,Outbound> conflatable;
+
+    /**
+     * counters of the {SelectThread} that the connection's counters are added
+     *   to as well. may be null.
+     */
+    private final SelectThreadMetrics metrics;
+
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder framesIn;
+    private final LongAdder framesOut;
+    private final LongAdder partialWrites;
+
+    /**
+     * size of the largest frame received or queued, including its length
+     *   prefix.
+     */
+    private volatile int largestFrame;
+
+    /**
+     * true if the channel should be closed once all queued frames are written.
+     */
+    private boolean closeAfterFlush;
+
+    /**
+     * true once the connection has been closed; no more frames are written.
+     */
+    private boolean closed;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    /**
+     * creates the state of a new connection.
+     *
+     * @param   channel   channel of the connection.
+     * @param   key   selection key of {channel}. may be null if {channel} is
+     *   blocking, and only {read}, {nextFrame} and {close} are used.
+     * @param   bufferPool   pool to borrow buffers from.
+     * @param   compressionThreshold   frames with payloads bigger than this
+     *   many bytes are compressed. negative to disable compression.
+     * @param   compressionDictionary   preset dictionary for the compression
+     *   streams; must be the same on both ends. may be null.
+     * @param   outboundBudget   number of queued bytes over which the
+     *   connection is over budget. negative for an unbounded queue.
+     * @param   maxBehindMillis   milliseconds that the connection may stay
+     *   over budget before it is behind.
+     * @param   metrics   counters to add the connection's counters to. may be
+     *   null.
+     */
+    public Connection(SocketChannel channel, SelectionKey key, BufferPool bufferPool,
+        int compressionThreshold, byte[] compressionDictionary,
+        int outboundBudget, long maxBehindMillis, SelectThreadMetrics metrics)
+    {
+        this.channel = channel;
+        this.key = key;
+        this.bufferPool = bufferPool;
+        this.inbound = null;
+        this.inboundStart = 0;
+        this.outbound = new ArrayDeque<>();
+        this.gather = new ByteBuffer[MAX_GATHER];
+        this.compressionThreshold = compressionThreshold;
+        this.compressor = new StreamCompressor(bufferPool,compressionDictionary);
+        this.outboundBudget = outboundBudget;
+        this.maxBehindNanos = maxBehindMillis*1000*1000;
+        this.queuedBytes = 0;
+        this.overBudget = false;
+        this.overBudgetSince = 0;
+        this.behind = false;
+        this.conflatable = new HashMap<>();
+        this.metrics = metrics;
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.framesIn = new LongAdder();
+        this.framesOut = new LongAdder();
+        this.partialWrites = new LongAdder();
+        this.largestFrame = 0;
+        this.closeAfterFlush = false;
+        this.closed = false;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * queues {view} to be written to the channel. {frame} is released once
+     *   {view} has been written completely, or the connection is closed.
+     *
+     * @param   frame   reference to the pooled buffer that {view} is a view of.
+     *   ownership of the reference is passed to the connection.
+     * @param   view   bytes to write to the channel.
+     *
+     * @return   what became of the frame.
+     */
+    public synchronized Enqueued enqueue(PooledBuffer frame, ByteBuffer view)
+    {
+        return enqueue(frame,view,false,0);
+    }
+
+    /**
+     * queues {view} to be written to the channel like {enqueue} does, except
+     *   that {view} supersedes the frames queued with the same {key} before
+     *   it. if the connection is over budget, it takes the place of the last
+     *   of them that hasn't started being written yet.
+     *
+     * @param   frame   reference to the pooled buffer that {view} is a view of.
+     *   ownership of the reference is passed to the connection.
+     * @param   view   bytes to write to the channel.
+     * @param   key   identifies the frames that {view} supersedes.
+     *
+     * @return   what became of the frame.
+     */
+    public synchronized Enqueued enqueueConflatable(PooledBuffer frame, ByteBuffer view, int key)
+    {
+        return enqueue(frame,view,true,key);
+    }
+
+    /**
+     * writes as many queued frames to the channel as it accepts without
+     *   blocking, and registers or unregisters interest in
+     *   {SelectionKey.OP_WRITE} depending on whether data is left over.
+     *
+     * the queued frames are handed to the channel together in gathering
+     *   writes, so flushing many small frames costs few system calls.
+     *
+     * @return   true if all queued frames were written, and the connection
+     *   was marked to be closed once that happens; false otherwise.
+     *
+     * @throws   IOException   if writing to the channel fails.
+     */
+    public synchronized boolean flush() throws IOException
+    {
+        // can't write before the connection is established; we will be
+        // flushed again once it connects
+        if(closed || !channel.isConnected())
+        {
+            return false;
+        }
+
+        // write frames until the queue is empty or the socket buffer is full
+        boolean socketFull = false;
+        while(!outbound.isEmpty() && !socketFull)
+        {
+            int count = 0;
+            long attempted = 0;
+            for(Outbound o : outbound)
+            {
+                if(count == MAX_GATHER)
+                {
+                    break;
+                }
+                if(!o.started)
+                {
+                    start(o);
+                }
+                gather[count++] = o.view;
+                attempted += o.view.remaining();
+            }
+
+            long written = channel.write(gather,0,count);
+            Arrays.fill(gather,0,count,null);
+            socketFull = written < attempted;
+
+            // release the frames that were written completely
+            int frames = 0;
+            while(!outbound.isEmpty() && !outbound.peek().view.hasRemaining())
+            {
+                release(outbound.poll());
+                ++frames;
+            }
+
+            bytesOut.add(written);
+            framesOut.add(frames);
+            if(socketFull)
+            {
+                partialWrites.increment();
+            }
+            if(metrics != null)
+            {
+                metrics.wrote(written,frames,socketFull);
+            }
+        }
+        overBudget = overBudget && queuedBytes > outboundBudget;
+
+        // only wait for the channel to become writable if we have to
+        if(key.isValid())
+        {
+            if(outbound.isEmpty())
+            {
+                key.interestOps(key.interestOps()&~SelectionKey.OP_WRITE);
+            }
+            else
+            {
+                key.interestOps(key.interestOps()|SelectionKey.OP_WRITE);
+            }
+        }
+
+        return outbound.isEmpty() && closeAfterFlush;
+    }
+
+    /**
+     * reads as many bytes from the channel as fit into the inbound buffer.
+     *
+     * @return   the number of bytes read, or -1 if the channel has reached the
+     *   end of its stream, or the connection is closed.
+     *
+     * @throws   IOException   if reading from the channel fails.
+     */
+    public synchronized int read() throws IOException
+    {
+        if(closed)
+        {
+            return -1;
+        }
+        if(inbound == null)
+        {
+            inbound = bufferPool.acquire(INBOUND_CAPACITY);
+        }
+        int read = channel.read(inbound.buffer);
+        if(read > 0)
+        {
+            bytesIn.add(read);
+            if(metrics != null)
+            {
+                metrics.read(read);
+            }
+        }
+        return read;
+    }
+
+    /**
+     * registers or unregisters interest in {SelectionKey.OP_READ}, so the
+     *   channel is only selected for reading while {reading} is true.
+     *
+     * @param   reading   true to read from the channel; false to stop.
+     */
+    public synchronized void setReading(boolean reading)
+    {
+        if(key.isValid())
+        {
+            if(reading)
+            {
+                key.interestOps(key.interestOps()|SelectionKey.OP_READ);
+            }
+            else
+            {
+                key.interestOps(key.interestOps()&~SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * returns true if the last {read} filled the inbound buffer up, so there
+     *   may be more bytes waiting to be read from the channel.
+     *
+     * @return   true if the inbound buffer has no space left.
+     */
+    public synchronized boolean isInboundFull()
+    {
+        return inbound != null && !inbound.buffer.hasRemaining();
+    }
+
+    /**
+     * pulls the next complete frame out of the inbound buffer.
+     *
+     * when there is no complete frame left, the bytes of the partial frame are
+     *   moved to the front of the inbound buffer, and the buffer is resized so
+     *   that the rest of the frame fits into it.
+     *
+     * @param   maxFrameSize   maximum length of a frame's payload.
+     *
+     * @return   a pooled buffer, ready to be read, that holds the payload of
+     *   the next frame, or null if there is no complete frame left.
+     *
+     * @throws   ProtocolException   if the next frame's length prefix is
+     *   negative, or bigger than {maxFrameSize}.
+     */
+    public synchronized PooledBuffer nextFrame(int maxFrameSize) throws ProtocolException
+    {
+        if(closed || inbound == null)
+        {
+            return null;
+        }
+
+        ByteBuffer in = inbound.buffer;
+        int available = in.position()-inboundStart;
+        int needed = Math.max(VarInt.MAX_SIZE,LEGACY_LENGTH_SIZE);
+        int prefixSize = (available > 0) ? prefixSize(in) : 0;
+
+        if(prefixSize > 0)
+        {
+            // make sure the frame is one that we are willing to take
+            int length = (in.get(inboundStart) == 0)
+                ? in.getInt(inboundStart)
+                : VarInt.get(in,inboundStart);
+            if(length < 0 || length > maxFrameSize)
+            {
+                throw new ProtocolException("frame length "+length
+                    +" is not between 0 and "+maxFrameSize);
+            }
+            needed = prefixSize+length;
+
+            // copy the payload out if the whole frame is here, decompressing
+            // it on the way if it is compressed
+            if(available >= needed)
+            {
+                ByteBuffer payload = in.duplicate();
+                payload.limit(inboundStart+needed).position(inboundStart+prefixSize);
+                inboundStart += needed;
+
+                framesIn.increment();
+                largestFrame = Math.max(largestFrame,needed);
+                if(metrics != null)
+                {
+                    metrics.received(needed);
+                }
+
+                if(length > 0 && payload.get(payload.position()) == StreamCompressor.FORMAT_DEFLATE)
+                {
+                    payload.position(payload.position()+1);
+                    return compressor.decompress(payload,maxFrameSize);
+                }
+
+                PooledBuffer frame = bufferPool.acquire(length);
+                frame.buffer.put(payload).flip();
+                return frame;
+            }
+        }
+
+        // no complete frame left; make room for the rest of the partial one
+        compactInbound(needed);
+        return null;
+    }
+
+    /**
+     * returns true if there are queued frames that have not been completely
+     *   written to the channel yet.
+     *
+     * @return   true if there are queued frames that have not been completely
+     *   written to the channel yet; false otherwise.
+     */
+    public synchronized boolean hasPendingWrites()
+    {
+        return !outbound.isEmpty();
+    }
+
+    /**
+     * returns the counters of the connection.
+     *
+     * @param   remoteAddress   address of the remote host, to include in the
+     *   returned {ChannelMetrics}.
+     *
+     * @return   the counters of the connection.
+     */
+    public synchronized ChannelMetrics getMetrics(String remoteAddress)
+    {
+        return new ChannelMetrics(remoteAddress,bytesIn.sum(),bytesOut.sum(),
+            framesIn.sum(),framesOut.sum(),partialWrites.sum(),largestFrame,
+            queuedBytes);
+    }
+
+    /**
+     * returns true if the connection has been over its budget for too long,
+     *   or is too far over it, and should be closed. only returns true once.
+     *
+     * @return   true if the connection just fell behind; false otherwise.
+     */
+    public synchronized boolean checkBehind()
+    {
+        if(closed || behind || !overBudget)
+        {
+            return false;
+        }
+        behind = queuedBytes > (long)outboundBudget*OUTBOUND_LIMIT_FACTOR
+            || System.nanoTime()-overBudgetSince > maxBehindNanos;
+        return behind;
+    }
+
+    /**
+     * marks the connection to be closed once all queued frames have been
+     *   written.
+     *
+     * @return   true if there are no queued frames, and the connection can be
+     *   closed right away; false otherwise.
+     */
+    public synchronized boolean closeAfterFlush()
+    {
+        closeAfterFlush = true;
+        return outbound.isEmpty();
+    }
+
+    /**
+     * marks the connection as closed, and releases all queued frames.
+     *
+     * @return   true if this call closed the connection; false if it was
+     *   already closed.
+     */
+    public synchronized boolean close()
+    {
+        if(closed)
+        {
+            return false;
+        }
+
+        closed = true;
+        while(!outbound.isEmpty())
+        {
+            release(outbound.poll());
+        }
+        if(inbound != null)
+        {
+            inbound.release();
+            inbound = null;
+        }
+        compressor.end();
+        return true;
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    /**
+     * queues {view} to be written to the channel, conflating it with the
+     *   frames queued with the same {key} before it if {isConflatable} is
+     *   true.
+     */
+    private Enqueued enqueue(PooledBuffer frame, ByteBuffer view, boolean isConflatable, int key)
+    {
+        if(closed || behind)
+        {
+            frame.release();
+            return Enqueued.QUEUED;
+        }
+
+        largestFrame = Math.max(largestFrame,view.remaining());
+        if(metrics != null)
+        {
+            metrics.queued(view.remaining());
+        }
+
+        // while over budget, drop the superseded frame if it hasn't been
+        // handed to a write yet; one that has may be half written, or be part
+        // of the deflate stream. it is emptied rather than taken out of the
+        // middle of the queue
+        Enqueued result = Enqueued.QUEUED;
+        Outbound superseded = isConflatable ? conflatable.get(key) : null;
+        if(overBudget && superseded != null && !superseded.started)
+        {
+            queuedBytes -= superseded.size;
+            superseded.frame.release();
+            superseded.frame = null;
+            superseded.view = EMPTY;
+            superseded.size = 0;
+            result = Enqueued.CONFLATED;
+        }
+        Outbound o = new Outbound(frame,view,isConflatable,key);
+        outbound.add(o);
+        queuedBytes += o.size;
+        if(isConflatable)
+        {
+            conflatable.put(key,o);
+        }
+
+        // keep track of how long the connection has been over budget
+        if(outboundBudget < 0)
+        {
+            return result;
+        }
+        if(!overBudget && queuedBytes > outboundBudget)
+        {
+            overBudget = true;
+            overBudgetSince = System.nanoTime();
+            result = Enqueued.OVER_BUDGET;
+        }
+        if(checkBehind())
+        {
+            result = Enqueued.BEHIND;
+        }
+        return result;
+    }
+
+    /**
+     * prepares {o} to be handed to a write. its frame is compressed if its
+     *   payload is bigger than the compression threshold; this has to happen
+     *   in the order the frames are written in, because they are all part of
+     *   the same deflate stream. for the same reason, {o} can't be conflated
+     *   anymore.
+     */
+    private void start(Outbound o)
+    {
+        o.started = true;
+        if(o.isConflatable && conflatable.get(o.key) == o)
+        {
+            conflatable.remove(o.key);
+        }
+        if(compressionThreshold < 0 || o.frame == null)
+        {
+            return;
+        }
+
+        ByteBuffer payload = o.view.duplicate();
+        payload.position(o.view.position()+VarInt.sizeAt(o.view,o.view.position(),o.view.limit()));
+        if(payload.remaining() <= compressionThreshold)
+        {
+            return;
+        }
+
+        PooledBuffer compressed = compressor.compress(payload);
+        o.frame.release();
+        o.frame = compressed;
+        o.view = compressed.buffer;
+        queuedBytes += o.view.remaining()-o.size;
+        o.size = o.view.remaining();
+    }
+
+    /**
+     * stops counting {o} as queued, and releases its frame.
+     */
+    private void release(Outbound o)
+    {
+        queuedBytes -= o.size;
+        if(o.isConflatable && conflatable.get(o.key) == o)
+        {
+            conflatable.remove(o.key);
+        }
+        if(o.frame != null)
+        {
+            o.frame.release();
+        }
+    }
+
+    /**
+     * returns the size of the length prefix of the frame at the front of the
+     *   inbound buffer, or 0 if the prefix hasn't been received completely.
+     *
+     * @param   in   the inbound buffer.
+     *
+     * @return   the size of the length prefix of the next frame, or 0.
+     *
+     * @throws   ProtocolException   if the prefix is not a valid {VarInt}.
+     */
+    private int prefixSize(ByteBuffer in) throws ProtocolException
+    {
+        int available = in.position()-inboundStart;
+
+        // legacy frames start with a zero byte
+        if(in.get(inboundStart) == 0)
+        {
+            return (available >= LEGACY_LENGTH_SIZE) ? LEGACY_LENGTH_SIZE : 0;
+        }
+
+        try
+        {
+            return VarInt.sizeAt(in,inboundStart,in.position());
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new ProtocolException(e.getMessage());
+        }
+    }
+
+    /**
+     * moves the unread bytes of the inbound buffer to its front. if {needed}
+     *   bytes don't fit into the buffer, or the buffer has grown bigger than it
+     *   needs to be, the bytes are moved into a new buffer of the right size.
+     *
+     * @param   needed   number of bytes the partial frame at the front of the
+     *   buffer will have once it is complete.
+     */
+    private void compactInbound(int needed)
+    {
+        ByteBuffer in = inbound.buffer;
+        int capacity = Math.max(needed,INBOUND_CAPACITY);
+
+        if(capacity > in.capacity()
+            || (capacity == INBOUND_CAPACITY && in.capacity() > INBOUND_CAPACITY))
+        {
+            PooledBuffer resized = bufferPool.acquire(capacity);
+            in.flip().position(inboundStart);
+            resized.buffer.put(in);
+            inbound.release();
+            inbound = resized;
+        }
+        else
+        {
+            in.flip().position(inboundStart);
+            in.compact();
+        }
+
+        inboundStart = 0;
+    }
+
+    //////////////
+    // Outbound //
+    //////////////
+
+    /**
+     * a queued frame, and the view of it that is being written to the channel.
+     *   the frame of a conflatable {Outbound} is dropped by a newer one with
+     *   the same key while the connection is over budget, which leaves it
+     *   with a null frame and an empty view.
+     */
+    private static class Outbound
+    {
+        public PooledBuffer frame;
+        public ByteBuffer view;
+        public int size;
+        public final boolean isConflatable;
+        public final int key;
+
+        /**
+         * true once the frame has been handed to a write, and compressed if
+         *   it is big enough.
+         */
+        public boolean started;
+
+        public Outbound(PooledBuffer frame, ByteBuffer view, boolean isConflatable, int key)
+        {
+            this.frame = frame;
+            this.view = view;
+            this.size = view.remaining();
+            this.isConflatable = isConflatable;
+            this.key = key;
+            this.started = false;
+        }
+    }
+
+    //////////////
+    // Enqueued //
+    //////////////
+
+    /**
+     * what became of a frame passed to {enqueue}.
+     */
+    public enum Enqueued
+    {
+        /**
+         * the frame was added to the queue.
+         */
+        QUEUED,
+
+        /**
+         * the frame was added to the queue, and the queued frame that it
+         *   supersedes was dropped.
+         */
+        CONFLATED,
+
+        /**
+         * the frame was added to the queue, and put the connection over its
+         *   budget.
+         */
+        OVER_BUDGET,
+
+        /**
+         * the frame was queued, but the connection has been over its budget
+         *   for too long, or is too far over it, and should be closed. only
+         *   reported once; frames queued after that are dropped.
+         */
+        BEHIND
+    }
+}
@@ -0,0 +1,896 @@
+package net;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * a {Host} that sends {Packet}s to its peers as UDP datagrams, through a
+ *   single {DatagramChannel}. peers are identified by their addresses.
+ *
+ * packets sent by {sendMessage} are reliable: they are numbered, resent
+ *   until the peer acknowledges them, and passed to the {HostListener} in
+ *   the order they were sent in. only the first {SEND_WINDOW} of the
+ *   packets waiting to be acknowledged are sent; the rest wait for the ones
+ *   in front of them. a peer that doesn't acknowledge a packet after
+ *   {MAX_SENDS} tries is closed, and so is one that lets more than
+ *   {MAX_QUEUED} packets pile up. packets sent by {sendUnreliableMessage} are
+ *   sent once. an unreliable packet that arrives after a newer unreliable
+ *   packet from the same peer is stale, and is dropped, whatever their keys
+ *   are, so lost or late datagrams never hold back fresher ones the way a
+ *   lost TCP segment does.
+ *
+ * {connect} opens a peer by sending it handshakes until it answers; the
+ *   peer is open once it does. a listening host opens a peer when it
+ *   receives a handshake, and ignores everything else from peers it
+ *   doesn't know, so late datagrams from a closed peer don't open it
+ *   again. peers are closed by {disconnect}, which drops
+ *   whatever has not been acknowledged yet, or once nothing has been heard
+ *   from them for {TIMEOUT_MILLIS}. hosts send each other keep-alives while
+ *   they have nothing else to send.
+ *
+ * like an inline {SelectServer}, a {DatagramHost} has no threads of its own.
+ *   the thread that owns it does the networking by calling {poll}, which
+ *   invokes the {HostListener}'s callbacks, and resends unacknowledged
+ *   packets. a {DatagramHost} must only be used from the thread that owns it.
+ *
+ * datagrams are at most {MAX_DATAGRAM_SIZE} bytes. a reliable packet that
+ *   doesn't fit in one is split into fragments, which are sent as consecutive
+ *   reliable packets, and put back together before the packet is passed to
+ *   the {HostListener}. an unreliable packet that doesn't fit in one is sent
+ *   reliably instead, so listeners that care about stale packets, like the
+ *   {Mux} does about snapshots, have to number them themselves. a peer that
+ *   sends a packet bigger than {MAX_MESSAGE_SIZE} is closed.
+ */
+public class DatagramHost implements Host<SocketAddress>
+{
+    /**
+     * largest datagram sent, in bytes, header included; small enough to not
+     *   be fragmented on common links.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 1400;
+
+    /**
+     * largest packet that is put back together from fragments, in bytes.
+     */
+    public static final int MAX_MESSAGE_SIZE = SelectThread.DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * size of the header in front of every datagram: its kind, its sequence
+     *   number, the sequence number of the next reliable packet the sender
+     *   expects, and a bit for each of the {ACK_BITS} reliable packets after
+     *   that one, which is set if the sender has received it already.
+     */
+    private static final int HEADER_SIZE = 13;
+
+    /**
+     * largest payload that fits in a datagram, in bytes.
+     */
+    private static final int MAX_PAYLOAD_SIZE = MAX_DATAGRAM_SIZE-HEADER_SIZE;
+
+    /**
+     * number of reliable packets received out of order that each datagram
+     *   can acknowledge, so they aren't sent again.
+     */
+    private static final int ACK_BITS = 32;
+
+    /**
+     * how long a reliable packet waits to be acknowledged before it is sent
+     *   again, in milliseconds.
+     */
+    private static final long RESEND_MILLIS = 100;
+
+    /**
+     * how long a host goes without sending anything to a peer before it sends
+     *   a keep-alive, in milliseconds.
+     */
+    private static final long KEEPALIVE_MILLIS = 1000;
+
+    /**
+     * how long a peer may go without being heard from before it is closed,
+     *   in milliseconds.
+     */
+    public static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * number of reliable packets that may be sent to a peer without being
+     *   acknowledged.
+     */
+    public static final int SEND_WINDOW = 64;
+
+    /**
+     * number of times a reliable packet is sent before the peer is given up
+     *   on.
+     */
+    public static final int MAX_SENDS = 50;
+
+    /**
+     * number of reliable packets that may wait to be acknowledged by a peer,
+     *   sent or not, before it is closed for not keeping up.
+     */
+    public static final int MAX_QUEUED = 4096;
+
+    /**
+     * how far ahead of the next expected reliable packet a reliable packet
+     *   may be, and still be held on to until the ones before it arrive.
+     */
+    private static final int MAX_OUT_OF_ORDER = 1024;
+
+    // kinds of datagrams
+
+    private static final byte RELIABLE = 1;
+    private static final byte UNRELIABLE = 2;
+    private static final byte ACK = 3;
+    private static final byte CLOSE = 4;
+    private static final byte CONNECT = 5;
+
+    /**
+     * a reliable packet that is a fragment of a bigger one, and is continued
+     *   by the next reliable packet.
+     */
+    private static final byte FRAGMENT = 6;
+
+    private final DatagramChannel channel;
+
+    /**
+     * true if peers that aren't known yet are opened when they connect.
+     */
+    private final boolean listening;
+
+    private HostListener<SocketAddress> observer;
+
+    private static final HostListener<SocketAddress> NULL_OBSERVER
+            = new NullHostListener<>();
+
+    /**
+     * peers, opened or connecting, by address.
+     */
+    private final Map<SocketAddress,Peer> peers;
+
+    private final ByteBuffer sendBuffer;
+
+    private final ByteBuffer receiveBuffer;
+
+    /**
+     * number of reliable packets that were sent again.
+     */
+    private long resendCount;
+
+    /**
+     * number of unreliable packets that were dropped for being stale.
+     */
+    private long staleDropCount;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    /**
+     * creates a {DatagramHost} that is bound to an ephemeral port, and only
+     *   talks to the peers it {connect}s to.
+     */
+    public DatagramHost()
+    {
+        this(0,false);
+    }
+
+    /**
+     * creates a {DatagramHost} that is bound to {port}, and opens peers that
+     *   connect to it.
+     *
+     * @param   port   port to listen on.
+     */
+    public DatagramHost(int port)
+    {
+        this(port,true);
+    }
+
+    private DatagramHost(int port, boolean listening)
+    {
+        try
+        {
+            this.channel = DatagramChannel.open();
+            this.channel.bind(new InetSocketAddress(port));
+            this.channel.configureBlocking(false);
+            this.listening = listening;
+            this.observer = NULL_OBSERVER;
+            this.peers = new LinkedHashMap<>();
+            this.sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+            this.receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+            this.resendCount = 0;
+            this.staleDropCount = 0;
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public DatagramHost setObserver(HostListener<SocketAddress> observer)
+    {
+        this.observer = (observer != null) ? observer : NULL_OBSERVER;
+        return this;
+    }
+
+    /**
+     * starts connecting to the host at {remoteName}:{remotePort}. the
+     *   {HostListener}'s {onOpen} is invoked once it answers, or its
+     *   {onError} if it doesn't answer within {TIMEOUT_MILLIS}.
+     *
+     * @param   remoteName   IP address in dotted decimal format, or name of the
+     *   remote host to connect to.
+     * @param   remotePort   port number of the remote host to connect to.
+     *
+     * @return   the address that identifies the remote host.
+     */
+    public SocketAddress connect(String remoteName, int remotePort)
+    {
+        SocketAddress address = new InetSocketAddress(remoteName,remotePort);
+        Peer peer = new Peer(address,now());
+        peers.put(address,peer);
+        send(peer,CONNECT,0,null);
+        return address;
+    }
+
+    /**
+     * closes the peer at {address}, dropping the packets it has not
+     *   acknowledged yet, and tells it so.
+     *
+     * @param   address   address of the peer to close.
+     */
+    public void disconnect(SocketAddress address)
+    {
+        Peer peer = peers.remove(address);
+        if(peer != null)
+        {
+            send(peer,CLOSE,0,null);
+            if(peer.open)
+            {
+                observer.onClose(address,false);
+            }
+        }
+    }
+
+    /**
+     * disconnects from all peers, and closes the channel.
+     */
+    public void close()
+    {
+        for(SocketAddress address : new ArrayList<>(peers.keySet()))
+        {
+            disconnect(address);
+        }
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * returns the address of the local end of the channel.
+     */
+    public SocketAddress getLocalAddress()
+    {
+        try
+        {
+            return channel.getLocalAddress();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * returns the number of reliable packets that had to be sent again.
+     */
+    public long getResendCount()
+    {
+        return resendCount;
+    }
+
+    /**
+     * returns the number of unreliable packets that were dropped because a
+     *   newer one had already arrived.
+     */
+    public long getStaleDropCount()
+    {
+        return staleDropCount;
+    }
+
+    /**
+     * receives all waiting datagrams, and invokes the {HostListener}'s
+     *   callbacks for them. then resends the reliable packets that have not
+     *   been acknowledged in time, acknowledges the ones that were received,
+     *   sends keep-alives, and closes peers that have timed out.
+     */
+    public void poll()
+    {
+        long now = now();
+
+        // receive everything that is waiting
+        while(true)
+        {
+            SocketAddress from;
+            receiveBuffer.clear();
+            try
+            {
+                from = channel.receive(receiveBuffer);
+            }
+            catch(IOException e)
+            {
+                observer.onError(channel,e);
+                break;
+            }
+            if(from == null)
+            {
+                break;
+            }
+            receiveBuffer.flip();
+            if(receiveBuffer.remaining() >= HEADER_SIZE)
+            {
+                handleDatagram(from,receiveBuffer,now);
+            }
+        }
+
+        // the callbacks above may have opened or closed peers
+        for(Peer peer : new ArrayList<>(peers.values()))
+        {
+            if(now-peer.lastReceived > TIMEOUT_MILLIS)
+            {
+                timeOut(peer);
+                continue;
+            }
+            if(peer.behind)
+            {
+                disconnect(peer.address);
+                continue;
+            }
+            if(!peer.open)
+            {
+                if(now-peer.lastSent >= RESEND_MILLIS)
+                {
+                    send(peer,CONNECT,0,null);
+                }
+                continue;
+            }
+
+            // send the packets in the window that are new, or are due to be
+            // sent again
+            int inWindow = 0;
+            boolean givenUp = false;
+            for(Reliable reliable : peer.unacked)
+            {
+                if(inWindow++ == SEND_WINDOW)
+                {
+                    break;
+                }
+                if(reliable.sends == 0)
+                {
+                    transmit(peer,reliable,now);
+                }
+                else if(now-reliable.lastSent >= RESEND_MILLIS)
+                {
+                    if(reliable.sends >= MAX_SENDS)
+                    {
+                        givenUp = true;
+                        break;
+                    }
+                    transmit(peer,reliable,now);
+                    ++resendCount;
+                }
+            }
+            if(givenUp)
+            {
+                timeOut(peer);
+                continue;
+            }
+            if(peer.ackPending || now-peer.lastSent >= KEEPALIVE_MILLIS)
+            {
+                send(peer,ACK,0,null);
+            }
+        }
+    }
+
+    /////////////////////
+    // Host<ClientKey> //
+    /////////////////////
+
+    @Override
+    public void sendMessage(SocketAddress address, Packet packet)
+    {
+        Peer peer = peers.get(address);
+        if(peer != null)
+        {
+            sendReliable(peer,fragments(packet.toBytes()));
+        }
+    }
+
+    @Override
+    public void sendMessageToGroup(Collection<SocketAddress> addresses, Packet packet)
+    {
+        byte[][] fragments = fragments(packet.toBytes());
+        for(SocketAddress address : addresses)
+        {
+            Peer peer = peers.get(address);
+            if(peer != null)
+            {
+                sendReliable(peer,fragments);
+            }
+        }
+    }
+
+    @Override
+    public void sendUnreliableMessage(SocketAddress address, int key, Packet packet)
+    {
+        Peer peer = peers.get(address);
+        if(peer != null)
+        {
+            sendUnreliable(peer,packet.toBytes(),null);
+        }
+    }
+
+    @Override
+    public void sendUnreliableMessageToGroup(Collection<SocketAddress> addresses, int key, Packet packet)
+    {
+        byte[] payload = packet.toBytes();
+        byte[][] fragments = (payload.length > MAX_PAYLOAD_SIZE) ? fragments(payload) : null;
+        for(SocketAddress address : addresses)
+        {
+            Peer peer = peers.get(address);
+            if(peer != null)
+            {
+                sendUnreliable(peer,payload,fragments);
+            }
+        }
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    private static long now()
+    {
+        return System.nanoTime()/1000000;
+    }
+
+    /**
+     * splits {payload} into pieces that each fit in a datagram. a payload
+     *   that fits in one already is the only piece.
+     */
+    private static byte[][] fragments(byte[] payload)
+    {
+        if(payload.length <= MAX_PAYLOAD_SIZE)
+        {
+            return new byte[][]{payload};
+        }
+        byte[][] fragments = new byte[(payload.length+MAX_PAYLOAD_SIZE-1)/MAX_PAYLOAD_SIZE][];
+        for(int i = 0; i < fragments.length; ++i)
+        {
+            int offset = i*MAX_PAYLOAD_SIZE;
+            fragments[i] = Arrays.copyOfRange(payload,offset,
+                Math.min(offset+MAX_PAYLOAD_SIZE,payload.length));
+        }
+        return fragments;
+    }
+
+    /**
+     * sends {payload} to {peer} once, or reliably, split into {fragments},
+     *   if it doesn't fit in a datagram. {fragments} may be null, in which
+     *   case they are made from {payload} when needed.
+     */
+    private void sendUnreliable(Peer peer, byte[] payload, byte[][] fragments)
+    {
+        if(payload.length <= MAX_PAYLOAD_SIZE)
+        {
+            send(peer,UNRELIABLE,peer.nextUnreliableSeq++,payload);
+        }
+        else
+        {
+            sendReliable(peer,(fragments != null) ? fragments : fragments(payload));
+        }
+    }
+
+    /**
+     * numbers each of {fragments}, which make up one packet, and keeps them
+     *   to be sent to {peer} until {peer} acknowledges them. the ones in the
+     *   send window are sent right away.
+     *
+     * if {peer} has too many packets waiting already, the packet is dropped,
+     *   and {peer} is closed by the next {poll}.
+     */
+    private void sendReliable(Peer peer, byte[][] fragments)
+    {
+        if(peer.unacked.size()+fragments.length > MAX_QUEUED)
+        {
+            peer.behind = true;
+            return;
+        }
+        long now = now();
+        for(int i = 0; i < fragments.length; ++i)
+        {
+            Reliable reliable = new Reliable(peer.nextReliableSeq++,fragments[i],i < fragments.length-1);
+            peer.unacked.add(reliable);
+            if(peer.open && peer.unacked.size() <= SEND_WINDOW)
+            {
+                transmit(peer,reliable,now);
+            }
+        }
+    }
+
+    /**
+     * sends {reliable} to {peer}, and counts the try.
+     */
+    private void transmit(Peer peer, Reliable reliable, long now)
+    {
+        send(peer,reliable.more ? FRAGMENT : RELIABLE,reliable.seq,reliable.payload);
+        reliable.lastSent = now;
+        ++reliable.sends;
+    }
+
+    /**
+     * sends a datagram to {peer}, which also acknowledges the reliable
+     *   packets received from it so far. the datagram is dropped if the
+     *   channel's send buffer is full.
+     */
+    private void send(Peer peer, byte kind, int seq, byte[] payload)
+    {
+        sendBuffer.clear();
+        sendBuffer.put(kind).putInt(seq).putInt(peer.nextExpectedSeq).putInt(peer.ackBits());
+        if(payload != null)
+        {
+            sendBuffer.put(payload);
+        }
+        sendBuffer.flip();
+        try
+        {
+            channel.send(sendBuffer,peer.address);
+        }
+        catch(IOException e)
+        {
+            observer.onError(peer.address,e);
+        }
+        peer.lastSent = now();
+        peer.ackPending = false;
+    }
+
+    private void handleDatagram(SocketAddress from, ByteBuffer datagram, long now)
+    {
+        byte kind = datagram.get();
+        int seq = datagram.getInt();
+        int ack = datagram.getInt();
+        int ackBits = datagram.getInt();
+
+        // a listening host opens the peers that connect to it, which they do
+        // by sending a handshake; anything else from peers that aren't open,
+        // such as datagrams sent before they were closed, is ignored
+        Peer peer = peers.get(from);
+        if(peer == null)
+        {
+            if(!listening || kind != CONNECT)
+            {
+                return;
+            }
+            peer = new Peer(from,now);
+            peer.open = true;
+            peers.put(from,peer);
+            observer.onOpen(from);
+        }
+        peer.lastReceived = now;
+
+        // forget the reliable packets the peer has acknowledged; the peer we
+        // connected to is open once it answers
+        Iterator<Reliable> it = peer.unacked.iterator();
+        while(it.hasNext())
+        {
+            int ahead = it.next().seq-ack;
+            if(ahead < 0 || (ahead > 0 && ahead <= ACK_BITS && (ackBits&(1<<(ahead-1))) != 0))
+            {
+                it.remove();
+            }
+            else if(ahead > ACK_BITS)
+            {
+                break;
+            }
+        }
+        if(!peer.open)
+        {
+            peer.open = true;
+            observer.onOpen(from);
+        }
+
+        switch(kind)
+        {
+        case RELIABLE:
+            handleReliable(peer,seq,false,datagram);
+            break;
+        case FRAGMENT:
+            handleReliable(peer,seq,true,datagram);
+            break;
+        case UNRELIABLE:
+            handleUnreliable(peer,seq,datagram);
+            break;
+        case ACK:
+            break;
+        case CONNECT:
+            // answer the handshake, again if the answer was lost
+            peer.ackPending = true;
+            break;
+        case CLOSE:
+            peers.remove(from);
+            if(peer.open)
+            {
+                observer.onClose(from,true);
+            }
+            break;
+        default:
+            // not one of ours; ignore it
+            break;
+        }
+    }
+
+    /**
+     * holds on to the reliable packet numbered {seq}, then passes all the
+     *   reliable packets that are next in line to the {HostListener}. the
+     *   fragments of a packet are put together first; {more} is true if the
+     *   packet numbered {seq} is a fragment that the next one continues.
+     */
+    private void handleReliable(Peer peer, int seq, boolean more, ByteBuffer datagram)
+    {
+        peer.ackPending = true;
+        if(seq-peer.nextExpectedSeq < 0 || seq-peer.nextExpectedSeq >= MAX_OUT_OF_ORDER)
+        {
+            // already received, or too far ahead to hold on to
+            return;
+        }
+        byte[] payload = new byte[datagram.remaining()];
+        datagram.get(payload);
+        peer.outOfOrder.put(seq,new Reliable(seq,payload,more));
+
+        // the callbacks may close the peer
+        Reliable next;
+        while(peers.get(peer.address) == peer
+            && (next = peer.outOfOrder.remove(peer.nextExpectedSeq)) != null)
+        {
+            ++peer.nextExpectedSeq;
+            payload = next.payload;
+            if(next.more || !peer.fragments.isEmpty())
+            {
+                peer.fragments.add(payload);
+                peer.fragmentsSize += payload.length;
+                if(peer.fragmentsSize > MAX_MESSAGE_SIZE)
+                {
+                    disconnect(peer.address);
+                    return;
+                }
+                if(next.more)
+                {
+                    continue;
+                }
+                payload = peer.joinFragments();
+            }
+            observer.onMessage(peer.address,new Packet().fromBytes(payload));
+        }
+    }
+
+    /**
+     * passes the unreliable packet numbered {seq} to the {HostListener},
+     *   unless a newer one has been received already.
+     */
+    private void handleUnreliable(Peer peer, int seq, ByteBuffer datagram)
+    {
+        if(!peer.open)
+        {
+            return;
+        }
+        if(seq-peer.lastUnreliableSeq <= 0)
+        {
+            ++staleDropCount;
+            return;
+        }
+        peer.lastUnreliableSeq = seq;
+        byte[] payload = new byte[datagram.remaining()];
+        datagram.get(payload);
+        observer.onMessage(peer.address,new Packet().fromBytes(payload));
+    }
+
+    /**
+     * closes {peer}, which hasn't been heard from in too long.
+     */
+    private void timeOut(Peer peer)
+    {
+        peers.remove(peer.address);
+        if(peer.open)
+        {
+            observer.onClose(peer.address,true);
+        }
+        else
+        {
+            observer.onError(peer.address,new ConnectException(
+                "no answer from "+peer.address));
+        }
+    }
+
+    //////////
+    // Peer //
+    //////////
+
+    /**
+     * state kept for each peer. sequence numbers wrap around, so they are
+     *   only ever compared by the sign of their difference.
+     */
+    private static class Peer
+    {
+        public final SocketAddress address;
+
+        /**
+         * true once the connection to the peer has been established.
+         */
+        public boolean open;
+
+        public int nextReliableSeq;
+
+        public int nextUnreliableSeq;
+
+        /**
+         * sequence number of the next reliable packet to be passed to the
+         *   {HostListener}; the peer has been sent everything before it.
+         */
+        public int nextExpectedSeq;
+
+        /**
+         * sequence number of the newest unreliable packet received.
+         */
+        public int lastUnreliableSeq;
+
+        /**
+         * reliable packets sent to the peer that it has not acknowledged yet,
+         *   oldest first.
+         */
+        public final ArrayDeque<Reliable> unacked;
+
+        /**
+         * reliable packets received from the peer that can't be passed to
+         *   the {HostListener} before the ones in front of them arrive, by
+         *   sequence number.
+         */
+        public final Map<Integer,Reliable> outOfOrder;
+
+        /**
+         * fragments of the packet that is being received from the peer, in
+         *   order.
+         */
+        public final ArrayList<byte[]> fragments;
+
+        /**
+         * number of bytes in {fragments}.
+         */
+        public int fragmentsSize;
+
+        /**
+         * true if reliable packets were received from the peer since it was
+         *   last sent anything.
+         */
+        public boolean ackPending;
+
+        /**
+         * true if the peer let too many reliable packets pile up, and is to be
+         *   closed.
+         */
+        public boolean behind;
+
+        public long lastSent;
+
+        public long lastReceived;
+
+        public Peer(SocketAddress address, long now)
+        {
+            this.address = address;
+            this.open = false;
+            this.nextReliableSeq = 0;
+            this.nextUnreliableSeq = 0;
+            this.nextExpectedSeq = 0;
+            this.lastUnreliableSeq = -1;
+            this.unacked = new ArrayDeque<>();
+            this.outOfOrder = new HashMap<>();
+            this.fragments = new ArrayList<>();
+            this.fragmentsSize = 0;
+            this.ackPending = false;
+            this.behind = false;
+            this.lastSent = now;
+            this.lastReceived = now;
+        }
+
+        /**
+         * returns the bits that acknowledge the reliable packets after the
+         *   next expected one that have been received already.
+         */
+        public int ackBits()
+        {
+            int bits = 0;
+            if(!outOfOrder.isEmpty())
+            {
+                for(int i = 0; i < ACK_BITS; ++i)
+                {
+                    if(outOfOrder.containsKey(nextExpectedSeq+1+i))
+                    {
+                        bits |= 1<<i;
+                    }
+                }
+            }
+            return bits;
+        }
+
+        /**
+         * returns the packet that the {fragments} make up, and forgets them.
+         */
+        public byte[] joinFragments()
+        {
+            byte[] joined = new byte[fragmentsSize];
+            int offset = 0;
+            for(byte[] fragment : fragments)
+            {
+                System.arraycopy(fragment,0,joined,offset,fragment.length);
+                offset += fragment.length;
+            }
+            fragments.clear();
+            fragmentsSize = 0;
+            return joined;
+        }
+    }
+
+    //////////////
+    // Reliable //
+    //////////////
+
+    /**
+     * a reliable packet, or a fragment of one, that is waiting to be
+     *   acknowledged, or for the ones in front of it to arrive.
+     */
+    private static class Reliable
+    {
+        public final int seq;
+        public final byte[] payload;
+
+        /**
+         * true if the packet is a fragment that the next one continues.
+         */
+        public final boolean more;
+
+        public long lastSent;
+
+        /**
+         * number of times the packet was sent; 0 while it is waiting for
+         *   room in the send window.
+         */
+        public int sends;
+
+        public Reliable(int seq, byte[] payload, boolean more)
+        {
+            this.seq = seq;
+            this.payload = payload;
+            this.more = more;
+            this.lastSent = 0;
+            this.sends = 0;
+        }
+    }
+}
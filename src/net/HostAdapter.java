@@ -1,5 +1,7 @@
 package net;
 
+import java.util.Collection;
+
 public class HostAdapter<ClientKey,ServerKey> implements Host<ClientKey>
 {
     private Client<ClientKey> clientAdaptee;
@@ -36,4 +38,31 @@ public class HostAdapter<ClientKey,ServerKey> implements Host<ClientKey>
         clientAdaptee.sendMessage(sock,packet);
         serverAdaptee.sendMessage(sock,packet);
     }
+
+    @Override
+    public void sendMessageToGroup(Collection<ClientKey> socks, Packet packet)
+    {
+        for(ClientKey sock : socks)
+        {
+            clientAdaptee.sendMessage(sock,packet);
+        }
+        serverAdaptee.sendMessageToGroup(socks,packet);
+    }
+
+    @Override
+    public void sendUnreliableMessage(ClientKey sock, int key, Packet packet)
+    {
+        clientAdaptee.sendMessage(sock,packet);
+        serverAdaptee.sendUnreliableMessage(sock,key,packet);
+    }
+
+    @Override
+    public void sendUnreliableMessageToGroup(Collection<ClientKey> socks, int key, Packet packet)
+    {
+        for(ClientKey sock : socks)
+        {
+            clientAdaptee.sendMessage(sock,packet);
+        }
+        serverAdaptee.sendUnreliableMessageToGroup(socks,key,packet);
+    }
 }
@@ -0,0 +1,104 @@
+package net;
+
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.SelectThread.Message;
+import net.SelectThread.Message.Type;
+
+/**
+ * an in-memory network that {LoopbackServer}s listen on, and
+ *   {LoopbackClient}s connect through. servers are found by port number
+ *   only; there are no host names.
+ *
+ * connecting creates a pair of {LoopbackChannel}s, one for each end. packets
+ *   sent through one end are handed to the host at the other end as they
+ *   are, without being serialized, and without any sockets or threads. a
+ *   packet sent to many hosts is handed to all of them, so the hosts must
+ *   treat received packets as values, and never refill them with
+ *   {Packet.fromBytes}.
+ *
+ * may be used from any number of threads. each host gets the callback
+ *   tokens of a connection in order: ON_CONNECT or ON_ACCEPT first, then the
+ *   ON_MESSAGEs, then ON_CLOSE.
+ */
+public class Loopback
+{
+    private static final Loopback DEFAULT = new Loopback();
+
+    /**
+     * inboxes of the listening hosts, by port.
+     */
+    private final Map<Integer,Queue<Message>> listeners;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    public Loopback()
+    {
+        this.listeners = new ConcurrentHashMap<>();
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns the network used by hosts that aren't given one.
+     */
+    public static Loopback getDefault()
+    {
+        return DEFAULT;
+    }
+
+    ///////////////////////
+    // package interface //
+    ///////////////////////
+
+    /**
+     * makes connections to {port} go to {inbox}.
+     *
+     * @return   true if {port} was free; false otherwise.
+     */
+    boolean listen(int port, Queue<Message> inbox)
+    {
+        return listeners.putIfAbsent(port,inbox) == null;
+    }
+
+    /**
+     * stops connections to {port} from going to {inbox}.
+     */
+    void stopListening(int port, Queue<Message> inbox)
+    {
+        listeners.remove(port,inbox);
+    }
+
+    /**
+     * connects {inbox} to the host listening on {port}. an ON_CONNECT
+     *   callback token is added to {inbox}, and then an ON_ACCEPT one to that
+     *   host's inbox, so whatever that host sends in reply comes after the
+     *   ON_CONNECT; or, if no host is listening, an ON_CONNECT_FAIL one.
+     *
+     * @return   the end of the connection that belongs to {inbox}.
+     */
+    LoopbackChannel connect(int port, Queue<Message> inbox)
+    {
+        Queue<Message> remoteInbox = listeners.get(port);
+        if(remoteInbox == null)
+        {
+            LoopbackChannel channel = new LoopbackChannel(inbox);
+            inbox.add(new Message(Type.ON_CONNECT_FAIL,channel,
+                new ConnectException("nothing listening on port "+port)));
+            return channel;
+        }
+
+        LoopbackChannel channel = new LoopbackChannel(inbox);
+        LoopbackChannel remote = new LoopbackChannel(remoteInbox,channel);
+        inbox.add(new Message(Type.ON_CONNECT,channel,null));
+        remoteInbox.add(new Message(Type.ON_ACCEPT,remote,null));
+        return channel;
+    }
+}
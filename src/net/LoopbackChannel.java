@@ -0,0 +1,102 @@
+package net;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.SelectThread.Message;
+import net.SelectThread.Message.Type;
+
+/**
+ * one end of a connection made through a {Loopback} network. identifies the
+ *   connection to the {LoopbackServer} or {LoopbackClient} that owns it,
+ *   like a {SocketChannel} does for a {SelectServer} or {SelectClient}.
+ */
+public final class LoopbackChannel
+{
+    /**
+     * inbox of the host that owns this end.
+     */
+    private final Queue<Message> inbox;
+
+    /**
+     * the other end of the connection; null if it never connected.
+     */
+    private LoopbackChannel peer;
+
+    /**
+     * true while the connection is open; shared by both ends. also locked
+     *   while packets are sent and while the connection is closed, so no
+     *   packet is handed over after the ON_CLOSE callback tokens.
+     */
+    private final AtomicBoolean open;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    /**
+     * creates an end that isn't connected to anything yet.
+     */
+    LoopbackChannel(Queue<Message> inbox)
+    {
+        this.inbox = inbox;
+        this.peer = null;
+        this.open = new AtomicBoolean(false);
+    }
+
+    /**
+     * creates the other end of a connection to {peer}, and opens it.
+     */
+    LoopbackChannel(Queue<Message> inbox, LoopbackChannel peer)
+    {
+        this.inbox = inbox;
+        this.peer = peer;
+        this.open = peer.open;
+        peer.peer = this;
+        open.set(true);
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public boolean isOpen()
+    {
+        return open.get();
+    }
+
+    ///////////////////////
+    // package interface //
+    ///////////////////////
+
+    /**
+     * hands {packet} to the host at the other end, unless the connection is
+     *   closed.
+     */
+    void send(Packet packet)
+    {
+        synchronized(open)
+        {
+            if(open.get())
+            {
+                peer.inbox.add(new Message(Type.ON_MESSAGE,peer,packet));
+            }
+        }
+    }
+
+    /**
+     * closes the connection. the packets already sent through it are still
+     *   handed over, before the ON_CLOSE callback tokens.
+     */
+    void close()
+    {
+        synchronized(open)
+        {
+            if(open.compareAndSet(true,false))
+            {
+                inbox.add(new Message(Type.ON_CLOSE,this,false));
+                peer.inbox.add(new Message(Type.ON_CLOSE,peer,true));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.SelectThread.Message;
+
+/**
+ * a {Client} that connects to {LoopbackServer}s in the same process, through
+ *   a {Loopback} network. the host name passed to {connect} is ignored.
+ *
+ * like a {SelectClient}'s, the callbacks are only invoked from
+ *   {handleMessages}, in the order they happened in.
+ */
+public class LoopbackClient implements Client<LoopbackChannel>
+{
+    private final Loopback network;
+
+    /**
+     * callback tokens waiting to be consumed by {handleMessages}.
+     */
+    private final Queue<Message> inbox;
+
+    private ClientListener<LoopbackChannel> observer;
+
+    private static final ClientListener<LoopbackChannel> NULL_OBSERVER
+            = new NullClientListener<>();
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    public LoopbackClient()
+    {
+        this(Loopback.getDefault());
+    }
+
+    public LoopbackClient(Loopback network)
+    {
+        this.network = network;
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.observer = NULL_OBSERVER;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public LoopbackClient setObserver(ClientListener<LoopbackChannel> observer)
+    {
+        this.observer = (observer != null) ? observer : NULL_OBSERVER;
+        return this;
+    }
+
+    /**
+     * invokes the callbacks of the observer for everything that happened
+     *   since the last call, on the calling thread. must not be invoked by
+     *   more than one thread at a time.
+     */
+    public void handleMessages()
+    {
+        Message msg;
+        while((msg = inbox.poll()) != null)
+        {
+            switch(msg.type)
+            {
+            case ON_CONNECT:
+                observer.onConnect((LoopbackChannel)msg.obj1);
+                break;
+            case ON_CONNECT_FAIL:
+                observer.onConnectFail((LoopbackChannel)msg.obj1,(Exception)msg.obj2);
+                break;
+            case ON_MESSAGE:
+                observer.onMessage((LoopbackChannel)msg.obj1,(Packet)msg.obj2);
+                break;
+            case ON_CLOSE:
+                observer.onClose((LoopbackChannel)msg.obj1,(boolean)msg.obj2);
+                break;
+            default:
+                throw new RuntimeException("default case hit");
+            }
+        }
+    }
+
+    //////////////////////////////////////////////
+    // public interface & Client implementation //
+    //////////////////////////////////////////////
+
+    @Override
+    public LoopbackChannel connect(String remoteName, int remotePort)
+    {
+        return network.connect(remotePort,inbox);
+    }
+
+    @Override
+    public void disconnect(LoopbackChannel channel)
+    {
+        channel.close();
+    }
+
+    @Override
+    public void sendMessage(LoopbackChannel channel, Packet packet)
+    {
+        channel.send(packet);
+    }
+}
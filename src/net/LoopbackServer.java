@@ -0,0 +1,138 @@
+package net;
+
+import java.net.BindException;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.SelectThread.Message;
+import net.SelectThread.Message.Type;
+
+/**
+ * a {Server} that accepts connections made through a {Loopback} network,
+ *   from {LoopbackClient}s in the same process.
+ *
+ * sent packets are handed to the other end as they are, so running clients
+ *   and servers together, or measuring what the game costs without the
+ *   transport, takes no sockets, threads or serialization. like a
+ *   {SelectServer}'s, the callbacks are only invoked from {handleMessages},
+ *   in the order they happened in.
+ */
+public class LoopbackServer implements Server<LoopbackChannel,Integer>
+{
+    private final Loopback network;
+
+    /**
+     * callback tokens waiting to be consumed by {handleMessages}.
+     */
+    private final Queue<Message> inbox;
+
+    private ServerListener<LoopbackChannel,Integer> observer;
+
+    private static final ServerListener<LoopbackChannel,Integer> NULL_OBSERVER
+            = new NullServerListener<>();
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    public LoopbackServer()
+    {
+        this(Loopback.getDefault());
+    }
+
+    public LoopbackServer(Loopback network)
+    {
+        this.network = network;
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.observer = NULL_OBSERVER;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    public LoopbackServer setObserver(ServerListener<LoopbackChannel,Integer> observer)
+    {
+        this.observer = (observer != null) ? observer : NULL_OBSERVER;
+        return this;
+    }
+
+    /**
+     * closes the connection of {channel}.
+     *
+     * @param   channel   channel to close.
+     */
+    public void disconnect(LoopbackChannel channel)
+    {
+        channel.close();
+    }
+
+    /**
+     * invokes the callbacks of the observer for everything that happened
+     *   since the last call, on the calling thread. must not be invoked by
+     *   more than one thread at a time.
+     */
+    public void handleMessages()
+    {
+        Message msg;
+        while((msg = inbox.poll()) != null)
+        {
+            switch(msg.type)
+            {
+            case ON_ACCEPT:
+                observer.onAccept((LoopbackChannel)msg.obj1);
+                break;
+            case ON_LISTEN_FAIL:
+                observer.onListenFail((Integer)msg.obj1,(Exception)msg.obj2);
+                break;
+            case ON_MESSAGE:
+                observer.onMessage((LoopbackChannel)msg.obj1,(Packet)msg.obj2);
+                break;
+            case ON_CLOSE:
+                observer.onClose((LoopbackChannel)msg.obj1,(boolean)msg.obj2);
+                break;
+            default:
+                throw new RuntimeException("default case hit");
+            }
+        }
+    }
+
+    //////////////////////////////////////////////
+    // public interface & Server implementation //
+    //////////////////////////////////////////////
+
+    @Override
+    public Integer startListening(int serverPort)
+    {
+        if(!network.listen(serverPort,inbox))
+        {
+            inbox.add(new Message(Type.ON_LISTEN_FAIL,serverPort,
+                new BindException("port "+serverPort+" is already in use")));
+        }
+        return serverPort;
+    }
+
+    @Override
+    public void stopListening(Integer port)
+    {
+        network.stopListening(port,inbox);
+    }
+
+    @Override
+    public void sendMessage(LoopbackChannel channel, Packet packet)
+    {
+        channel.send(packet);
+    }
+
+    @Override
+    public void sendMessageToGroup(Collection<LoopbackChannel> channels, Packet packet)
+    {
+        // packets are values, so every channel can be handed the same one;
+        // receivers must not refill it with fromBytes
+        for(LoopbackChannel channel : channels)
+        {
+            channel.send(packet);
+        }
+    }
+}
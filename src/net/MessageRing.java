@@ -0,0 +1,157 @@
+package net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.SelectThread.Message;
+import net.SelectThread.Message.Type;
+
+/**
+ * bounded, lock-free queue of {Message}s that any number of threads may add
+ *   to, but only one thread at a time may remove from.
+ *
+ * the queue is a ring of preallocated {Message} slots. a producer claims the
+ *   next slot by advancing {tail}, fills it in, and publishes it by setting
+ *   its sequence number. the consumer copies the contents of a published slot
+ *   out, and hands the slot back to the producers by advancing its sequence
+ *   number by one lap. adding and removing messages never allocates or
+ *   blocks; when the ring is full, {offer} fails, and the caller decides what
+ *   to do.
+ */
+class MessageRing
+{
+    private final Message[] slots;
+
+    /**
+     * sequence number of each slot. a slot at position {pos} may be filled in
+     *   when its sequence is {pos}, and may be consumed when it is {pos+1}.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /**
+     * position of the next slot to be claimed by a producer.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * position of the next slot to be consumed. only advanced by the consumer.
+     */
+    private final AtomicLong head;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    /**
+     * @param   capacity   number of messages the ring can hold. must be a
+     *   power of two.
+     */
+    public MessageRing(int capacity)
+    {
+        if(capacity <= 0 || Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.slots = new Message[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity-1;
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+        for(int i = 0; i < capacity; ++i)
+        {
+            slots[i] = new Message(null,null,null);
+            sequences.set(i,i);
+        }
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * adds a message to the ring. may be invoked from any thread.
+     *
+     * @return   true if the message was added; false if the ring is full.
+     */
+    public boolean offer(Type type, Object obj1, Object obj2)
+    {
+        // claim the slot at the tail, unless the consumer hasn't got to it yet
+        long pos = tail.get();
+        int index;
+        while(true)
+        {
+            index = (int)pos&mask;
+            long diff = sequences.get(index)-pos;
+            if(diff == 0)
+            {
+                if(tail.compareAndSet(pos,pos+1))
+                {
+                    break;
+                }
+                pos = tail.get();
+            }
+            else if(diff < 0)
+            {
+                return false;
+            }
+            else
+            {
+                pos = tail.get();
+            }
+        }
+
+        // fill in the slot, and publish it to the consumer
+        slots[index].set(type,obj1,obj2);
+        sequences.lazySet(index,pos+1);
+        return true;
+    }
+
+    /**
+     * removes the message at the head of the ring, and copies it into {dst}.
+     *   must only be invoked by one thread at a time.
+     *
+     * @param   dst   message to copy the removed message into.
+     *
+     * @return   true if a message was removed; false if the ring is empty.
+     */
+    public boolean poll(Message dst)
+    {
+        long pos = head.get();
+        int index = (int)pos&mask;
+        if(sequences.get(index) != pos+1)
+        {
+            return false;
+        }
+
+        // copy the message out, and hand the slot back to the producers
+        Message slot = slots[index];
+        dst.set(slot.type,slot.obj1,slot.obj2);
+        slot.set(null,null,null);
+        sequences.lazySet(index,pos+mask+1);
+        head.lazySet(pos+1);
+        return true;
+    }
+
+    /**
+     * returns the number of messages in the ring. only an estimate while
+     *   other threads are adding or removing messages.
+     *
+     * @return   the number of messages in the ring.
+     */
+    public int size()
+    {
+        return (int)Math.max(0,tail.get()-head.get());
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    public int capacity()
+    {
+        return slots.length;
+    }
+}
@@ -1,5 +1,7 @@
 package net;
 
+import java.util.Collection;
+
 public class NullServer<ClientKey,ServerKey> implements Server<ClientKey,ServerKey>
 {
     @Override
@@ -17,4 +19,9 @@ public class NullServer<ClientKey,ServerKey> implements Server<ClientKey,ServerK
     public void sendMessage(ClientKey sock, Packet packet)
     {
     }
+
+    @Override
+    public void sendMessageToGroup(Collection<ClientKey> socks, Packet packet)
+    {
+    }
 }
@@ -2,7 +2,8 @@ package net;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Stack;
+import java.util.EmptyStackException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * fancy wrapper for a stack so that data can be pushed onto the packet, and
@@ -13,6 +14,24 @@ import java.util.Stack;
  *   a byte array back into a {Packet}. these methods are used when the {Packet}
  *   is being sent and received on the network.
  *
+ * internally, the sections of the packet are stored in their serialized form
+ *   in a single byte array, with the top of the stack at the lowest offset.
+ *   free space (headroom) is reserved in front of the data, so pushing a new
+ *   header writes it just in front of the current head, and popping a header
+ *   just moves the head forward; neither copies the rest of the packet.
+ *
+ * wire format: the byte version of a packet starts with a one byte format
+ *   marker ({FORMAT_VARINT}), followed by the sections, top first. each
+ *   section is preceded by its length, encoded as a {VarInt}. packets in the
+ *   legacy format, where each section is preceded by a 32-bit big-endian
+ *   length and there is no marker, can still be parsed by {fromBytes}; the
+ *   first byte of a legacy packet is never a valid format marker.
+ *
+ * {Packet}s behave like values: {pushData} and {popData} return new {Packet}
+ *   instances, and never modify the data seen by the instance they were
+ *   invoked on. derived packets share the backing array with the packet they
+ *   were derived from where possible.
+ *
  * a {Packet} can be sent over the network using the {Client} and {Server}
  *   subclasses.
  *
@@ -21,16 +40,47 @@ import java.util.Stack;
 public class Packet implements framework.Serializable
 {
     /**
-     * the packet's internal stack of data, where data is pushed onto, and
-     *   popped off.
+     * number of bytes reserved in front of the data of a new backing array,
+     *   so that headers can be pushed onto the packet without copying it.
+     */
+    private static final int HEADROOM = 64;
+
+    /**
+     * first byte of the byte version of a packet whose section lengths are
+     *   encoded as {VarInt}s. format markers have their most significant bit
+     *   set, which the first byte of a legacy packet never has.
+     */
+    public static final byte FORMAT_VARINT = (byte)0x82;
+
+    /**
+     * number of bytes used to store the length of each section in the legacy
+     *   format.
+     */
+    private static final int LEGACY_LENGTH_SIZE = 4;
+
+    /**
+     * number of bytes used by the format marker.
+     */
+    private static final int MARKER_SIZE = 1;
+
+    /**
+     * backing array that holds the serialized data of this packet. may be
+     *   shared with other packets derived from this one.
      */
-    private final Stack<byte[]> packetData;
+    private Buffer buffer;
 
     /**
-     * length of the actual data encapsulated in this packet, not including
-     *   delimiters, or escape characters. just pure data.
+     * offset into the backing array where the packet's sections start; this
+     *   is where the length of the top section is stored. the format marker is
+     *   not stored in the backing array.
      */
-    private int packetLength;
+    private int head;
+
+    /**
+     * offset into the backing array one past the last byte of the packet's
+     *   data.
+     */
+    private int tail;
 
     //////////////////
     // constructors //
@@ -41,8 +91,14 @@ public class Packet implements framework.Serializable
      */
     public Packet()
     {
-        packetData = new Stack<>();
-        packetLength = 0;
+        this(new Buffer(new byte[HEADROOM],HEADROOM),HEADROOM,HEADROOM);
+    }
+
+    private Packet(Buffer buffer, int head, int tail)
+    {
+        this.buffer = buffer;
+        this.head = head;
+        this.tail = tail;
     }
 
     //////////////////////
@@ -65,109 +121,161 @@ public class Packet implements framework.Serializable
     /**
      * parses {data}, and replaces the data in the packet with the parsed data.
      *
+     * packets in the current format are used as the backing array without
+     *   copying {data}, so the caller must not modify {data} afterwards.
+     *   packets in the legacy format are converted to the current format.
+     *
      * @param    data   data to parse into the packet. this data should have
      *   been created using the Packet::toBytes method.
+     * @param    length   number of bytes at the beginning of {data} to parse.
      *
      * @return   returns a this pointer.
      */
     public Packet fromBytes(byte[] data, int length)
     {
-        // reset the state of this packet
-        packetData.clear();
-        packetLength = 0;
-
-        // go through the raw data, and put it into our reversed stack
-        ByteBuffer rawData = ByteBuffer.wrap(data,0,length);
-        Stack<byte[]> reversedSections = new Stack<>();
-        while(rawData.hasRemaining())
+        if(length > 0 && data[0] == FORMAT_VARINT)
         {
-            byte[] sectionData = new byte[rawData.getInt()];
-            rawData.get(sectionData,0,sectionData.length);
-            reversedSections.push(sectionData);
-        }
+            // make sure the sections fit exactly into the data before using it
+            int offset = MARKER_SIZE;
+            while(offset < length)
+            {
+                int lengthSize = VarInt.sizeAt(data,offset,length);
+                if(lengthSize == 0)
+                {
+                    throw new IllegalArgumentException("malformed packet");
+                }
+                int sectionLength = VarInt.get(data,offset);
+                offset += lengthSize;
+                if(sectionLength < 0 || sectionLength > length-offset
+                    || lengthSize != VarInt.size(sectionLength))
+                {
+                    throw new IllegalArgumentException("malformed packet");
+                }
+                offset += sectionLength;
+            }
 
-        // move the data from the reversed stack onto the real one
-        Packet ret = new Packet();
-        while(reversedSections.size() > 0)
+            // replace the state of this packet; there is no headroom in front
+            // of the data, so the first push will move it to a new backing
+            // array
+            buffer = new Buffer(data,MARKER_SIZE);
+            head = MARKER_SIZE;
+            tail = length;
+        }
+        else
         {
-            ret = ret.pushData(reversedSections.pop());
+            fromLegacyBytes(data,length);
         }
 
         // return the packet
-        return ret;
+        return this;
     }
 
     /**
      * returns the byte version of the packet that can be used to transmit "over
      *   the wire".
      *
-     * each section of data is preceded by a 32-bit integer that specifies its
-     *   length.
+     * the packet starts with the {FORMAT_VARINT} marker, and each section of
+     *   data is preceded by its length, encoded as a {VarInt}.
      *
      * @return   the byte version of the packet that can be used to transmit
      *   "over the wire".
      */
     public byte[] toBytes()
     {
-        // allocate all the bytes we need to hold the packet data
-        ByteBuffer packet = ByteBuffer.allocate(
-            packetLength+packetData.size()*4);
+        byte[] bytes = new byte[length()];
+        bytes[0] = FORMAT_VARINT;
+        System.arraycopy(buffer.data,head,bytes,MARKER_SIZE,tail-head);
+        return bytes;
+    }
 
-        // go through the stack, and write it to the byte array
-        for(int i = packetData.size()-1; i >= 0; --i)
-        {
-            byte[] data = packetData.get(i);
-            packet.putInt(data.length);
-            packet.put(data);
-        }
+    /**
+     * returns the number of bytes {toBytes} would return.
+     *
+     * @return   the length of the byte version of the packet.
+     */
+    public int length()
+    {
+        return MARKER_SIZE+tail-head;
+    }
 
-        // return the packet
-        return packet.array();
+    @Override
+    public int serializedSize()
+    {
+        return length();
+    }
+
+    /**
+     * writes the byte version of the packet into {dst}, starting at its
+     *   current position, without allocating an intermediate array.
+     *
+     * @param    dst   buffer to write the packet into. it must have at least
+     *   {length()} bytes remaining.
+     */
+    @Override
+    public void writeTo(ByteBuffer dst)
+    {
+        dst.put(FORMAT_VARINT);
+        dst.put(buffer.data,head,tail-head);
     }
 
     /**
      * adds {data} as the new header of the packet, and the previous data
      *   becomes "payload".
      *
+     * the header is written into the headroom in front of this packet's data
+     *   if that space has not already been claimed by another push onto this
+     *   packet; otherwise, the data is moved into a new, larger backing array.
+     *
      * @param    data   the new data to add to the packet as header data.
      *
-     * @return   returns a this pointer, so calls to this method can be chained.
+     * @return   a new packet with {data} as its header, so calls to this method
+     *   can be chained.
      */
     public Packet pushData(byte[] data)
     {
-        // create a copy of this packet
-        Packet p = new Packet().fromBytes(toBytes());
-
-        // update book keeping variables
-        p.packetLength += data.length;
-
-        // put the data on our stack
-        p.packetData.push(data);
+        Packet packet = reserve(data.length);
+        System.arraycopy(data,0,packet.buffer.data,packet.tail-(tail-head)-data.length,data.length);
+        return packet;
+    }
 
-        // return this, so we can chain stuff
-        return p;
+    /**
+     * adds the byte version of {data} as the new header of the packet, and the
+     *   previous data becomes "payload".
+     *
+     * {data} is written directly into the packet's backing array using
+     *   {Serializable::writeTo}, so no intermediate array is allocated when
+     *   {data} overrides it.
+     *
+     * @param    data   object whose byte version is added to the packet as
+     *   header data.
+     *
+     * @return   a new packet with the byte version of {data} as its header, so
+     *   calls to this method can be chained.
+     */
+    public Packet pushData(framework.Serializable data)
+    {
+        int size = data.serializedSize();
+        Packet packet = reserve(size);
+        ByteBuffer dst = ByteBuffer.wrap(packet.buffer.data,packet.tail-(tail-head)-size,size);
+        data.writeTo(dst);
+        if(dst.hasRemaining())
+        {
+            throw new IllegalStateException(data.getClass().getSimpleName()
+                +" wrote "+(size-dst.remaining())+" of "+size+" bytes");
+        }
+        return packet;
     }
 
     /**
-     * returns the data of the current header of the packet, and removes it from
-     *   the packet.
+     * returns a packet that has the same data as this one, but with the current
+     *   header removed.
      *
-     * @return   the data of the current header of the packet, and removes it
-     *   from the packet.
+     * @return   a packet with the current header of this packet removed.
      */
     public Packet popData()
     {
-        // create a copy of this packet
-        Packet p = new Packet().fromBytes(toBytes());
-
-        // pop the the data from the stack & parse it
-        byte[] data = p.packetData.pop();
-
-        // update book keeping variables
-        p.packetLength -= data.length;
-
-        // return the data
-        return p;
+        int length = peekLength();
+        return new Packet(buffer,head+VarInt.size(length)+length,tail);
     }
 
     /**
@@ -179,25 +287,189 @@ public class Packet implements framework.Serializable
      */
     public byte[] peekData()
     {
-        // peek the the data from the stack, parse it & return it
-        return packetData.peek();
+        int length = peekLength();
+        int dataStart = head+VarInt.size(length);
+        return Arrays.copyOfRange(buffer.data,dataStart,dataStart+length);
     }
 
+    /**
+     * returns a read-only view of the data of the current header of the
+     *   packet, without copying it, or removing it from the packet.
+     *
+     * @return   a read-only {ByteBuffer} positioned at the start of the current
+     *   header's data, and limited to its end.
+     */
+    public ByteBuffer peekBuffer()
+    {
+        int length = peekLength();
+        return ByteBuffer.wrap(buffer.data,head+VarInt.size(length),length)
+            .slice().asReadOnlyBuffer();
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    /**
+     * returns a new packet with a header of {size} bytes in front of this
+     *   packet's data. the length of the header is written, but its data is
+     *   left for the caller to fill in.
+     *
+     * the header is placed into the headroom in front of this packet's data if
+     *   that space has not already been claimed by another push onto this
+     *   packet; otherwise, the data is moved into a new, larger backing array.
+     *
+     * @param    size   number of bytes of header data to reserve.
+     *
+     * @return   a new packet whose header data is the {size} bytes just in
+     *   front of this packet's data.
+     */
+    private Packet reserve(int size)
+    {
+        int lengthSize = VarInt.size(size);
+        int sectionLength = lengthSize+size;
+        int newHead = head-sectionLength;
+        Buffer dst = buffer;
+
+        // if there isn't enough headroom, or another packet already wrote in
+        // front of this one, copy the data to a new backing array with more
+        // headroom than we need, so chained pushes stay cheap
+        if(newHead < 0 || !buffer.front.compareAndSet(head,newHead))
+        {
+            int dataSize = tail-head;
+            int headroom = Math.max(HEADROOM,sectionLength+dataSize);
+            byte[] grown = new byte[headroom+dataSize];
+            System.arraycopy(buffer.data,head,grown,headroom,dataSize);
+            dst = new Buffer(grown,headroom-sectionLength);
+            newHead = headroom-sectionLength;
+        }
+
+        // write the length of the new section in front of the existing data
+        VarInt.put(dst.data,newHead,size);
+        return new Packet(dst,newHead,newHead+sectionLength+(tail-head));
+    }
+
+    /**
+     * returns the length of the data of the current header of the packet.
+     *
+     * @return   the length of the data of the current header of the packet.
+     */
+    private int peekLength()
+    {
+        if(head == tail)
+        {
+            throw new EmptyStackException();
+        }
+        return VarInt.get(buffer.data,head);
+    }
+
+    /**
+     * parses {data}, which is in the legacy format, and replaces the data in
+     *   the packet with it, converted to the current format.
+     *
+     * @param    data   data in the legacy format to parse.
+     * @param    length   number of bytes at the beginning of {data} to parse.
+     */
+    private void fromLegacyBytes(byte[] data, int length)
+    {
+        // make sure the sections fit exactly into the data, and work out how
+        // big they are in the current format
+        int offset = 0;
+        int convertedLength = 0;
+        while(offset < length)
+        {
+            if(length-offset < LEGACY_LENGTH_SIZE)
+            {
+                throw new IllegalArgumentException("malformed packet");
+            }
+            int sectionLength = getInt(data,offset);
+            offset += LEGACY_LENGTH_SIZE;
+            if(sectionLength < 0 || sectionLength > length-offset)
+            {
+                throw new IllegalArgumentException("malformed packet");
+            }
+            offset += sectionLength;
+            convertedLength += VarInt.size(sectionLength)+sectionLength;
+        }
+
+        // copy the sections over with their lengths re-encoded
+        byte[] converted = new byte[HEADROOM+convertedLength];
+        int dst = HEADROOM;
+        offset = 0;
+        while(offset < length)
+        {
+            int sectionLength = getInt(data,offset);
+            offset += LEGACY_LENGTH_SIZE;
+            dst += VarInt.put(converted,dst,sectionLength);
+            System.arraycopy(data,offset,converted,dst,sectionLength);
+            offset += sectionLength;
+            dst += sectionLength;
+        }
+
+        buffer = new Buffer(converted,HEADROOM);
+        head = HEADROOM;
+        tail = dst;
+    }
+
+    private static int getInt(byte[] data, int offset)
+    {
+        return ((data[offset]&0xff)<<24)
+            |((data[offset+1]&0xff)<<16)
+            |((data[offset+2]&0xff)<<8)
+            |(data[offset+3]&0xff);
+    }
+
+    ////////////
+    // Buffer //
+    ////////////
+
+    /**
+     * backing array shared between a packet and the packets derived from it.
+     *
+     * bytes at or after {front} are never modified once written, so packets
+     *   may safely be read from other threads while new headers are being
+     *   pushed in front of them.
+     */
+    private static class Buffer
+    {
+        /**
+         * serialized sections of all packets that use this buffer.
+         */
+        public final byte[] data;
+
+        /**
+         * offset of the lowest byte that has been claimed by a packet; only a
+         *   packet whose head is at {front} may write in front of it.
+         */
+        public final AtomicInteger front;
+
+        public Buffer(byte[] data, int front)
+        {
+            this.data = data;
+            this.front = new AtomicInteger(front);
+        }
+    }
+
+    //////////
+    // main //
+    //////////
+
     public static void main(String[] args)
     {
-        Packet p = new Packet();
-        p.pushData(new byte[] {0,1,2,3,4,5});
-        p.pushData(new byte[] {1,1,2,3,4,5});
-        p.pushData(new byte[] {2,1,2,3,4,5});
-        p.pushData(new byte[] {3,1,2,3,4,5});
+        Packet p = new Packet()
+            .pushData(new byte[] {0,1,2,3,4,5})
+            .pushData(new byte[] {1,1,2,3,4,5})
+            .pushData(new byte[] {2,1,2,3,4,5})
+            .pushData(new byte[] {3,1,2,3,4,5});
 
         System.out.println(Arrays.toString(p.toBytes()));
 
-        System.out.println(Arrays.toString(p.fromBytes(p.toBytes()).toBytes()));
+        System.out.println(Arrays.toString(new Packet().fromBytes(p.toBytes()).toBytes()));
 
-        System.out.println(Arrays.toString(p.popData().peekData()));
-        System.out.println(Arrays.toString(p.popData().peekData()));
-        System.out.println(Arrays.toString(p.popData().peekData()));
-        System.out.println(Arrays.toString(p.popData().peekData()));
+        for(int i = 0; i < 4; ++i)
+        {
+            System.out.println(Arrays.toString(p.peekData()));
+            p = p.popData();
+        }
     }
 }
@@ -3,6 +3,14 @@ package net;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
+/**
+ * a {Client} that does its networking on a {SelectThread}.
+ *
+ * an inline client has no thread of its own. the thread that owns it does the
+ *   networking itself, by calling {poll}, and sent messages are handled on
+ *   the spot, so nothing is handed between threads. an inline client must
+ *   only be used from the thread that owns it.
+ */
 public abstract class SelectClient implements Client<SocketChannel>, SelectThread.SelectListener
 {
     /**
@@ -16,12 +24,30 @@ public abstract class SelectClient implements Client<SocketChannel>, SelectThrea
     private static final NullClientListener<SocketChannel> NULL_OBSERVER
             = new NullClientListener<>();
 
+    /**
+     * true if the {selectThread} is driven by calls to {poll}, instead of
+     *   running on its own thread.
+     */
+    private final boolean inline;
+
     /////////////////
     // constructor //
     /////////////////
 
     public SelectClient()
     {
+        this(false);
+    }
+
+    /**
+     * creates a {SelectClient} that is inline if {inline} is true.
+     *
+     * @param   inline   if true, the client does its networking on the thread
+     *   that calls {poll}, instead of on a thread of its own.
+     */
+    public SelectClient(boolean inline)
+    {
+        this.inline = inline;
         this.observer = NULL_OBSERVER;
     }
 
@@ -35,6 +61,18 @@ public abstract class SelectClient implements Client<SocketChannel>, SelectThrea
         return this;
     }
 
+    /**
+     * sets the largest frame payload, in bytes, that is accepted from a remote
+     *   host. connections that send bigger frames are closed.
+     *
+     * @param   maxFrameSize   largest frame payload to accept, in bytes.
+     */
+    public SelectClient setMaxFrameSize(int maxFrameSize)
+    {
+        getSelectThread().setMaxFrameSize(maxFrameSize);
+        return this;
+    }
+
     //////////////////////////////////////////////
     // public interface & Client implementation //
     //////////////////////////////////////////////
@@ -57,11 +95,88 @@ public abstract class SelectClient implements Client<SocketChannel>, SelectThrea
         getSelectThread().sendMessage(channel,packet);
     }
 
+    /**
+     * enables compression of frames bigger than {threshold} bytes on
+     *   connections opened after this call. the remote host must use the same
+     *   {dictionary}.
+     *
+     * @param   threshold   frames with payloads bigger than this many bytes are
+     *   compressed. negative to disable compression.
+     * @param   dictionary   preset dictionary for the compression streams. may
+     *   be null.
+     */
+    public SelectClient setCompression(int threshold, byte[] dictionary)
+    {
+        getSelectThread().setCompression(threshold,dictionary);
+        return this;
+    }
+
+    /**
+     * sets whether sent messages are written out right away, or held back
+     *   until the next call to {flush}.
+     *
+     * @param   coalesceWrites   true to hold messages back until {flush} is
+     *   called; false to write them out right away.
+     */
+    public SelectClient setCoalesceWrites(boolean coalesceWrites)
+    {
+        getSelectThread().setCoalesceWrites(coalesceWrites);
+        return this;
+    }
+
+    /**
+     * writes out all messages held back since the last flush, with the
+     *   messages to each connection written together.
+     */
+    public void flush()
+    {
+        getSelectThread().flush();
+    }
+
     public void sendMessageOnThisThread(SocketChannel channel, Packet packet)
     {
         getSelectThread().sendMessageOnThisThread(channel,packet);
     }
 
+    /**
+     * returns the number of times the networking thread was woken up to
+     *   handle sent messages.
+     */
+    public long getWakeupCount()
+    {
+        return getSelectThread().getWakeupCount();
+    }
+
+    /**
+     * returns the number of times a message was sent without waking the
+     *   networking thread up, because it was already awake.
+     */
+    public long getSavedWakeupCount()
+    {
+        return getSelectThread().getSavedWakeupCount();
+    }
+
+    /**
+     * returns true if the client is inline, and needs {poll} to be called to
+     *   do its networking.
+     */
+    public boolean isInline()
+    {
+        return inline;
+    }
+
+    /**
+     * does the network I/O that is ready on the calling thread, without
+     *   blocking. the resulting callbacks are invoked by the next call to
+     *   {handleMessages}.
+     *
+     * only for inline clients.
+     */
+    public void poll()
+    {
+        getSelectThread().poll();
+    }
+
     public void handleMessages(SelectThread.SelectListener listener)
     {
         getSelectThread().handleMessages(this);
@@ -125,8 +240,11 @@ public abstract class SelectClient implements Client<SocketChannel>, SelectThrea
     {
         if(selectThread == null)
         {
-            selectThread = new SelectThread();
-            selectThread.start();
+            selectThread = new SelectThread(null,inline);
+            if(!inline)
+            {
+                selectThread.start();
+            }
         }
         return selectThread;
     }
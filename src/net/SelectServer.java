@@ -2,7 +2,34 @@ package net;
 
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.BufferPool.PooledBuffer;
+
+/**
+ * a {Server} that does its networking on {SelectThread}s.
+ *
+ * by default, a single {SelectThread} accepts connections, and reads from and
+ *   writes to all of them. alternatively, the server can be created with a
+ *   group of I/O {SelectThread}s: the first {SelectThread} then only accepts
+ *   connections, and hands each accepted connection off to one of the I/O
+ *   {SelectThread}s, which handles it until it is closed.
+ *
+ * either way, callbacks are only invoked from {handleMessages}, which gathers
+ *   them from all the {SelectThread}s. the callbacks for each connection are
+ *   invoked in the order they happened in.
+ *
+ * an inline server has no threads of its own. the thread that owns it does
+ *   the networking itself, by calling {poll}, and sent messages are handled
+ *   on the spot, so nothing is handed between threads. an inline server must
+ *   only be used from the thread that owns it.
+ */
 public abstract class SelectServer implements Server<SocketChannel,ServerSocketChannel>, SelectThread.SelectListener
 {
     /**
@@ -11,6 +38,47 @@ public abstract class SelectServer implements Server<SocketChannel,ServerSocketC
      */
     private SelectThread selectThread;
 
+    /**
+     * the {SelectThread}s that connections accepted by {selectThread} are
+     *   handed off to. if empty, {selectThread} handles them itself.
+     */
+    private final SelectThread[] ioThreads;
+
+    /**
+     * number of open connections handled by each of the {ioThreads}.
+     */
+    private final AtomicInteger[] ioThreadLoads;
+
+    /**
+     * how accepted connections are spread across the {ioThreads}.
+     */
+    private final Balancing balancing;
+
+    /**
+     * index of the I/O {SelectThread} the next connection is handed to when
+     *   connections are handed out round-robin. only used by {selectThread}.
+     */
+    private int nextIoThread;
+
+    /**
+     * index into {ioThreads} of the {SelectThread} handling each open
+     *   connection. only used if there are {ioThreads}.
+     */
+    private final Map<SocketChannel,Integer> owners;
+
+    /**
+     * true if the {selectThread} is driven by calls to {poll}, instead of
+     *   running on its own thread.
+     */
+    private final boolean inline;
+
+    /**
+     * index of the {SelectThread} whose callbacks the next budgeted
+     *   {handleMessages} invokes first; 0 is the {selectThread}, and the rest
+     *   are the {ioThreads}.
+     */
+    private int nextToHandle;
+
     private ServerListener<SocketChannel,ServerSocketChannel> observer;
 
     private static final ServerListener<SocketChannel,ServerSocketChannel>
@@ -22,7 +90,49 @@ public abstract class SelectServer implements Server<SocketChannel,ServerSocketC
 
     public SelectServer()
     {
+        this(0,Balancing.ROUND_ROBIN);
+    }
+
+    /**
+     * creates a {SelectServer} that accepts connections on one
+     *   {SelectThread}, and hands them off to {ioThreadCount} others.
+     *
+     * @param   ioThreadCount   number of {SelectThread}s that handle the
+     *   accepted connections. if 0, the {SelectThread} that accepts the
+     *   connections handles them as well.
+     * @param   balancing   how accepted connections are spread across the I/O
+     *   {SelectThread}s.
+     */
+    public SelectServer(int ioThreadCount, Balancing balancing)
+    {
+        this(ioThreadCount,balancing,false);
+    }
+
+    /**
+     * creates a {SelectServer} that is inline if {inline} is true.
+     *
+     * @param   inline   if true, the server does its networking on the thread
+     *   that calls {poll}, instead of on a thread of its own.
+     */
+    public SelectServer(boolean inline)
+    {
+        this(0,Balancing.ROUND_ROBIN,inline);
+    }
+
+    private SelectServer(int ioThreadCount, Balancing balancing, boolean inline)
+    {
+        this.inline = inline;
         this.observer = NULL_OBSERVER;
+        this.ioThreads = new SelectThread[ioThreadCount];
+        this.ioThreadLoads = new AtomicInteger[ioThreadCount];
+        this.balancing = balancing;
+        this.nextIoThread = 0;
+        this.nextToHandle = 0;
+        this.owners = new ConcurrentHashMap<>();
+        for(int i = 0; i < ioThreadCount; ++i)
+        {
+            ioThreadLoads[i] = new AtomicInteger();
+        }
     }
 
     //////////////////////
@@ -35,6 +145,22 @@ public abstract class SelectServer implements Server<SocketChannel,ServerSocketC
         return this;
     }
 
+    /**
+     * sets the largest frame payload, in bytes, that is accepted from a remote
+     *   host. connections that send bigger frames are closed.
+     *
+     * @param   maxFrameSize   largest frame payload to accept, in bytes.
+     */
+    public SelectServer setMaxFrameSize(int maxFrameSize)
+    {
+        getSelectThread().setMaxFrameSize(maxFrameSize);
+        for(SelectThread ioThread : ioThreads)
+        {
+            ioThread.setMaxFrameSize(maxFrameSize);
+        }
+        return this;
+    }
+
     //////////////////////////////////////////////
     // public interface & Server implementation //
     //////////////////////////////////////////////
@@ -54,17 +180,300 @@ public abstract class SelectServer implements Server<SocketChannel,ServerSocketC
     @Override
     public void sendMessage(SocketChannel channel, Packet packet)
     {
-        getSelectThread().sendMessage(channel,packet);
+        SelectThread owner = getOwner(channel);
+        if(owner != null)
+        {
+            owner.sendMessage(channel,packet);
+        }
+    }
+
+    @Override
+    public void sendMessageToGroup(Collection<SocketChannel> channels, Packet packet)
+    {
+        if(ioThreads.length == 0)
+        {
+            getSelectThread().sendMessageToGroup(channels,packet);
+            return;
+        }
+        List<SocketChannel>[] recipients = sortByOwner(channels);
+        if(recipients == null)
+        {
+            return;
+        }
+
+        // frame the packet once, and give each I/O thread a reference to it
+        PooledBuffer frame = getSelectThread().frame(packet);
+        for(int i = 0; i < ioThreads.length; ++i)
+        {
+            if(recipients[i] != null)
+            {
+                ioThreads[i].sendFrameToGroup(
+                    recipients[i].toArray(new SocketChannel[recipients[i].size()]),
+                    frame.retain());
+            }
+        }
+        frame.release();
+    }
+
+    /**
+     * sends {packet} to {channel}. if the connection is over its outbound
+     *   budget, it replaces the message sent with the same {key} before it,
+     *   if that one hasn't been written yet.
+     */
+    @Override
+    public void sendUnreliableMessage(SocketChannel channel, int key, Packet packet)
+    {
+        sendUnreliableMessageToGroup(Collections.singletonList(channel),key,packet);
+    }
+
+    /**
+     * sends {packet} to all {channels}. to the connections that are over
+     *   their outbound budget, it replaces the message sent with the same
+     *   {key} before it, if that one hasn't been written yet.
+     */
+    @Override
+    public void sendUnreliableMessageToGroup(Collection<SocketChannel> channels, int key, Packet packet)
+    {
+        if(ioThreads.length == 0)
+        {
+            getSelectThread().sendConflatableMessageToGroup(channels,key,packet);
+            return;
+        }
+        List<SocketChannel>[] recipients = sortByOwner(channels);
+        if(recipients == null)
+        {
+            return;
+        }
+
+        // frame the packet once, and give each I/O thread a reference to it
+        PooledBuffer frame = getSelectThread().frame(packet);
+        for(int i = 0; i < ioThreads.length; ++i)
+        {
+            if(recipients[i] != null)
+            {
+                ioThreads[i].sendConflatableFrameToGroup(
+                    recipients[i].toArray(new SocketChannel[recipients[i].size()]),
+                    key,frame.retain());
+            }
+        }
+        frame.release();
+    }
+
+    /**
+     * enables compression of frames bigger than {threshold} bytes on
+     *   connections opened after this call. the remote host must use the same
+     *   {dictionary}.
+     *
+     * @param   threshold   frames with payloads bigger than this many bytes are
+     *   compressed. negative to disable compression.
+     * @param   dictionary   preset dictionary for the compression streams. may
+     *   be null.
+     */
+    public SelectServer setCompression(int threshold, byte[] dictionary)
+    {
+        getSelectThread().setCompression(threshold,dictionary);
+        for(SelectThread ioThread : ioThreads)
+        {
+            ioThread.setCompression(threshold,dictionary);
+        }
+        return this;
+    }
+
+    /**
+     * limits how many bytes may be queued for each connection opened after
+     *   this call. once a connection is over its budget, messages sent to it
+     *   by {sendUnreliableMessageToGroup} replace the unwritten ones sent with
+     *   the same key. connections that stay over budget for longer than
+     *   {maxBehindMillis} are closed.
+     *
+     * @param   budget   number of bytes that may be queued for a connection
+     *   before it is over budget. negative for unbounded queues.
+     * @param   maxBehindMillis   milliseconds that a connection may stay over
+     *   budget before it is closed.
+     */
+    public SelectServer setOutboundBudget(int budget, long maxBehindMillis)
+    {
+        getSelectThread().setOutboundBudget(budget,maxBehindMillis);
+        for(SelectThread ioThread : ioThreads)
+        {
+            ioThread.setOutboundBudget(budget,maxBehindMillis);
+        }
+        return this;
+    }
+
+    /**
+     * sets whether sent messages are written out right away, or held back
+     *   until the next call to {flush}.
+     *
+     * @param   coalesceWrites   true to hold messages back until {flush} is
+     *   called; false to write them out right away.
+     */
+    public SelectServer setCoalesceWrites(boolean coalesceWrites)
+    {
+        getSelectThread().setCoalesceWrites(coalesceWrites);
+        for(SelectThread ioThread : ioThreads)
+        {
+            ioThread.setCoalesceWrites(coalesceWrites);
+        }
+        return this;
+    }
+
+    /**
+     * writes out all messages held back since the last flush, with the
+     *   messages to each connection written together.
+     */
+    public void flush()
+    {
+        getSelectThread().flush();
+        for(SelectThread ioThread : ioThreads)
+        {
+            ioThread.flush();
+        }
     }
 
     public void sendMessageOnThisThread(SocketChannel channel, Packet packet)
     {
-        getSelectThread().sendMessageOnThisThread(channel,packet);
+        SelectThread owner = getOwner(channel);
+        if(owner != null)
+        {
+            owner.sendMessageOnThisThread(channel,packet);
+        }
+    }
+
+    /**
+     * returns the number of times the networking threads were woken up to
+     *   handle sent messages.
+     */
+    public long getWakeupCount()
+    {
+        long count = getSelectThread().getWakeupCount();
+        for(SelectThread ioThread : ioThreads)
+        {
+            count += ioThread.getWakeupCount();
+        }
+        return count;
+    }
+
+    /**
+     * returns the number of times a message was sent without waking a
+     *   networking thread up, because it was already awake.
+     */
+    public long getSavedWakeupCount()
+    {
+        long count = getSelectThread().getSavedWakeupCount();
+        for(SelectThread ioThread : ioThreads)
+        {
+            count += ioThread.getSavedWakeupCount();
+        }
+        return count;
+    }
+
+    /**
+     * returns the number of queued messages that were replaced by newer ones,
+     *   because their connection was over its outbound budget.
+     */
+    public long getConflationCount()
+    {
+        long count = getSelectThread().getConflationCount();
+        for(SelectThread ioThread : ioThreads)
+        {
+            count += ioThread.getConflationCount();
+        }
+        return count;
+    }
+
+    /**
+     * returns the number of times a connection went over its outbound budget.
+     */
+    public long getOverBudgetCount()
+    {
+        long count = getSelectThread().getOverBudgetCount();
+        for(SelectThread ioThread : ioThreads)
+        {
+            count += ioThread.getOverBudgetCount();
+        }
+        return count;
+    }
+
+    /**
+     * returns the number of connections that were closed, because they
+     *   stayed over their outbound budget for too long.
+     */
+    public long getSlowConsumerDisconnectCount()
+    {
+        long count = getSelectThread().getSlowConsumerDisconnectCount();
+        for(SelectThread ioThread : ioThreads)
+        {
+            count += ioThread.getSlowConsumerDisconnectCount();
+        }
+        return count;
+    }
+
+    /**
+     * returns true if the server is inline, and needs {poll} to be called to
+     *   do its networking.
+     */
+    public boolean isInline()
+    {
+        return inline;
+    }
+
+    /**
+     * does the network I/O that is ready on the calling thread, without
+     *   blocking. the resulting callbacks are invoked by the next call to
+     *   {handleMessages}.
+     *
+     * only for inline servers.
+     */
+    public void poll()
+    {
+        getSelectThread().poll();
     }
 
     public void handleMessages(SelectThread.SelectListener listener)
     {
         getSelectThread().handleMessages(this);
+        for(SelectThread ioThread : ioThreads)
+        {
+            ioThread.handleMessages(this);
+        }
+    }
+
+    /**
+     * invokes the callbacks for what happened since the last call, like
+     *   {handleMessages} does, but stops once {maxMessages} callbacks have
+     *   been invoked, or {budgetNanos} nanoseconds have passed. the rest are
+     *   left for the next call.
+     *
+     * connections take turns having their callbacks invoked, and the
+     *   networking thread whose connections go first changes every call, so
+     *   that a flood of messages from a few connections delays the others as
+     *   little as possible.
+     *
+     * @param   maxMessages   maximum number of callbacks to invoke.
+     * @param   budgetNanos   nanoseconds after which no more callbacks are
+     *   invoked.
+     *
+     * @return   the number of callbacks that were invoked.
+     */
+    public int handleMessages(SelectThread.SelectListener listener, int maxMessages, long budgetNanos)
+    {
+        long start = System.nanoTime();
+        int threadCount = ioThreads.length+1;
+        int handled = 0;
+        for(int i = 0; i < threadCount && handled < maxMessages; ++i)
+        {
+            long elapsed = System.nanoTime()-start;
+            if(elapsed >= budgetNanos)
+            {
+                break;
+            }
+            int index = (nextToHandle+i)%threadCount;
+            SelectThread thread = (index == 0) ? getSelectThread() : ioThreads[index-1];
+            handled += thread.handleMessages(this,maxMessages-handled,budgetNanos-elapsed);
+        }
+        nextToHandle = (nextToHandle+1)%threadCount;
+        return handled;
     }
 
     /////////////////////////////////
@@ -100,6 +509,11 @@ public abstract class SelectServer implements Server<SocketChannel,ServerSocketC
     @Override
     public final void onClose(SocketChannel channel, boolean remote)
     {
+        Integer owner = owners.remove(channel);
+        if(owner != null)
+        {
+            ioThreadLoads[owner].decrementAndGet();
+        }
         observer.onClose(channel,remote);
     }
 
@@ -125,9 +539,122 @@ public abstract class SelectServer implements Server<SocketChannel,ServerSocketC
     {
         if(selectThread == null)
         {
-            selectThread = new SelectThread();
-            selectThread.start();
+            for(int i = 0; i < ioThreads.length; ++i)
+            {
+                ioThreads[i] = new SelectThread();
+                ioThreads[i].start();
+            }
+            selectThread = new SelectThread(null,inline);
+            if(ioThreads.length > 0)
+            {
+                selectThread.setDistributor(this::distribute);
+            }
+            if(!inline)
+            {
+                selectThread.start();
+            }
         }
         return selectThread;
     }
+
+    /**
+     * returns the {SelectThread} that handles {channel}, or null if it is not
+     *   an open connection of this server.
+     */
+    private SelectThread getOwner(SocketChannel channel)
+    {
+        if(ioThreads.length == 0)
+        {
+            return getSelectThread();
+        }
+        Integer owner = owners.get(channel);
+        return (owner != null) ? ioThreads[owner] : null;
+    }
+
+    /**
+     * sorts {channels} by the index of the I/O {SelectThread} that handles
+     *   them. channels that aren't open connections of this server are left
+     *   out.
+     *
+     * @return   the channels handled by each I/O {SelectThread}, or null if
+     *   {channels} is empty. elements are null for I/O {SelectThread}s that
+     *   handle none of them.
+     */
+    private List<SocketChannel>[] sortByOwner(Collection<SocketChannel> channels)
+    {
+        if(channels.isEmpty())
+        {
+            return null;
+        }
+
+        @SuppressWarnings({"unchecked","rawtypes"})
+        List<SocketChannel>[] recipients = new List[ioThreads.length];
+        for(SocketChannel channel : channels)
+        {
+            Integer owner = owners.get(channel);
+            if(owner != null)
+            {
+                if(recipients[owner] == null)
+                {
+                    recipients[owner] = new ArrayList<>();
+                }
+                recipients[owner].add(channel);
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * chooses the I/O {SelectThread} that handles {channel}, which was just
+     *   accepted. invoked on the {selectThread}.
+     */
+    private SelectThread distribute(SocketChannel channel)
+    {
+        int chosen;
+        switch(balancing)
+        {
+        case ROUND_ROBIN:
+            chosen = nextIoThread;
+            nextIoThread = (nextIoThread+1)%ioThreads.length;
+            break;
+        case LEAST_CONNECTIONS:
+            chosen = 0;
+            for(int i = 1; i < ioThreads.length; ++i)
+            {
+                if(ioThreadLoads[i].get() < ioThreadLoads[chosen].get())
+                {
+                    chosen = i;
+                }
+            }
+            break;
+        default:
+            throw new RuntimeException("default case hit");
+        }
+
+        // remember the owner before it can report anything about the channel
+        ioThreadLoads[chosen].incrementAndGet();
+        owners.put(channel,chosen);
+        return ioThreads[chosen];
+    }
+
+    ///////////////
+    // Balancing //
+    ///////////////
+
+    /**
+     * ways of spreading accepted connections across I/O {SelectThread}s.
+     */
+    public enum Balancing
+    {
+        /**
+         * each connection goes to the next I/O {SelectThread} in turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * each connection goes to the I/O {SelectThread} with the fewest open
+         *   connections.
+         */
+        LEAST_CONNECTIONS
+    }
 }
@@ -2,6 +2,7 @@ package net;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
@@ -9,10 +10,18 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+import net.BufferPool.PooledBuffer;
 import net.SelectThread.Message.Type;
 
 /**
@@ -40,22 +49,186 @@ import net.SelectThread.Message.Type;
  */
 class SelectThread extends Thread
 {
+    /**
+     * default value of {maxFrameSize}.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024*1024;
+
+    /**
+     * number of messages the {inMsgq} and the {outMsgq} can each hold.
+     */
+    public static final int MESSAGE_QUEUE_CAPACITY = 4096;
+
+    /**
+     * default value of {outboundBudget}.
+     */
+    public static final int DEFAULT_OUTBOUND_BUDGET = 1024*1024;
+
+    /**
+     * default value of {maxBehindMillis}.
+     */
+    public static final long DEFAULT_MAX_BEHIND_MILLIS = 5*1000;
+
+    /**
+     * how long the {SelectThread} selects for at most while callback tokens
+     *   are waiting in the {outOverflow}, in milliseconds.
+     */
+    private static final long OVERFLOW_RETRY_MILLIS = 1;
+
+    /**
+     * number of callback tokens of one channel that a budgeted
+     *   {handleMessages} takes out of the {outMsgq} ahead of dispatching
+     *   them. once a channel has this many waiting, no more tokens are taken
+     *   out until it has fewer, so the {outMsgq} fills up, and the
+     *   {SelectThread} stops reading.
+     */
+    public static final int MAX_BACKLOG = 256;
+
+    /**
+     * how often the {SelectThread} checks whether connections that it
+     *   doesn't write to have fallen behind, in milliseconds.
+     */
+    private static final long BEHIND_CHECK_MILLIS = 1000;
+
     /**
      * selector object used to select from all the channels.
      */
     private  Selector selector;
 
     /**
-     * blocking queue of messages sent from external objects to the
+     * queue of messages sent from external objects to the {SelectThread}.
+     *
+     * when it is full, threads sending messages wait for the {SelectThread} to
+     *   make room. the {SelectThread} never waits on other threads, so the wait
+     *   is short.
+     */
+    private MessageRing inMsgq;
+
+    /**
+     * messages the {SelectThread} sent to itself while the {inMsgq} was full.
+     *   they are handled after the ones in the {inMsgq}. only used on the
      *   {SelectThread}.
      */
-    private Queue<Message> inMsgq;
+    private final Queue<Message> selfOverflow;
 
     /**
-     * blocking queue of messages used to accumulate callback tokens that can be
+     * queue of messages used to accumulate callback tokens that can be
      *   consumed using the {handleMessages} method.
+     *
+     * when it is full, the {SelectThread} keeps going, and holds the callback
+     *   tokens it produces in the {outOverflow} until there is room again.
+     */
+    private MessageRing outMsgq;
+
+    /**
+     * callback tokens waiting for room in the {outMsgq}, oldest first. only
+     *   used on the {SelectThread}; other threads never enqueue callback
+     *   tokens, see {closeChannel}.
+     */
+    private final Queue<Message> outOverflow;
+
+    /**
+     * channels that aren't read from while there are callback tokens in the
+     *   {outOverflow}, so the {outOverflow} only grows by what was read
+     *   already. only used on the {SelectThread}.
+     */
+    private final Set<SocketChannel> pausedChannels;
+
+    /**
+     * true if the {SelectThread} is never started, and is instead driven by
+     *   calls to {poll} on the thread that owns it. messages sent to an
+     *   inline {SelectThread} are handled right away, on the calling thread.
+     */
+    private final boolean inline;
+
+    /**
+     * true while the {SelectThread} is known to be awake, or about to be, so
+     *   that messages added to the {inMsgq} will be handled without waking the
+     *   selector up again. cleared by the {SelectThread} just before it
+     *   checks the {inMsgq} one last time and parks in select.
+     */
+    private final AtomicBoolean wakeupPending;
+
+    /**
+     * number of times the selector was woken up by {wakeup}.
+     */
+    private final LongAdder wakeups;
+
+    /**
+     * number of times {wakeup} didn't need to wake the selector up, because
+     *   it was already awake, or about to be.
+     */
+    private final LongAdder savedWakeups;
+
+    /**
+     * number of queued frames that were replaced by newer ones, because their
+     *   connection was over its outbound budget.
+     */
+    private final LongAdder conflations;
+
+    /**
+     * number of times a connection went over its outbound budget.
+     */
+    private final LongAdder overBudgets;
+
+    /**
+     * number of connections that were closed because they stayed over their
+     *   outbound budget for too long, or went too far over it.
+     */
+    private final LongAdder slowConsumerDisconnects;
+
+    /**
+     * the rest of the counters of the {SelectThread}, and of its connections,
+     *   exposed through JMX while the selector is open.
+     */
+    private final SelectThreadMetrics metrics;
+
+    /**
+     * callback tokens taken out of the {outMsgq} by a budgeted
+     *   {handleMessages} that it didn't get to, by the channel they are for.
+     *   only used by the thread that calls {handleMessages}.
+     */
+    private final Map<Object,Queue<Message>> backlogs;
+
+    /**
+     * the non-empty {backlogs}, in the order they get to handle their next
+     *   callback token in. only used by the thread that calls
+     *   {handleMessages}.
+     */
+    private final Queue<Queue<Message>> backlogRotation;
+
+    /**
+     * callback token taken out of the {outMsgq} whose channel's backlog was
+     *   full; it goes into the backlog before any other token is taken out.
+     *   null if there is none. only used by the thread that calls
+     *   {handleMessages}.
+     */
+    private Message heldMsg;
+
+    /**
+     * {Message}s that were dispatched from the {backlogs}, to be reused for
+     *   the next tokens taken out of the {outMsgq}. only used by the thread
+     *   that calls {handleMessages}.
+     */
+    private final Queue<Message> spareMsgs;
+
+    /**
+     * message that messages removed from the {outMsgq} are copied into by
+     *   {handleMessages}. only used by the thread that calls
+     *   {handleMessages}.
+     */
+    private final Message outMsg;
+
+    /**
+     * message that messages removed from the {inMsgq} are copied into. only
+     *   used on the {SelectThread}.
+     */
+    private final Message inMsg;
+
+    /**
+     * serializes calls to {sendMessageOnThisThread}.
      */
-    private Queue<Message> outMsgq;
+    private final Object directSendLock;
 
     /**
      * if not null, when callback tokens are enqueued into the {outMsgq}, they
@@ -66,6 +239,72 @@ class SelectThread extends Thread
      */
     private SelectListener listener;
 
+    /**
+     * pool of direct buffers used to frame outgoing packets, and to hold the
+     *   payloads of incoming packets until they are consumed by
+     *   {handleMessages}.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * largest frame payload, in bytes, that the {SelectThread} accepts from a
+     *   remote host. connections that send bigger frames are closed.
+     */
+    private volatile int maxFrameSize;
+
+    /**
+     * if true, frames queued by {sendMessage} and {sendMessageToGroup} are
+     *   only written out once {flush} is called, so everything sent to a
+     *   channel between two flushes goes out in as few writes as possible.
+     *
+     * if false, they are written out as soon as the {SelectThread} gets them.
+     */
+    private volatile boolean coalesceWrites;
+
+    /**
+     * frames with payloads bigger than this many bytes are compressed, on
+     *   connections registered after it is set. negative if compression is
+     *   disabled.
+     */
+    private volatile int compressionThreshold;
+
+    /**
+     * preset dictionary used by the compression streams of connections
+     *   registered after it is set. may be null.
+     */
+    private volatile byte[] compressionDictionary;
+
+    /**
+     * number of bytes that may be queued for each connection registered after
+     *   it is set, before the connection is over budget. negative if queues
+     *   are unbounded.
+     */
+    private volatile int outboundBudget;
+
+    /**
+     * milliseconds that connections registered after it is set may stay over
+     *   their outbound budget before they are closed.
+     */
+    private volatile long maxBehindMillis;
+
+    /**
+     * channels that have frames queued that are waiting for the next {flush}.
+     *   only used on the {SelectThread}.
+     */
+    private final Set<SocketChannel> unflushedChannels;
+
+    /**
+     * if not null, chooses the {SelectThread} that each channel accepted by
+     *   this {SelectThread} is handed off to.
+     */
+    private volatile Distributor distributor;
+
+    /**
+     * {System.nanoTime} at which the connections are next checked by
+     *   {closeBehindChannels}. only used on the {SelectThread}.
+     */
+    private long nextBehindCheck;
+
     //////////////////
     // constructors //
     //////////////////
@@ -82,18 +321,64 @@ class SelectThread extends Thread
      *   invoked, and to consume these callback tokens.
      */
     public SelectThread(SelectListener listener)
+    {
+        this(listener,false);
+    }
+
+    /**
+     * creates the {SelectListener}, and immediately sets its listener object
+     *   that will have its callbacks invoked as the {SelectThread} intercepts
+     *   network activity.
+     *
+     * @param   listener   the {SelectThread} listener object to call callbacks
+     *   of immediately. if null, then the {SelectThread} will accumulate
+     *   callback tokens into an internal message queue.
+     * @param   inline   if true, the {SelectThread} must not be started.
+     *   instead, the thread that owns it does its work by calling {poll}, and
+     *   is the only thread that may use it.
+     */
+    public SelectThread(SelectListener listener, boolean inline)
     {
         try
         {
             // initialize instance variables
+            this.inline = inline;
             this.selector = Selector.open();
-            this.inMsgq = new LinkedBlockingQueue<>();
-            this.outMsgq = new LinkedBlockingQueue<>();
+            this.inMsgq = new MessageRing(MESSAGE_QUEUE_CAPACITY);
+            this.selfOverflow = new ArrayDeque<>();
+            this.outMsgq = new MessageRing(MESSAGE_QUEUE_CAPACITY);
+            this.outOverflow = new ArrayDeque<>();
+            this.pausedChannels = new LinkedHashSet<>();
+            this.inMsg = new Message(null,null,null);
+            this.backlogs = new HashMap<>();
+            this.backlogRotation = new ArrayDeque<>();
+            this.heldMsg = null;
+            this.spareMsgs = new ArrayDeque<>();
+            this.outMsg = new Message(null,null,null);
+            this.wakeupPending = new AtomicBoolean(true);
+            this.wakeups = new LongAdder();
+            this.savedWakeups = new LongAdder();
+            this.conflations = new LongAdder();
+            this.overBudgets = new LongAdder();
+            this.slowConsumerDisconnects = new LongAdder();
+            this.metrics = new SelectThreadMetrics(this);
+            this.directSendLock = new Object();
+            this.bufferPool = new BufferPool();
+            this.maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+            this.coalesceWrites = false;
+            this.compressionThreshold = -1;
+            this.compressionDictionary = null;
+            this.outboundBudget = DEFAULT_OUTBOUND_BUDGET;
+            this.maxBehindMillis = DEFAULT_MAX_BEHIND_MILLIS;
+            this.unflushedChannels = new LinkedHashSet<>();
+            this.distributor = null;
+            this.nextBehindCheck = System.nanoTime();
             setListener(listener);
 
             // set thread to daemon mode, because the program should be able to
             // end while SelectThreads are running.
             setDaemon(true);
+            metrics.register();
         }
         catch (IOException e)
         {
@@ -126,342 +411,1201 @@ class SelectThread extends Thread
      */
     protected SelectThread setListener(SelectListener listener)
     {
-        this.listener = listener;
-        return this;
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * removes the listener from the {SelectThread}, so that its callbacks are
+     *   no longer invoked.
+     */
+    protected SelectThread unsetListener()
+    {
+        setListener(null);
+        return this;
+    }
+
+    /**
+     * sets the largest frame payload, in bytes, that the {SelectThread}
+     *   accepts from a remote host. connections that send a frame with a
+     *   bigger length prefix are closed.
+     *
+     * @param   maxFrameSize   largest frame payload to accept, in bytes.
+     */
+    protected SelectThread setMaxFrameSize(int maxFrameSize)
+    {
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    /**
+     * sets whether messages sent through the {SelectThread} are written out
+     *   right away, or held back until the next call to {flush}.
+     *
+     * @param   coalesceWrites   true to hold messages back until {flush} is
+     *   called; false to write them out right away.
+     */
+    protected SelectThread setCoalesceWrites(boolean coalesceWrites)
+    {
+        this.coalesceWrites = coalesceWrites;
+        if(!coalesceWrites)
+        {
+            flush();
+        }
+        return this;
+    }
+
+    /**
+     * enables compression of big frames on connections registered after this
+     *   call. each connection compresses its frames as one deflate stream.
+     *
+     * compressed frames are always decompressed when they are received, but
+     *   the remote host must use the same {dictionary} as this one.
+     *
+     * @param   threshold   frames with payloads bigger than this many bytes are
+     *   compressed. negative to disable compression.
+     * @param   dictionary   preset dictionary for the compression streams. may
+     *   be null.
+     */
+    protected SelectThread setCompression(int threshold, byte[] dictionary)
+    {
+        this.compressionDictionary = dictionary;
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * limits how many bytes may be queued for each connection registered
+     *   after this call, so that a remote host that doesn't keep up can't make
+     *   the queue grow without bound.
+     *
+     * once a connection is over its budget, conflatable frames sent to it
+     *   drop the unwritten ones queued with the same key, and are queued
+     *   after everything else as usual. if it stays over budget for longer
+     *   than {maxBehindMillis}, or gets several times over budget, it is
+     *   closed. this is checked whenever the connection is sent or written
+     *   to, and every {BEHIND_CHECK_MILLIS} otherwise.
+     *
+     * @param   budget   number of bytes that may be queued for a connection
+     *   before it is over budget. negative for unbounded queues.
+     * @param   maxBehindMillis   milliseconds that a connection may stay over
+     *   budget before it is closed.
+     */
+    protected SelectThread setOutboundBudget(int budget, long maxBehindMillis)
+    {
+        this.outboundBudget = budget;
+        this.maxBehindMillis = maxBehindMillis;
+        return this;
+    }
+
+    /**
+     * sets the {Distributor} that chooses which {SelectThread} handles the
+     *   channels accepted by this one from now on.
+     *
+     * @param   distributor   chooses the {SelectThread} to hand accepted
+     *   channels off to. if null, accepted channels are handled by this
+     *   {SelectThread}.
+     */
+    protected SelectThread setDistributor(Distributor distributor)
+    {
+        this.distributor = distributor;
+        return this;
+    }
+
+    /**
+     * dequeues all callback tokens from the {selectThread}'s internal outbound
+     *   message queue, parses them, and invokes the callback methods of
+     *   {listener} on the calling thread.
+     *
+     * must not be invoked by more than one thread at a time. no locks are held
+     *   while the callbacks run.
+     *
+     * @param   listener   listener used to handle the messages from the
+     *   {SelecThread}.
+     */
+    protected void handleMessages(SelectListener listener)
+    {
+        // callback tokens held back by a budgeted call come first
+        if(!backlogRotation.isEmpty() || heldMsg != null)
+        {
+            handleMessages(listener,Integer.MAX_VALUE,Long.MAX_VALUE);
+        }
+
+        while(outMsgq.poll(outMsg))
+        {
+            dispatch(outMsg,listener);
+        }
+        outMsg.set(null,null,null);
+    }
+
+    /**
+     * like {handleMessages}, but stops once {maxMessages} callbacks have been
+     *   invoked, or {budgetNanos} nanoseconds have passed, and leaves the
+     *   remaining callback tokens for the next call.
+     *
+     * the callback tokens are taken in turns from each channel that has some
+     *   waiting, so a channel with many of them can't hold back the others.
+     *   the callbacks of each channel are still invoked in the order they
+     *   happened in. at least one callback is invoked if any are waiting.
+     *
+     * to find the other channels' tokens, up to {MAX_BACKLOG} tokens of each
+     *   channel are taken out of the {outMsgq} ahead of being dispatched. a
+     *   channel that has more than that waiting stops any more from being
+     *   taken out, so the tokens that aren't dispatched in time fill the
+     *   {outMsgq} up, and the {SelectThread} stops reading until there is
+     *   room again.
+     *
+     * @param   listener   listener used to handle the messages from the
+     *   {SelecThread}.
+     * @param   maxMessages   maximum number of callbacks to invoke.
+     * @param   budgetNanos   nanoseconds after which no more callbacks are
+     *   invoked.
+     *
+     * @return   the number of callbacks that were invoked.
+     */
+    protected int handleMessages(SelectListener listener, int maxMessages, long budgetNanos)
+    {
+        long start = System.nanoTime();
+
+        // sort the callback tokens by channel, so that the turns include the
+        // channels whose tokens are behind a flood of others
+        takeBacklogs();
+
+        // take turns invoking one callback of each channel, taking more
+        // tokens out as the flooded channels' backlogs get room again
+        int handled = 0;
+        while(handled < maxMessages && !backlogRotation.isEmpty()
+            && (handled == 0 || System.nanoTime()-start < budgetNanos))
+        {
+            Queue<Message> backlog = backlogRotation.poll();
+            Message next = backlog.poll();
+            ++handled;
+            if(backlog.isEmpty())
+            {
+                backlogs.remove(next.obj1);
+            }
+            else
+            {
+                backlogRotation.add(backlog);
+            }
+            dispatch(next,listener);
+            next.set(null,null,null);
+            spareMsgs.add(next);
+            takeBacklogs();
+        }
+        return handled;
+    }
+
+    /**
+     * returns the number of times the selector was woken up to handle
+     *   messages sent to the {SelectThread}.
+     *
+     * @return   the number of times the selector was woken up.
+     */
+    protected long getWakeupCount()
+    {
+        return wakeups.sum();
+    }
+
+    /**
+     * returns the number of times a message was sent to the {SelectThread}
+     *   without waking its selector up, because it was already awake, or
+     *   about to be.
+     *
+     * @return   the number of selector wakeups that were saved.
+     */
+    protected long getSavedWakeupCount()
+    {
+        return savedWakeups.sum();
+    }
+
+    /**
+     * returns the number of queued frames that were replaced by newer ones
+     *   with the same key, because their connection was over budget.
+     *
+     * @return   the number of conflated frames.
+     */
+    protected long getConflationCount()
+    {
+        return conflations.sum();
+    }
+
+    /**
+     * returns the number of times a connection went over its outbound budget.
+     *
+     * @return   the number of times a connection went over budget.
+     */
+    protected long getOverBudgetCount()
+    {
+        return overBudgets.sum();
+    }
+
+    /**
+     * returns the number of connections that were closed, because they
+     *   stayed over their outbound budget for too long.
+     *
+     * @return   the number of slow consumers that were disconnected.
+     */
+    protected long getSlowConsumerDisconnectCount()
+    {
+        return slowConsumerDisconnects.sum();
+    }
+
+    /**
+     * returns the number of messages waiting to be handled by the
+     *   {SelectThread}, not counting the ones it sent to itself.
+     *
+     * @return   the number of messages in the {inMsgq}.
+     */
+    protected int getInboundQueueDepth()
+    {
+        return inMsgq.size();
+    }
+
+    /**
+     * returns the number of callback tokens waiting to be consumed by
+     *   {handleMessages}, not counting the ones waiting for room in the
+     *   {outMsgq}.
+     *
+     * @return   the number of callback tokens in the {outMsgq}.
+     */
+    protected int getOutboundQueueDepth()
+    {
+        return outMsgq.size();
+    }
+
+    /**
+     * returns the counters of the {SelectThread}, and of its connections.
+     *
+     * @return   the counters of the {SelectThread}.
+     */
+    protected SelectThreadMXBean getMetrics()
+    {
+        return metrics;
+    }
+
+    // methods below enqueue messages into the inMsgq
+
+    /**
+     * creates a new {SocketChannel} that is trying to connect to the remote
+     *   host at {remoteName}:{remotePort}.
+     *
+     * the new {SocketChannel} is also added to the {SelectThread} to be
+     *   monitored for any packets, or if it is closed by the remote or local
+     *   hosts.
+     *
+     * @param   remoteName   IP address in dotted decimal format, or name of the
+     *   remote host to connect to.
+     * @param   remotePort   port number of the remote host to connect to.
+     *
+     * @return   [description]
+     */
+    protected SocketChannel connect(String remoteName, int remotePort)
+    {
+        try
+        {
+            SocketChannel channel = SocketChannel.open();
+            InetSocketAddress addr = new InetSocketAddress(remoteName,remotePort);
+            post(Type.CONNECT,channel,addr,true);
+            return channel;
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * closes the {channel}, and removes it from the {SelectThread} so that it
+     *   will no longer receive any messages.
+     *
+     * @param   channel   channel to close.
+     */
+    protected void disconnect(SocketChannel channel)
+    {
+        post(Type.DISCONNECT,channel,null,true);
+    }
+
+    /**
+     * opens a new {ServerSocketChannel}, that is listening on port
+     *   {serverPort}.
+     *
+     * the new {ServerSocketChannel} is also added to the
+     *   {SelectThread} to be monitored for any new connection requests.
+     *
+     * @param   serverPort   port to make the returned {ServerSocketChannel}
+     *   listen for new connections from.
+     *
+     * @return   the new {ServerSocketChannel} created to listen to
+     *   {serverPort}.
+     */
+    protected ServerSocketChannel startListening(int serverPort)
+    {
+        try
+        {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            InetSocketAddress addr = new InetSocketAddress(serverPort);
+            post(Type.START_LISTEN,channel,addr,true);
+            return channel;
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * closes the listening {ServerSocketChannel}, and removes it from the
+     *   {SelectThread} so that it will no longer accept any new connection
+     *   requests.
+     *
+     * @param   channel   {ServerSocketChannel} to close.
+     */
+    protected void stopListening(ServerSocketChannel channel)
+    {
+        post(Type.STOP_LISTEN,channel,null,true);
+    }
+
+    /**
+     * sends {packet} through {channel} asynchronously on the {SelectThread}.
+     *
+     * @param   channel   channel to send the message to.
+     * @param   packet   packet to send through the channel.
+     */
+    protected void sendMessage(SocketChannel channel, Packet packet)
+    {
+        post(Type.SEND_MESSAGE,channel,packet,!coalesceWrites);
+    }
+
+    /**
+     * sends {packet} through all {channels} asynchronously on the
+     *   {SelectThread}.
+     *
+     * the packet is framed once on the calling thread into a shared buffer;
+     *   each channel is then written from its own read-only view of it.
+     *
+     * @param   channels   channels to send the message to.
+     * @param   packet   packet to send through the channels.
+     */
+    protected void sendMessageToGroup(Collection<SocketChannel> channels, Packet packet)
+    {
+        if(channels.isEmpty())
+        {
+            return;
+        }
+
+        // copy the channels, because the caller may modify the collection
+        // before the SelectThread gets to the message
+        SocketChannel[] recipients = channels.toArray(new SocketChannel[channels.size()]);
+        sendFrameToGroup(recipients,frame(packet));
+    }
+
+    /**
+     * sends {packet} through all {channels} asynchronously on the
+     *   {SelectThread}, like {sendMessageToGroup} does, except that to the
+     *   channels that are over their outbound budget, it replaces the message
+     *   queued with the same {key} before it, if it hasn't been written yet.
+     *
+     * @param   channels   channels to send the message to.
+     * @param   key   identifies the messages that {packet} supersedes.
+     * @param   packet   packet to send through the channels.
+     */
+    protected void sendConflatableMessageToGroup(Collection<SocketChannel> channels, int key, Packet packet)
+    {
+        if(channels.isEmpty())
+        {
+            return;
+        }
+
+        // copy the channels, because the caller may modify the collection
+        // before the SelectThread gets to the message
+        SocketChannel[] recipients = channels.toArray(new SocketChannel[channels.size()]);
+        sendConflatableFrameToGroup(recipients,key,frame(packet));
+    }
+
+    /**
+     * serializes {packet} into a pooled buffer, preceded by its length,
+     *   encoded as a {VarInt}.
+     *
+     * @param   packet   packet to frame.
+     *
+     * @return   a pooled buffer, ready to be written, holding the framed
+     *   packet.
+     */
+    protected PooledBuffer frame(Packet packet)
+    {
+        int length = packet.length();
+        PooledBuffer frame = bufferPool.acquire(VarInt.size(length)+length);
+        VarInt.put(frame.buffer,length);
+        packet.writeTo(frame.buffer);
+        frame.buffer.flip();
+        return frame;
+    }
+
+    /**
+     * sends {frame}, which was created by the {frame} method of this or
+     *   another {SelectThread}, through all {channels} asynchronously on the
+     *   {SelectThread}.
+     *
+     * @param   channels   channels to send the frame to. they must not be
+     *   modified afterwards.
+     * @param   frame   reference to the framed packet. it is released once it
+     *   has been written to all the channels.
+     */
+    protected void sendFrameToGroup(SocketChannel[] channels, PooledBuffer frame)
+    {
+        post(Type.SEND_GROUP_MESSAGE,channels,frame,!coalesceWrites);
+    }
+
+    /**
+     * sends {frame} through all {channels} like {sendFrameToGroup} does,
+     *   conflating it with the frames queued with the same {key} before it.
+     *
+     * @param   channels   channels to send the frame to. they must not be
+     *   modified afterwards.
+     * @param   key   identifies the frames that {frame} supersedes.
+     * @param   frame   reference to the framed packet. it is released once it
+     *   has been written to all the channels, or replaced.
+     */
+    protected void sendConflatableFrameToGroup(SocketChannel[] channels, int key, PooledBuffer frame)
+    {
+        post(Type.SEND_CONFLATABLE_GROUP_MESSAGE,channels,
+            new ConflatableFrame(frame,key),!coalesceWrites);
+    }
+
+    /**
+     * hands {channel}, which was accepted by another {SelectThread}, over to
+     *   this one. the ON_ACCEPT callback token for it is enqueued by this
+     *   {SelectThread}, so it comes before any other callback tokens for it.
+     *
+     * @param   channel   newly accepted channel to monitor.
+     */
+    protected void adopt(SocketChannel channel)
+    {
+        post(Type.ADOPT,channel,null,true);
+    }
+
+    /**
+     * writes out all messages that were held back since the last flush,
+     *   asynchronously on the {SelectThread}. each channel's messages are
+     *   written together, in as few writes as possible.
+     *
+     * only has an effect when the {SelectThread} is set to coalesce writes.
+     */
+    protected void flush()
+    {
+        post(Type.FLUSH,null,null,true);
+    }
+
+    /**
+     * sends {packet} through {channel} on the calling thread.
+     *
+     * if the channel can't take the whole packet without blocking, the rest is
+     *   written asynchronously on the {SelectThread}.
+     *
+     * @param   channel   channel to send the message to.
+     * @param   packet   packet to send through the channel.
+     */
+    protected void sendMessageOnThisThread(SocketChannel channel, Packet packet)
+    {
+        synchronized(directSendLock)
+        {
+            PooledBuffer frame = frame(packet);
+            Connection conn = enqueueFrame(channel,frame,frame.buffer);
+            if(conn != null)
+            {
+                flush(channel,conn);
+
+                // make the selector pick up the new interest in OP_WRITE
+                if(conn.hasPendingWrites())
+                {
+                    wakeup();
+                }
+            }
+        }
+    }
+
+    /**
+     * performs the network I/O that is ready on the calling thread, without
+     *   blocking: accepts and finishes connections, reads what the channels
+     *   have, and continues writing what is queued. callback tokens are
+     *   enqueued to be consumed by {handleMessages} as usual.
+     *
+     * only for inline {SelectThread}s.
+     */
+    protected void poll()
+    {
+        if(!inline)
+        {
+            throw new IllegalStateException("only inline SelectThreads can be polled");
+        }
+        if(selector.isOpen() && !iterate(false))
+        {
+            closeSelector();
+        }
+    }
+
+    /**
+     * cancels the {SelectThread}, so that it stops running, and accumulating
+     *   messages to handle.
+     */
+    protected void cancel()
+    {
+        post(Type.CANCEL,null,null,true);
+    }
+
+    ////////////
+    // Thread //
+    ////////////
+
+    /**
+     * the main {run} method of the {SelectThread}. this is he function that
+     *   gets threaded.
+     *
+     * it selects forever, handles messages from the internal inbound message
+     *   queue, and enqueues callback tokens on the internal outbound message
+     *   queue.
+     */
+    public synchronized void run()
+    {
+        if(inline)
+        {
+            throw new IllegalStateException("inline SelectThreads must be polled, not started");
+        }
+
+        // continuously loop, and select sockets, and deal with them. select
+        // may be waken up when things are put into select's threadMsgq.
+        // when this occurs, the thread must handle the messages.
+        while(iterate(true));
+
+        // close the selector
+        closeSelector();
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    // methods below are general helper methods
+
+    /**
+     * performs one iteration of the select loop: selects, handles the
+     *   messages sent to the {SelectThread}, and then the selected channels.
+     *
+     * @param   block   if true, waits in select until a channel is selected,
+     *   or the selector is woken up. if false, only handles what is ready.
+     *
+     * @return   false if the {SelectThread} was cancelled; true otherwise.
+     */
+    private boolean iterate(boolean block)
+    {
+        // perform select; if callback tokens are waiting for room in the
+        // outMsgq, come back soon to move them over. messages sent from now
+        // on wake the selector up; messages sent before now are handled
+        // without parking
+        int numSelected = 0;
+        try
+        {
+            drainOutOverflow();
+            wakeupPending.set(false);
+            if(!block || !inMsgq.isEmpty() || !selfOverflow.isEmpty())
+            {
+                numSelected = selector.selectNow();
+            }
+            else if(outOverflow.isEmpty())
+            {
+                numSelected = selector.select(BEHIND_CHECK_MILLIS);
+            }
+            else
+            {
+                numSelected = selector.select(OVERFLOW_RETRY_MILLIS);
+            }
+            wakeupPending.set(true);
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+        long start = System.nanoTime();
+
+        // get messages from message queue, and handle the messages
+        boolean keepLooping = true;
+        Message msg;
+        while((msg = nextInMessage()) != null)
+        {
+            keepLooping &= handleMessage(msg);
+        }
+
+        // iterate through selected sockets, and handle them
+        if(numSelected > 0)
+        {
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+            while(it.hasNext())
+            {
+                SelectionKey key = it.next();
+
+                // the key may have been cancelled while handling the
+                // messages from the inMsgq
+                if(key.isValid())
+                {
+                    if(key.isReadable())
+                        handleOnReadable(key);
+                    else if(key.isConnectable())
+                        handleOnConnectable(key);
+                    else if(key.isAcceptable())
+                        handleOnAcceptable(key);
+
+                    // a channel may be readable and writable at once
+                    if(key.isValid() && key.isWritable())
+                        handleOnWritable(key);
+                }
+
+                // remove the key from the collection because they're
+                // not removed by the selector automatically
+                it.remove();
+            }
+        }
+
+        // close the connections that fell behind without being sent or
+        // written to
+        if(start-nextBehindCheck >= 0)
+        {
+            nextBehindCheck = start+BEHIND_CHECK_MILLIS*1000*1000;
+            closeBehindChannels();
+        }
+
+        // if we have a listener, invoke all its callbacks immediately,
+        // including the ones that were waiting in the outOverflow
+        if(listener != null)
+        {
+            do
+            {
+                handleMessages(listener);
+                drainOutOverflow();
+            }
+            while(!outMsgq.isEmpty());
+        }
+
+        metrics.iterated(System.nanoTime()-start);
+        return keepLooping;
+    }
+
+    /**
+     * handles a message sent to the {SelectThread}.
+     *
+     * @param   msg   message to handle.
+     *
+     * @return   false if the message cancels the {SelectThread}; true
+     *   otherwise.
+     */
+    private boolean handleMessage(Message msg)
+    {
+        switch(msg.type)
+        {
+        case CONNECT:
+            handleConnect(msg);
+            break;
+        case DISCONNECT:
+            handleDisconnect(msg);
+            break;
+        case CLOSE:
+            handleClose(msg);
+            break;
+        case START_LISTEN:
+            handleStartListening(msg);
+            break;
+        case STOP_LISTEN:
+            handleStopListening(msg);
+            break;
+        case SEND_MESSAGE:
+            handleSendMessage(msg);
+            break;
+        case SEND_GROUP_MESSAGE:
+            handleSendGroupMessage(msg);
+            break;
+        case SEND_CONFLATABLE_GROUP_MESSAGE:
+            handleSendConflatableGroupMessage(msg);
+            break;
+        case ADOPT:
+            handleAdopt(msg);
+            break;
+        case FLUSH:
+            handleFlush(msg);
+            break;
+        case CANCEL:
+            return false;
+        default:
+            throw new RuntimeException("default case hit");
+        }
+        return true;
+    }
+
+    /**
+     * moves callback tokens from the {outMsgq} into the {backlogs} of their
+     *   channels, until the {outMsgq} is empty, or a token's channel has
+     *   {MAX_BACKLOG} tokens waiting already; that token is held on to until
+     *   there is room for it.
+     */
+    private void takeBacklogs()
+    {
+        if(heldMsg != null)
+        {
+            if(!addToBacklog(heldMsg))
+            {
+                return;
+            }
+            heldMsg = null;
+        }
+
+        Message msg = (spareMsgs.isEmpty()) ? new Message(null,null,null) : spareMsgs.poll();
+        while(outMsgq.poll(msg))
+        {
+            if(!addToBacklog(msg))
+            {
+                heldMsg = msg;
+                return;
+            }
+            msg = (spareMsgs.isEmpty()) ? new Message(null,null,null) : spareMsgs.poll();
+        }
+        spareMsgs.add(msg);
+    }
+
+    /**
+     * adds {msg} to the backlog of its channel.
+     *
+     * @return   false if the backlog is full, and {msg} wasn't added.
+     */
+    private boolean addToBacklog(Message msg)
+    {
+        Queue<Message> backlog = backlogs.get(msg.obj1);
+        if(backlog == null)
+        {
+            backlog = new ArrayDeque<>();
+            backlogs.put(msg.obj1,backlog);
+            backlogRotation.add(backlog);
+        }
+        else if(backlog.size() >= MAX_BACKLOG)
+        {
+            return false;
+        }
+        backlog.add(msg);
+        return true;
+    }
+
+    /**
+     * invokes the callback of {listener} that the callback token {msg} is
+     *   for.
+     */
+    private void dispatch(Message msg, SelectListener listener)
+    {
+        switch(msg.type)
+        {
+        case ON_ACCEPT:
+            listener.onAccept((SocketChannel)msg.obj1);
+            break;
+        case ON_CONNECT:
+            listener.onConnect((SocketChannel)msg.obj1);
+            break;
+        case ON_ACCEPT_FAIL:
+            listener.onAcceptFail((ServerSocketChannel)msg.obj1,(Exception)msg.obj2);
+            break;
+        case ON_LISTEN_FAIL:
+            listener.onListenFail((ServerSocketChannel)msg.obj1,(Exception)msg.obj2);
+            break;
+        case ON_CONNECT_FAIL:
+            listener.onConnectFail((SocketChannel)msg.obj1,(Exception)msg.obj2);
+            break;
+        case ON_MESSAGE:
+            listener.onMessage((SocketChannel)msg.obj1,toPacket((PooledBuffer)msg.obj2));
+            break;
+        case ON_CLOSE:
+            listener.onClose((SocketChannel)msg.obj1,(boolean)msg.obj2);
+            try
+            {
+                ((SocketChannel)msg.obj1).close();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            break;
+        default:
+            throw new RuntimeException("default case hit");
+        }
+    }
+
+    private void closeSelector()
+    {
+        metrics.unregister();
+        try
+        {
+            selector.close();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * adds a message to the {inMsgq}, and wakes the selector up if {wakeup} is
+     *   true.
+     *
+     * messages sent to an inline {SelectThread} are handled right away
+     *   instead.
+     *
+     * if the {inMsgq} is full, the calling thread waits for the
+     *   {SelectThread} to make room. messages sent by the {SelectThread} to
+     *   itself, from its listener's callbacks, can't wait on it, so they are
+     *   put into the {selfOverflow} instead.
+     */
+    private void post(Type type, Object obj1, Object obj2, boolean wakeup)
+    {
+        if(inline)
+        {
+            inMsg.set(type,obj1,obj2);
+            boolean cancelled = !handleMessage(inMsg);
+            inMsg.set(null,null,null);
+            if(cancelled)
+            {
+                closeSelector();
+            }
+            return;
+        }
+
+        if(Thread.currentThread() == this)
+        {
+            if(!selfOverflow.isEmpty() || !inMsgq.offer(type,obj1,obj2))
+            {
+                selfOverflow.add(new Message(type,obj1,obj2));
+            }
+        }
+        else
+        {
+            while(!inMsgq.offer(type,obj1,obj2))
+            {
+                if(getState() == State.TERMINATED)
+                {
+                    throw new IllegalStateException("SelectThread has stopped");
+                }
+                wakeup();
+                Thread.yield();
+            }
+        }
+
+        if(wakeup)
+        {
+            wakeup();
+        }
+    }
+
+    /**
+     * wakes the selector up, unless it has already been woken up, or the
+     *   {SelectThread} hasn't parked in select since it last checked the
+     *   {inMsgq}.
+     */
+    private void wakeup()
+    {
+        if(inline)
+        {
+            return;
+        }
+        if(wakeupPending.compareAndSet(false,true))
+        {
+            wakeups.increment();
+            selector.wakeup();
+        }
+        else
+        {
+            savedWakeups.increment();
+        }
+    }
+
+    /**
+     * removes the next message sent to the {SelectThread}, from the {inMsgq},
+     *   or the {selfOverflow} once the {inMsgq} is empty.
+     *
+     * @return   the next message, or null if there are none. the returned
+     *   message is only valid until the next call.
+     */
+    private Message nextInMessage()
+    {
+        if(inMsgq.poll(inMsg))
+        {
+            return inMsg;
+        }
+        inMsg.set(null,null,null);
+        return selfOverflow.poll();
     }
 
     /**
-     * removes the listener from the {SelectThread}, so that its callbacks are
-     *   no longer invoked.
+     * adds a callback token to the {outMsgq}, or to the end of the
+     *   {outOverflow} if the {outMsgq} is full, or there are tokens in the
+     *   {outOverflow} already, so tokens are always consumed in order.
      */
-    protected SelectThread unsetListener()
+    private void emit(Type type, Object obj1, Object obj2)
     {
-        setListener(null);
-        return this;
+        drainOutOverflow();
+        if(!outOverflow.isEmpty() || !outMsgq.offer(type,obj1,obj2))
+        {
+            outOverflow.add(new Message(type,obj1,obj2));
+        }
     }
 
     /**
-     * dequeues all callback tokens from the {selectThread}'s internal outbound
-     *   message queue, parses them, and invokes the callback methods of
-     *   {listener} on the calling thread.
-     *
-     * @param   listener   listener used to handle the messages from the
-     *   {SelecThread}.
+     * moves as many callback tokens as there is room for from the
+     *   {outOverflow} into the {outMsgq}. once it is empty, the channels that
+     *   were paused are read from again.
      */
-    protected void handleMessages(SelectListener listener)
+    private void drainOutOverflow()
     {
-        synchronized(outMsgq)
+        Message msg;
+        while((msg = outOverflow.peek()) != null && outMsgq.offer(msg.type,msg.obj1,msg.obj2))
+        {
+            outOverflow.remove();
+        }
+        if(outOverflow.isEmpty() && !pausedChannels.isEmpty())
         {
-            while(outMsgq.size() > 0)
+            for(SocketChannel channel : pausedChannels)
             {
-                Message msg = outMsgq.remove();
-
-                switch(msg.type)
+                Connection conn = getConnection(channel);
+                if(conn != null)
                 {
-                case ON_ACCEPT:
-                    listener.onAccept((SocketChannel)msg.obj1);
-                    break;
-                case ON_CONNECT:
-                    listener.onConnect((SocketChannel)msg.obj1);
-                    break;
-                case ON_ACCEPT_FAIL:
-                    listener.onAcceptFail((ServerSocketChannel)msg.obj1,(Exception)msg.obj2);
-                    break;
-                case ON_LISTEN_FAIL:
-                    listener.onListenFail((ServerSocketChannel)msg.obj1,(Exception)msg.obj2);
-                    break;
-                case ON_CONNECT_FAIL:
-                    listener.onConnectFail((SocketChannel)msg.obj1,(Exception)msg.obj2);
-                    break;
-                case ON_MESSAGE:
-                    listener.onMessage((SocketChannel)msg.obj1,(Packet)msg.obj2);
-                    break;
-                case ON_CLOSE:
-                    listener.onClose((SocketChannel)msg.obj1,(boolean)msg.obj2);
-                    try
-                    {
-                        ((SocketChannel)msg.obj1).close();
-                    }
-                    catch (IOException e)
-                    {
-                        throw new RuntimeException(e);
-                    }
-                    break;
-                default:
-                    throw new RuntimeException("default case hit");
+                    conn.setReading(true);
                 }
             }
+            pausedChannels.clear();
         }
     }
 
-    // methods below enqueue messages into the inMsgq
-
     /**
-     * creates a new {SocketChannel} that is trying to connect to the remote
-     *   host at {remoteName}:{remotePort}.
+     * copies the frame payload in {payload} into a new {Packet}, and releases
+     *   {payload} back to the {bufferPool}.
      *
-     * the new {SocketChannel} is also added to the {SelectThread} to be
-     *   monitored for any packets, or if it is closed by the remote or local
-     *   hosts.
-     *
-     * @param   remoteName   IP address in dotted decimal format, or name of the
-     *   remote host to connect to.
-     * @param   remotePort   port number of the remote host to connect to.
+     * @param   payload   pooled buffer holding a frame payload.
      *
-     * @return   [description]
+     * @return   the {Packet} parsed from the frame payload.
      */
-    protected SocketChannel connect(String remoteName, int remotePort)
+    private Packet toPacket(PooledBuffer payload)
     {
-        synchronized(inMsgq)
+        try
         {
-            try
-            {
-                SocketChannel channel = SocketChannel.open();
-                InetSocketAddress addr = new InetSocketAddress(remoteName,remotePort);
-                inMsgq.add(new Message(Type.CONNECT,channel,addr));
-                selector.wakeup();
-                return channel;
-            }
-            catch(Exception e)
-            {
-                throw new RuntimeException(e);
-            }
+            byte[] data = new byte[payload.buffer.remaining()];
+            payload.buffer.get(data);
+            return new Packet().fromBytes(data);
+        }
+        finally
+        {
+            payload.release();
         }
     }
 
     /**
-     * closes the {channel}, and removes it from the {SelectThread} so that it
-     *   will no longer receive any messages.
+     * returns the {Connection} attached to {channel}'s selection key.
      *
-     * @param   channel   channel to close.
+     * @param   channel   channel to get the {Connection} of.
+     *
+     * @return   the {Connection} of {channel}, or null if {channel} is not
+     *   registered with this {SelectThread}.
      */
-    protected void disconnect(SocketChannel channel)
+    private Connection getConnection(SocketChannel channel)
     {
-        synchronized(inMsgq)
-        {
-            inMsgq.add(new Message(Type.DISCONNECT,channel,null));
-            selector.wakeup();
-        }
+        SelectionKey key = channel.keyFor(selector);
+        return (key != null) ? (Connection)key.attachment() : null;
     }
 
     /**
-     * opens a new {ServerSocketChannel}, that is listening on port
-     *   {serverPort}.
-     *
-     * the new {ServerSocketChannel} is also added to the
-     *   {SelectThread} to be monitored for any new connection requests.
+     * queues {view} to be written to {channel}.
      *
-     * @param   serverPort   port to make the returned {ServerSocketChannel}
-     *   listen for new connections from.
+     * @param   channel   channel to write to.
+     * @param   frame   reference to the pooled buffer that {view} is a view
+     *   of. it is released once {view} is written, or the channel is closed.
+     * @param   view   bytes to write.
      *
-     * @return   the new {ServerSocketChannel} created to listen to
-     *   {serverPort}.
+     * @return   the {Connection} of {channel}, or null if {channel} is not
+     *   registered with this {SelectThread}, and {frame} was dropped.
      */
-    protected ServerSocketChannel startListening(int serverPort)
+    private Connection enqueueFrame(SocketChannel channel, PooledBuffer frame, ByteBuffer view)
     {
-        synchronized(inMsgq)
+        Connection conn = getConnection(channel);
+        if(conn == null)
         {
-            try
-            {
-                ServerSocketChannel channel = ServerSocketChannel.open();
-                InetSocketAddress addr = new InetSocketAddress(serverPort);
-                inMsgq.add(new Message(Type.START_LISTEN,channel,addr));
-                selector.wakeup();
-                return channel;
-            }
-            catch(IOException e)
-            {
-                throw new RuntimeException(e);
-            }
+            frame.release();
+            return null;
         }
+
+        return checkBudget(channel,conn,conn.enqueue(frame,view));
     }
 
     /**
-     * closes the listening {ServerSocketChannel}, and removes it from the
-     *   {SelectThread} so that it will no longer accept any new connection
-     *   requests.
+     * queues {view} to be written to {channel}, dropping the frame queued
+     *   with the same {key} before it if {channel} is over budget.
      *
-     * @param   channel   {ServerSocketChannel} to close.
+     * @param   channel   channel to write to.
+     * @param   frame   reference to the pooled buffer that {view} is a view
+     *   of. it is released once {view} is written, or the channel is closed.
+     * @param   view   bytes to write.
+     * @param   key   identifies the frames that {view} supersedes.
+     *
+     * @return   the {Connection} of {channel}, or null if {channel} is not
+     *   registered with this {SelectThread}, and {frame} was dropped.
      */
-    protected void stopListening(ServerSocketChannel channel)
+    private Connection enqueueConflatableFrame(SocketChannel channel,
+        PooledBuffer frame, ByteBuffer view, int key)
     {
-        synchronized(inMsgq)
+        Connection conn = getConnection(channel);
+        if(conn == null)
         {
-            inMsgq.add(new Message(Type.STOP_LISTEN,channel,null));
-            selector.wakeup();
+            frame.release();
+            return null;
         }
+
+        return checkBudget(channel,conn,conn.enqueueConflatable(frame,view,key));
     }
 
     /**
-     * sends {packet} through {channel} asynchronously on the {SelectThread}.
+     * counts what became of a frame queued for {channel}, and closes
+     *   {channel} if it has fallen too far behind.
      *
-     * @param   channel   channel to send the message to.
-     * @param   packet   packet to send through the channel.
+     * @return   {conn}, or null if {channel} was closed.
      */
-    protected void sendMessage(SocketChannel channel, Packet packet)
+    private Connection checkBudget(SocketChannel channel, Connection conn, Connection.Enqueued result)
     {
-        synchronized(inMsgq)
+        switch(result)
         {
-            inMsgq.add(new Message(Type.SEND_MESSAGE,channel,packet));
-            selector.wakeup();
+        case QUEUED:
+            break;
+        case CONFLATED:
+            conflations.increment();
+            break;
+        case OVER_BUDGET:
+            overBudgets.increment();
+            break;
+        case BEHIND:
+            slowConsumerDisconnects.increment();
+            closeChannel(channel,false);
+            return null;
+        default:
+            throw new RuntimeException("default case hit");
         }
+        return conn;
     }
 
     /**
-     * sends {packet} through {channel} on the calling thread.
+     * writes {conn}'s queue out right away, or, if the {SelectThread} is set
+     *   to coalesce writes, remembers to do so on the next flush.
      *
-     * @param   channel   channel to send the message to.
-     * @param   packet   packet to send through the channel.
+     * @param   channel   channel to write to.
+     * @param   conn   {Connection} of {channel}.
      */
-    protected void sendMessageOnThisThread(SocketChannel channel, Packet packet)
+    private void scheduleFlush(SocketChannel channel, Connection conn)
     {
-        synchronized(inMsgq)
+        if(coalesceWrites)
         {
-            handleSendMessage(new Message(Type.SEND_MESSAGE,channel,packet));
+            unflushedChannels.add(channel);
         }
-    }
-
-    /**
-     * cancels the {SelectThread}, so that it stops running, and accumulating
-     *   messages to handle.
-     */
-    protected void cancel()
-    {
-        synchronized(inMsgq)
+        else
         {
-            inMsgq.add(new Message(Type.CANCEL,null,null));
-            selector.wakeup();
+            flush(channel,conn);
         }
     }
 
-    ////////////
-    // Thread //
-    ////////////
-
     /**
-     * the main {run} method of the {SelectThread}. this is he function that
-     *   gets threaded.
+     * writes as much of {conn}'s queue as {channel} will take without
+     *   blocking. closes the channel if writing fails, if it was waiting to
+     *   be closed once its queue was empty, or if it is still behind.
      *
-     * it selects forever, handles messages from the internal inbound message
-     *   queue, and enqueues callback tokens on the internal outbound message
-     *   queue.
+     * @param   channel   channel to write to.
+     * @param   conn   {Connection} of {channel}.
      */
-    public synchronized void run()
+    private void flush(SocketChannel channel, Connection conn)
     {
-        // continuously loop, and select sockets, and deal with them. select
-        // may be waken up when things are put into select's threadMsgq.
-        // when this occurs, the thread must handle the messages.
-        boolean keepLooping = true;
-        while(keepLooping)
+        try
         {
-            // perform select
-            int numSelected = 0;
-            try
-            {
-                numSelected = selector.select();
-            }
-            catch(Exception e)
+            if(conn.flush())
             {
-                throw new RuntimeException(e);
-            }
-
-            // get messages from message queue, and handle the messages
-            while(inMsgq.size() > 0)
-            {
-                Message msg = inMsgq.remove();
-
-                switch(msg.type)
-                {
-                case CONNECT:
-                    handleConnect(msg);
-                    break;
-                case DISCONNECT:
-                    handleDisconnect(msg);
-                    break;
-                case START_LISTEN:
-                    handleStartListening(msg);
-                    break;
-                case STOP_LISTEN:
-                    handleStopListening(msg);
-                    break;
-                case SEND_MESSAGE:
-                    handleSendMessage(msg);
-                    break;
-                case CANCEL:
-                    keepLooping = false;
-                    break;
-                default:
-                    throw new RuntimeException("default case hit");
-                }
+                closeChannel(channel,false);
             }
-
-            // iterate through selected sockets, and handle them
-            if(numSelected > 0)
+            else if(conn.checkBehind())
             {
-                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
-
-                while(it.hasNext())
-                {
-                    SelectionKey key = it.next();
-
-                    if(key.isReadable())
-                        handleOnReadable(key);
-                    else if(key.isConnectable())
-                        handleOnConnectable(key);
-                    else if(key.isAcceptable())
-                        handleOnAcceptable(key);
-
-                    // remove the key from the collection because they're
-                    // not removed by the selector automatically
-                    it.remove();
-                }
+                slowConsumerDisconnects.increment();
+                closeChannel(channel,false);
             }
+        }
+        catch(IOException e)
+        {
+            closeChannel(channel,true);
+        }
+    }
 
-            // if we have a listener, invoke all its callbacks immediately
-            if(listener != null)
-            {
-                handleMessages(listener);
-            }
+    /**
+     * cancels {channel}'s selection key, drops the frames still queued for
+     *   it, and enqueues an ON_CLOSE callback token, unless the channel has
+     *   already been closed.
+     *
+     * callback tokens are only enqueued by the {SelectThread}, so that they
+     *   stay in order, and the {outOverflow} is only used by one thread. when
+     *   invoked on another thread, by {sendMessageOnThisThread}, the channel
+     *   is closed later, on the {SelectThread}.
+     *
+     * @param   channel   channel to close.
+     * @param   remote   true if the channel was closed by the remote host.
+     */
+    private void closeChannel(SocketChannel channel, boolean remote)
+    {
+        if(!inline && Thread.currentThread() != this)
+        {
+            post(Type.CLOSE,channel,remote,true);
+            return;
         }
 
-        // close the selector
-        try
+        SelectionKey key = channel.keyFor(selector);
+        if(key == null)
         {
-            selector.close();
+            return;
         }
-        catch(IOException e)
+
+        key.cancel();
+        metrics.removeConnection(channel);
+        Connection conn = (Connection)key.attachment();
+        if(conn == null || conn.close())
         {
-            throw new RuntimeException(e);
+            emit(Type.ON_CLOSE,channel,remote);
         }
     }
 
-    ///////////////////////
-    // private interface //
-    ///////////////////////
-
-    // methods below are general helper methods
-
-    private int read(SocketChannel channel, ByteBuffer dst) throws IOException
+    /**
+     * closes the channels whose connections have fallen behind, for the
+     *   ones that are neither sent to nor writable, which are never checked
+     *   otherwise.
+     */
+    private void closeBehindChannels()
     {
-        int ret = dst.remaining();
-        while(dst.remaining() > 0)
+        for(SelectionKey key : selector.keys())
         {
-            if(channel.read(dst) == -1)
+            Object attachment = key.attachment();
+            if(key.isValid() && attachment instanceof Connection
+                && ((Connection)attachment).checkBehind())
             {
-                return -1;
+                slowConsumerDisconnects.increment();
+                closeChannel((SocketChannel)key.channel(),false);
             }
         }
-        return ret;
     }
 
-    private void registerChannel(SocketChannel channel)
+    private void registerChannel(SocketChannel channel, int ops)
     {
         // add the {Socket}'s channel to the selector
         try
         {
             channel.configureBlocking(false);
-            channel.register(
-                selector,SelectionKey.OP_CONNECT|SelectionKey.OP_READ);
+            SelectionKey key = channel.register(selector,ops);
+            Connection conn = new Connection(channel,key,bufferPool,
+                compressionThreshold,compressionDictionary,
+                outboundBudget,maxBehindMillis,metrics);
+            key.attach(conn);
+            metrics.addConnection(channel,conn);
         }
 
         // should not fail unless dumb; bail out
@@ -516,7 +1660,7 @@ class SelectThread extends Thread
         InetSocketAddress addr = (InetSocketAddress)msg.obj2;
 
         // add the {Socket}'s channel to the selector
-        registerChannel(channel);
+        registerChannel(channel,SelectionKey.OP_CONNECT|SelectionKey.OP_READ);
 
         // connect the {Socket} to the remote host
         try
@@ -527,7 +1671,7 @@ class SelectThread extends Thread
         // failed to connect; put message in outMsgq to invoke callback
         catch(IOException e)
         {
-            outMsgq.add(new Message(Type.ON_CONNECT_FAIL,channel,e));
+            emit(Type.ON_CONNECT_FAIL,channel,e);
         }
     }
 
@@ -536,11 +1680,28 @@ class SelectThread extends Thread
         // parse message parameters
         SocketChannel channel = (SocketChannel)msg.obj1;
 
-        // cancel the selection key, and closes the socket channel
-        channel.keyFor(selector).cancel();
+        Connection conn = getConnection(channel);
+        if(conn == null)
+        {
+            return;
+        }
+
+        // close the connection once everything queued for it has been sent;
+        // this enqueues the ON_CLOSE callback token into the outMsgq
+        if(conn.closeAfterFlush())
+        {
+            closeChannel(channel,false);
+        }
+    }
 
-        // closed connection; enqueue into outMsgq to invoke callback
-        outMsgq.add(new Message(Type.ON_CLOSE,channel,false));
+    private void handleClose(Message msg)
+    {
+        // parse message parameters
+        SocketChannel channel = (SocketChannel)msg.obj1;
+        boolean remote = (boolean)msg.obj2;
+
+        // close the channel that another thread found should be closed
+        closeChannel(channel,remote);
     }
 
     private void handleStartListening(Message msg)
@@ -561,7 +1722,7 @@ class SelectThread extends Thread
         // failed to bind; put message in outMsgq to invoke callback
         catch(IOException e)
         {
-            outMsgq.add(new Message(Type.ON_LISTEN_FAIL,channel,e));
+            emit(Type.ON_LISTEN_FAIL,channel,e);
         }
     }
 
@@ -580,26 +1741,77 @@ class SelectThread extends Thread
         SocketChannel channel = (SocketChannel)msg.obj1;
         Packet packet = (Packet)msg.obj2;
 
-        // send the message out the channel
-        synchronized(channel)
+        // queue the message to be sent out the channel
+        PooledBuffer frame = frame(packet);
+        Connection conn = enqueueFrame(channel,frame,frame.buffer);
+        if(conn != null)
         {
-            try
+            scheduleFlush(channel,conn);
+        }
+    }
+
+    private void handleSendGroupMessage(Message msg)
+    {
+        // parse message parameters
+        SocketChannel[] channels = (SocketChannel[])msg.obj1;
+        PooledBuffer frame = (PooledBuffer)msg.obj2;
+
+        // queue the same frame to every channel, each with its own view of
+        // the shared buffer, and its own reference to it
+        for(SocketChannel channel : channels)
+        {
+            Connection conn = enqueueFrame(channel,frame.retain(),frame.buffer.asReadOnlyBuffer());
+            if(conn != null)
             {
-                byte[] packetData = packet.toBytes();
-                ByteBuffer buf = ByteBuffer.allocate(4+packetData.length);
-                buf.putInt(packetData.length);
-                buf.put(packetData);
-                buf.position(0);
-                while(buf.remaining() > 0)
-                {
-                    channel.write(buf);
-                }
+                scheduleFlush(channel,conn);
             }
-            catch (IOException e)
+        }
+        frame.release();
+    }
+
+    private void handleSendConflatableGroupMessage(Message msg)
+    {
+        // parse message parameters
+        SocketChannel[] channels = (SocketChannel[])msg.obj1;
+        ConflatableFrame conflatable = (ConflatableFrame)msg.obj2;
+        PooledBuffer frame = conflatable.frame;
+
+        // queue the same frame to every channel, like handleSendGroupMessage
+        for(SocketChannel channel : channels)
+        {
+            Connection conn = enqueueConflatableFrame(channel,frame.retain(),
+                frame.buffer.asReadOnlyBuffer(),conflatable.key);
+            if(conn != null)
             {
-                throw new RuntimeException(e);
+                scheduleFlush(channel,conn);
+            }
+        }
+        frame.release();
+    }
+
+    private void handleFlush(Message msg)
+    {
+        // write out everything that was held back for each channel
+        for(SocketChannel channel : unflushedChannels)
+        {
+            Connection conn = getConnection(channel);
+            if(conn != null)
+            {
+                flush(channel,conn);
             }
         }
+        unflushedChannels.clear();
+    }
+
+    private void handleAdopt(Message msg)
+    {
+        // parse message parameters
+        SocketChannel channel = (SocketChannel)msg.obj1;
+
+        // put message in outMsgq to invoke callback, and add the {Socket}'s
+        // channel to the selector
+        emit(Type.ON_ACCEPT,channel,null);
+        registerChannel(channel,SelectionKey.OP_READ);
     }
 
     // methods below handle keys signaled by select
@@ -614,18 +1826,31 @@ class SelectThread extends Thread
         {
             // accept the new connection
             SocketChannel acceptedChannel = channel.accept();
+            if(acceptedChannel == null)
+            {
+                return;
+            }
+
+            // hand the channel off to the select thread chosen for it, if any
+            Distributor distributor = this.distributor;
+            SelectThread owner = (distributor != null) ? distributor.distribute(acceptedChannel) : this;
+            if(owner != this)
+            {
+                owner.adopt(acceptedChannel);
+                return;
+            }
 
             // accepted; put message in outMsgq to invoke callback
-            outMsgq.add(new Message(Type.ON_ACCEPT,acceptedChannel,null));
+            emit(Type.ON_ACCEPT,acceptedChannel,null);
 
             // add the {Socket}'s channel to the selector
-            registerChannel(acceptedChannel);
+            registerChannel(acceptedChannel,SelectionKey.OP_READ);
         }
 
         // failed to accept; put message in outMsgq to invoke callback
         catch(Exception e)
         {
-            outMsgq.add(new Message(Type.ON_ACCEPT_FAIL,channel,e));
+            emit(Type.ON_ACCEPT_FAIL,channel,e);
         }
     }
 
@@ -638,53 +1863,80 @@ class SelectThread extends Thread
         try
         {
             channel.finishConnect();
-            outMsgq.add(new Message(Type.ON_CONNECT,channel,null));
+            key.interestOps(SelectionKey.OP_READ);
+            emit(Type.ON_CONNECT,channel,null);
+
+            // send anything that was queued while we were connecting
+            flush(channel,(Connection)key.attachment());
         }
 
         // failed to connect; put message in outMsgq to invoke callback
         catch(IOException e)
         {
-            outMsgq.add(new Message(Type.ON_CONNECT_FAIL,channel,e));
+            emit(Type.ON_CONNECT_FAIL,channel,e);
         }
     }
 
+    private void handleOnWritable(SelectionKey key)
+    {
+        // continue writing what is queued for the channel
+        flush((SocketChannel)key.channel(),(Connection)key.attachment());
+    }
+
     private void handleOnReadable(SelectionKey key)
     {
         // parse message parameters
         SocketChannel channel = (SocketChannel)key.channel();
+        Connection conn = (Connection)key.attachment();
 
         try
         {
-            synchronized(channel)
+            // read whatever the socket has, and pull every complete frame out
+            // of what we have so far; partial frames are kept by the
+            // connection until the rest of them arrives
+            boolean moreToRead;
+            do
             {
-                ByteBuffer len = ByteBuffer.allocate(4);
-                if(read(channel,len) != -1)
+                if(conn.read() == -1)
+                {
+                    closeChannel(channel,true);
+                    return;
+                }
+                moreToRead = conn.isInboundFull();
+
+                // the payloads are released once handleMessages has turned
+                // them into packets
+                PooledBuffer payload;
+                while((payload = conn.nextFrame(maxFrameSize)) != null)
                 {
-                    len.position(0);
-                    ByteBuffer packetData = ByteBuffer.allocate(len.getInt());
-                    read(channel,packetData);
-                    packetData.position(0);
-                    Packet packet = new Packet().fromBytes(packetData.array());
-                    outMsgq.add(new Message(Type.ON_MESSAGE,channel,packet));
+                    emit(Type.ON_MESSAGE,channel,payload);
                 }
-                else
+
+                // stop reading while the callback tokens aren't consumed as
+                // fast as they come in; drainOutOverflow resumes it
+                if(!outOverflow.isEmpty())
                 {
-                    channel.keyFor(selector).cancel();
-                    outMsgq.add(new Message(Type.ON_CLOSE,channel,true));
+                    conn.setReading(false);
+                    pausedChannels.add(channel);
+                    break;
                 }
             }
+            while(moreToRead);
+        }
+        catch (ProtocolException e)
+        {
+            // remote host sent a frame we won't take; close the socket
+            closeChannel(channel,false);
         }
         catch (SocketException e)
         {
             // socket closed by local host
-            channel.keyFor(selector).cancel();
-            outMsgq.add(new Message(Type.ON_CLOSE,channel,false));
+            closeChannel(channel,false);
         }
         catch (IOException e)
         {
             // socket closed by remote host
-            channel.keyFor(selector).cancel();
-            outMsgq.add(new Message(Type.ON_CLOSE,channel,true));
+            closeChannel(channel,true);
         }
     }
 
@@ -694,10 +1946,27 @@ class SelectThread extends Thread
 
     public interface SelectListener extends ClientListener<SocketChannel>,ServerListener<SocketChannel,ServerSocketChannel>{}
 
+    /////////////////
+    // Distributor //
+    /////////////////
+
+    /**
+     * chooses which {SelectThread} handles a newly accepted channel. invoked
+     *   on the {SelectThread} that accepted the channel.
+     */
+    public interface Distributor
+    {
+        public SelectThread distribute(SocketChannel channel);
+    }
+
     /////////////
     // Message //
     /////////////
 
+    /**
+     * a message to or from the {SelectThread}. the {MessageRing}s reuse their
+     *   {Message}s, so their contents are copied out when they are removed.
+     */
     public static class Message
     {
         public enum Type
@@ -714,15 +1983,25 @@ class SelectThread extends Thread
             STOP_LISTEN,
             CONNECT,
             DISCONNECT,
+            CLOSE,
             SEND_MESSAGE,
+            SEND_GROUP_MESSAGE,
+            SEND_CONFLATABLE_GROUP_MESSAGE,
+            ADOPT,
+            FLUSH,
             CANCEL
         };
 
-        public final Type type;
-        public final Object obj1;
-        public final Object obj2;
+        public Type type;
+        public Object obj1;
+        public Object obj2;
 
         public Message(Type type, Object obj1, Object obj2)
+        {
+            set(type,obj1,obj2);
+        }
+
+        public void set(Type type, Object obj1, Object obj2)
         {
             this.type = type;
             this.obj1 = obj1;
@@ -730,6 +2009,26 @@ class SelectThread extends Thread
         }
     }
 
+    //////////////////////
+    // ConflatableFrame //
+    //////////////////////
+
+    /**
+     * a frame sent by {sendConflatableFrameToGroup}, and the key that
+     *   identifies the frames it supersedes.
+     */
+    private static class ConflatableFrame
+    {
+        public final PooledBuffer frame;
+        public final int key;
+
+        public ConflatableFrame(PooledBuffer frame, int key)
+        {
+            this.frame = frame;
+            this.key = key;
+        }
+    }
+
     //////////
     // main //
     //////////
@@ -773,7 +2072,7 @@ class SelectThread extends Thread
             @Override
             public void onMessage(SocketChannel chnl, Packet packet)
             {
-                System.out.println(chnl+": "+new String(packet.popData().peekData()));
+                System.out.println(chnl+": "+new String(packet.peekData()));
                 st2.disconnect(chnl);
             }
             @Override
@@ -783,8 +2082,8 @@ class SelectThread extends Thread
             }
         };
 
-        st1.setListener(listener);
-        st2.setListener(listener);
+        // callbacks are handled on this thread, by the handleMessages loop
+        // below; each outMsgq may only be consumed by one thread
         st1.start();
         st2.start();
 
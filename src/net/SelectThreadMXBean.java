@@ -0,0 +1,106 @@
+package net;
+
+/**
+ * management interface of a {SelectThread}. every {SelectThread} registers
+ *   one with the platform MBean server, named
+ *   {net:type=SelectThread,name=<thread name>}, for as long as its selector is
+ *   open.
+ *
+ * the counters count from when the {SelectThread} was created. they are read
+ *   without stopping the {SelectThread}, so related values may be off from
+ *   one another by whatever happened while they were being read.
+ */
+public interface SelectThreadMXBean
+{
+    /**
+     * returns the number of bytes read from all channels.
+     */
+    public abstract long getBytesIn();
+
+    /**
+     * returns the number of bytes written to all channels.
+     */
+    public abstract long getBytesOut();
+
+    /**
+     * returns the number of frames received from all channels.
+     */
+    public abstract long getFramesIn();
+
+    /**
+     * returns the number of frames completely written to all channels.
+     */
+    public abstract long getFramesOut();
+
+    /**
+     * returns the number of writes that the socket didn't take all of,
+     *   leaving the rest to be written once the channel is writable again.
+     */
+    public abstract long getPartialWrites();
+
+    /**
+     * returns the size in bytes of the largest frame received or sent,
+     *   including its length prefix.
+     */
+    public abstract long getLargestFrame();
+
+    /**
+     * returns the number of messages waiting to be handled by the
+     *   {SelectThread}.
+     */
+    public abstract int getInboundQueueDepth();
+
+    /**
+     * returns the number of callback tokens waiting to be consumed by
+     *   {handleMessages}.
+     */
+    public abstract int getOutboundQueueDepth();
+
+    /**
+     * returns the number of times the selector was woken up to handle sent
+     *   messages.
+     */
+    public abstract long getWakeups();
+
+    /**
+     * returns the number of times a message was sent without waking the
+     *   selector up, because it was already awake.
+     */
+    public abstract long getSavedWakeups();
+
+    /**
+     * returns the number of queued frames replaced by newer ones, because
+     *   their connection was over its outbound budget.
+     */
+    public abstract long getConflations();
+
+    /**
+     * returns the number of times a connection went over its outbound budget.
+     */
+    public abstract long getOverBudgets();
+
+    /**
+     * returns the number of connections closed for staying over their
+     *   outbound budget for too long.
+     */
+    public abstract long getSlowConsumerDisconnects();
+
+    /**
+     * returns how long the iterations of the select loop took, not counting
+     *   the time spent waiting in select, as a histogram. element 0 counts
+     *   the iterations that took less than a microsecond; element {i} counts
+     *   the ones that took at least 2^(i-1) and less than 2^i microseconds;
+     *   the last element also counts all the longer ones.
+     */
+    public abstract long[] getIterationHistogram();
+
+    /**
+     * returns the number of open connections.
+     */
+    public abstract int getConnectionCount();
+
+    /**
+     * returns the counters of each open connection.
+     */
+    public abstract ChannelMetrics[] getChannels();
+}
@@ -0,0 +1,297 @@
+package net;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * the counters of a {SelectThread}, and of the {Connection}s it handles,
+ *   exposed through JMX as a {SelectThreadMXBean}.
+ *
+ * the counters are {LongAdder}s, which are updated without locks, and are
+ *   cheap to update from many threads at once, so they are always on. the
+ *   {Connection}s update their own counters and these together.
+ */
+class SelectThreadMetrics implements SelectThreadMXBean
+{
+    /**
+     * number of buckets in the histogram of select loop iteration times.
+     */
+    public static final int ITERATION_HISTOGRAM_SIZE = 20;
+
+    /**
+     * the {SelectThread} that the counters are of.
+     */
+    private final SelectThread selectThread;
+
+    /**
+     * name that the {SelectThreadMXBean} is registered under. null while it
+     *   isn't registered.
+     */
+    private ObjectName name;
+
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder framesIn;
+    private final LongAdder framesOut;
+    private final LongAdder partialWrites;
+    private final LongAccumulator largestFrame;
+    private final LongAdder[] iterationHistogram;
+
+    /**
+     * the open connections of the {selectThread}.
+     */
+    private final Map<SocketChannel,Connection> connections;
+
+    /////////////////
+    // constructor //
+    /////////////////
+
+    public SelectThreadMetrics(SelectThread selectThread)
+    {
+        this.selectThread = selectThread;
+        this.name = null;
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.framesIn = new LongAdder();
+        this.framesOut = new LongAdder();
+        this.partialWrites = new LongAdder();
+        this.largestFrame = new LongAccumulator(Math::max,0);
+        this.iterationHistogram = new LongAdder[ITERATION_HISTOGRAM_SIZE];
+        this.connections = new ConcurrentHashMap<>();
+        for(int i = 0; i < ITERATION_HISTOGRAM_SIZE; ++i)
+        {
+            iterationHistogram[i] = new LongAdder();
+        }
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * registers the counters with the platform MBean server, under the name
+     *   of the {selectThread}.
+     */
+    public void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("net:type=SelectThread,name="
+                +ObjectName.quote(selectThread.getName()));
+            server.registerMBean(this,name);
+        }
+        catch(JMException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * unregisters the counters from the platform MBean server, if they are
+     *   registered.
+     */
+    public void unregister()
+    {
+        if(name == null)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+        catch(JMException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // methods below are invoked by the SelectThread and its Connections to
+    // update the counters
+
+    public void addConnection(SocketChannel channel, Connection conn)
+    {
+        connections.put(channel,conn);
+    }
+
+    public void removeConnection(SocketChannel channel)
+    {
+        connections.remove(channel);
+    }
+
+    public void read(int bytes)
+    {
+        bytesIn.add(bytes);
+    }
+
+    public void wrote(long bytes, int frames, boolean partial)
+    {
+        bytesOut.add(bytes);
+        framesOut.add(frames);
+        if(partial)
+        {
+            partialWrites.increment();
+        }
+    }
+
+    public void received(int frameSize)
+    {
+        framesIn.increment();
+        largestFrame.accumulate(frameSize);
+    }
+
+    public void queued(int frameSize)
+    {
+        largestFrame.accumulate(frameSize);
+    }
+
+    /**
+     * counts an iteration of the select loop that took {nanos} nanoseconds.
+     */
+    public void iterated(long nanos)
+    {
+        long micros = nanos/1000;
+        int bucket = 64-Long.numberOfLeadingZeros(micros);
+        iterationHistogram[Math.min(bucket,ITERATION_HISTOGRAM_SIZE-1)].increment();
+    }
+
+    ////////////////////////
+    // SelectThreadMXBean //
+    ////////////////////////
+
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getFramesIn()
+    {
+        return framesIn.sum();
+    }
+
+    @Override
+    public long getFramesOut()
+    {
+        return framesOut.sum();
+    }
+
+    @Override
+    public long getPartialWrites()
+    {
+        return partialWrites.sum();
+    }
+
+    @Override
+    public long getLargestFrame()
+    {
+        return largestFrame.get();
+    }
+
+    @Override
+    public int getInboundQueueDepth()
+    {
+        return selectThread.getInboundQueueDepth();
+    }
+
+    @Override
+    public int getOutboundQueueDepth()
+    {
+        return selectThread.getOutboundQueueDepth();
+    }
+
+    @Override
+    public long getWakeups()
+    {
+        return selectThread.getWakeupCount();
+    }
+
+    @Override
+    public long getSavedWakeups()
+    {
+        return selectThread.getSavedWakeupCount();
+    }
+
+    @Override
+    public long getConflations()
+    {
+        return selectThread.getConflationCount();
+    }
+
+    @Override
+    public long getOverBudgets()
+    {
+        return selectThread.getOverBudgetCount();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects()
+    {
+        return selectThread.getSlowConsumerDisconnectCount();
+    }
+
+    @Override
+    public long[] getIterationHistogram()
+    {
+        long[] counts = new long[ITERATION_HISTOGRAM_SIZE];
+        for(int i = 0; i < ITERATION_HISTOGRAM_SIZE; ++i)
+        {
+            counts[i] = iterationHistogram[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public int getConnectionCount()
+    {
+        return connections.size();
+    }
+
+    @Override
+    public ChannelMetrics[] getChannels()
+    {
+        List<ChannelMetrics> channels = new ArrayList<>();
+        for(Map.Entry<SocketChannel,Connection> entry : connections.entrySet())
+        {
+            channels.add(entry.getValue().getMetrics(remoteAddress(entry.getKey())));
+        }
+        return channels.toArray(new ChannelMetrics[channels.size()]);
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    private static String remoteAddress(SocketChannel channel)
+    {
+        try
+        {
+            Object address = channel.getRemoteAddress();
+            return (address != null) ? address.toString() : null;
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+    }
+}
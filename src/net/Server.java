@@ -1,5 +1,7 @@
 package net;
 
+import java.util.Collection;
+
 public interface Server<ClientKey,ServerKey>
 {
     /**
@@ -27,4 +29,42 @@ public interface Server<ClientKey,ServerKey>
      * @param packet packet to send from the socket.
      */
     public abstract void sendMessage(ClientKey sock, Packet packet);
+
+    /**
+     * sends the same message to all the clients identified by {socks}. the
+     *   packet is serialized and framed only once, no matter how many clients
+     *   it is sent to.
+     *
+     * @param socks connections to send the message to.
+     * @param packet packet to send from the sockets.
+     */
+    public abstract void sendMessageToGroup(Collection<ClientKey> socks, Packet packet);
+
+    /**
+     * sends a message that may be dropped in favor of a newer one with the
+     *   same {key} to the client identified by {sock}. the default
+     *   implementation sends it like any other message.
+     *
+     * @param sock connection to send a message to
+     * @param key identifies the older messages that this one supersedes.
+     * @param packet packet to send from the socket.
+     */
+    public default void sendUnreliableMessage(ClientKey sock, int key, Packet packet)
+    {
+        sendMessage(sock,packet);
+    }
+
+    /**
+     * sends the same message that may be dropped in favor of a newer one with
+     *   the same {key} to all the clients identified by {socks}. the default
+     *   implementation sends it like any other message.
+     *
+     * @param socks connections to send the message to.
+     * @param key identifies the older messages that this one supersedes.
+     * @param packet packet to send from the sockets.
+     */
+    public default void sendUnreliableMessageToGroup(Collection<ClientKey> socks, int key, Packet packet)
+    {
+        sendMessageToGroup(socks,packet);
+    }
 }
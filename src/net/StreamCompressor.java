@@ -0,0 +1,239 @@
+package net;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.BufferPool.PooledBuffer;
+
+/**
+ * compresses and decompresses the payloads of the frames sent over one
+ *   connection.
+ *
+ * all compressed frames sent over a connection are part of one deflate
+ *   stream, so later frames can refer back to the bytes of earlier ones. each
+ *   frame ends with a sync flush, so it can be decompressed as soon as it
+ *   arrives. both ends prime their stream with the same preset dictionary.
+ *
+ * the payload of a compressed frame starts with the {FORMAT_DEFLATE} marker,
+ *   followed by the deflated payload. the marker can not be mistaken for the
+ *   first byte of a {Packet}.
+ *
+ * the {Deflater} and {Inflater} are created the first time they are needed,
+ *   and hold native memory until {end} is called.
+ */
+class StreamCompressor
+{
+    /**
+     * first byte of the payload of a compressed frame.
+     */
+    public static final byte FORMAT_DEFLATE = (byte)0x83;
+
+    /**
+     * number of bytes reserved in front of the marker of a compressed frame
+     *   for its length prefix.
+     */
+    private static final int PREFIX_ROOM = VarInt.MAX_SIZE;
+
+    /**
+     * pool that compressed and decompressed payloads are written into.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * preset dictionary that both deflate streams are primed with. may be
+     *   null.
+     */
+    private final byte[] dictionary;
+
+    /**
+     * compresses outgoing payloads. null until the first one.
+     */
+    private Deflater deflater;
+
+    /**
+     * decompresses incoming payloads. null until the first one.
+     */
+    private Inflater inflater;
+
+    //////////////////
+    // constructors //
+    //////////////////
+
+    public StreamCompressor(BufferPool bufferPool, byte[] dictionary)
+    {
+        this.bufferPool = bufferPool;
+        this.dictionary = dictionary;
+        this.deflater = null;
+        this.inflater = null;
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * compresses {payload} into a new frame.
+     *
+     * @param   payload   frame payload to compress. it is consumed entirely.
+     *
+     * @return   a pooled buffer whose position and limit enclose the complete
+     *   compressed frame, including its length prefix.
+     */
+    public PooledBuffer compress(ByteBuffer payload)
+    {
+        if(deflater == null)
+        {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION,true);
+            if(dictionary != null)
+            {
+                deflater.setDictionary(dictionary);
+            }
+        }
+
+        // deflate the payload after room for the prefix and the marker; the
+        // output is only bigger than the input for incompressible payloads
+        int length = payload.remaining();
+        PooledBuffer frame = bufferPool.acquire(PREFIX_ROOM+1+length+(length>>3)+64);
+        frame.buffer.position(PREFIX_ROOM);
+        frame.buffer.put(FORMAT_DEFLATE);
+        deflater.setInput(payload);
+        while(true)
+        {
+            deflater.deflate(frame.buffer,Deflater.SYNC_FLUSH);
+            if(frame.buffer.hasRemaining())
+            {
+                break;
+            }
+            frame = grow(frame);
+        }
+
+        // write the prefix just in front of the marker
+        int end = frame.buffer.position();
+        int frameLength = end-PREFIX_ROOM;
+        int start = PREFIX_ROOM-VarInt.size(frameLength);
+        frame.buffer.position(start);
+        VarInt.put(frame.buffer,frameLength);
+        frame.buffer.limit(end).position(start);
+        return frame;
+    }
+
+    /**
+     * decompresses {payload}, which is the part of a compressed frame's
+     *   payload that follows the {FORMAT_DEFLATE} marker.
+     *
+     * @param   payload   deflated bytes to decompress. it is consumed entirely.
+     * @param   maxLength   largest number of bytes the payload may
+     *   decompress to.
+     *
+     * @return   a pooled buffer, ready to be read, holding the decompressed
+     *   payload.
+     *
+     * @throws   ProtocolException   if the payload is not valid deflate data,
+     *   ends the deflate stream, or decompresses to more than {maxLength}
+     *   bytes.
+     */
+    public PooledBuffer decompress(ByteBuffer payload, int maxLength) throws ProtocolException
+    {
+        if(inflater == null)
+        {
+            inflater = new Inflater(true);
+            if(dictionary != null)
+            {
+                inflater.setDictionary(dictionary);
+            }
+        }
+
+        // the output never gets more than one byte past {maxLength}, which is
+        // enough to tell that the frame is too big
+        int bound = (int)Math.min(Integer.MAX_VALUE,maxLength+1L);
+        PooledBuffer out = bufferPool.acquire(Math.min(bound,Math.max(256,payload.remaining()*4)));
+        try
+        {
+            inflater.setInput(payload);
+            while(true)
+            {
+                long read = inflater.getBytesRead();
+                int inflated = inflater.inflate(out.buffer);
+
+                // the sender never ends its stream, so an end, or a request
+                // for a dictionary other than the preset one, means the
+                // frame is bogus; inflate would make no progress past either
+                if(inflater.finished() || inflater.needsDictionary())
+                {
+                    throw new ProtocolException("compressed frame ends the deflate stream");
+                }
+                if(out.buffer.position() > maxLength)
+                {
+                    throw new ProtocolException("compressed frame is bigger than "+maxLength+" bytes");
+                }
+                if(inflater.needsInput() && out.buffer.hasRemaining())
+                {
+                    break;
+                }
+                if(!out.buffer.hasRemaining())
+                {
+                    out = grow(out,bound);
+                }
+                else if(inflated == 0 && inflater.getBytesRead() == read)
+                {
+                    throw new ProtocolException("compressed frame can not be inflated");
+                }
+            }
+        }
+        catch(DataFormatException e)
+        {
+            out.release();
+            throw new ProtocolException(e.getMessage());
+        }
+        catch(ProtocolException e)
+        {
+            out.release();
+            throw e;
+        }
+
+        out.buffer.flip();
+        return out;
+    }
+
+    /**
+     * frees the native memory held by the streams. the {StreamCompressor} must
+     *   not be used afterwards.
+     */
+    public void end()
+    {
+        if(deflater != null)
+        {
+            deflater.end();
+        }
+        if(inflater != null)
+        {
+            inflater.end();
+        }
+    }
+
+    ///////////////////////
+    // private interface //
+    ///////////////////////
+
+    private PooledBuffer grow(PooledBuffer buf)
+    {
+        return grow(buf,Integer.MAX_VALUE);
+    }
+
+    /**
+     * moves the contents of {buf} into a buffer with twice as much room, but
+     *   no more than {maxLength} bytes, and releases {buf}.
+     */
+    private PooledBuffer grow(PooledBuffer buf, int maxLength)
+    {
+        int capacity = (int)Math.min((long)maxLength,2L*buf.buffer.limit());
+        PooledBuffer grown = bufferPool.acquire(capacity);
+        buf.buffer.flip();
+        grown.buffer.put(buf.buffer);
+        buf.release();
+        return grown;
+    }
+}
@@ -0,0 +1,208 @@
+package net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * reads and writes unsigned variable length integers.
+ *
+ * each byte holds 7 bits of the value, least significant bits first. the most
+ *   significant bit of a byte is set if more bytes follow. values below 128
+ *   take a single byte, and no value takes more than {MAX_SIZE} bytes.
+ *
+ * values are treated as unsigned 32-bit integers, so negative values always
+ *   take {MAX_SIZE} bytes.
+ */
+public final class VarInt
+{
+    /**
+     * maximum number of bytes an encoded value takes.
+     */
+    public static final int MAX_SIZE = 5;
+
+    private VarInt()
+    {
+    }
+
+    //////////////////////
+    // public interface //
+    //////////////////////
+
+    /**
+     * returns the number of bytes {value} takes when encoded.
+     *
+     * @param   value   value to get the encoded size of.
+     *
+     * @return   the number of bytes {value} takes when encoded.
+     */
+    public static int size(int value)
+    {
+        int size = 1;
+        while((value >>>= 7) != 0)
+        {
+            ++size;
+        }
+        return size;
+    }
+
+    /**
+     * encodes {value} into {dst}, starting at {offset}.
+     *
+     * @param   dst   array to write the encoded value into.
+     * @param   offset   index to write the first byte at.
+     * @param   value   value to encode.
+     *
+     * @return   the number of bytes written.
+     */
+    public static int put(byte[] dst, int offset, int value)
+    {
+        int start = offset;
+        while((value & ~0x7f) != 0)
+        {
+            dst[offset++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        dst[offset++] = (byte)value;
+        return offset-start;
+    }
+
+    /**
+     * encodes {value} into {dst} at its current position, and advances the
+     *   position past it.
+     *
+     * @param   dst   buffer to write the encoded value into.
+     * @param   value   value to encode.
+     */
+    public static void put(ByteBuffer dst, int value)
+    {
+        while((value & ~0x7f) != 0)
+        {
+            dst.put((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte)value);
+    }
+
+    /**
+     * decodes the value that starts at {offset} in {src}.
+     *
+     * @param   src   array to read the encoded value from.
+     * @param   offset   index of the first byte of the value.
+     *
+     * @return   the decoded value.
+     */
+    public static int get(byte[] src, int offset)
+    {
+        int value = 0;
+        for(int shift = 0; shift < 7*MAX_SIZE; shift += 7)
+        {
+            byte b = src[offset++];
+            value |= (b & 0x7f) << shift;
+            if(b >= 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than "+MAX_SIZE+" bytes");
+    }
+
+    /**
+     * decodes the value at the current position of {src}, and advances the
+     *   position past it.
+     *
+     * @param   src   buffer to read the encoded value from.
+     *
+     * @return   the decoded value.
+     */
+    public static int get(ByteBuffer src)
+    {
+        int value = 0;
+        for(int shift = 0; shift < 7*MAX_SIZE; shift += 7)
+        {
+            byte b = src.get();
+            value |= (b & 0x7f) << shift;
+            if(b >= 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than "+MAX_SIZE+" bytes");
+    }
+
+    /**
+     * decodes the value that starts at {index} in {src}, without moving its
+     *   position.
+     *
+     * @param   src   buffer to read the encoded value from.
+     * @param   index   index of the first byte of the value.
+     *
+     * @return   the decoded value.
+     */
+    public static int get(ByteBuffer src, int index)
+    {
+        int value = 0;
+        for(int shift = 0; shift < 7*MAX_SIZE; shift += 7)
+        {
+            byte b = src.get(index++);
+            value |= (b & 0x7f) << shift;
+            if(b >= 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than "+MAX_SIZE+" bytes");
+    }
+
+    /**
+     * returns the number of bytes of the value that starts at {offset} in
+     *   {src}, or 0 if the value doesn't end before {limit}.
+     *
+     * @param   src   array holding the encoded value.
+     * @param   offset   index of the first byte of the value.
+     * @param   limit   index one past the last byte that may be examined.
+     *
+     * @return   the number of bytes of the encoded value, or 0 if it is
+     *   incomplete.
+     */
+    public static int sizeAt(byte[] src, int offset, int limit)
+    {
+        for(int i = 0; i < MAX_SIZE && offset+i < limit; ++i)
+        {
+            if(src[offset+i] >= 0)
+            {
+                return i+1;
+            }
+        }
+        if(limit-offset >= MAX_SIZE)
+        {
+            throw new IllegalArgumentException("varint longer than "+MAX_SIZE+" bytes");
+        }
+        return 0;
+    }
+
+    /**
+     * returns the number of bytes of the value that starts at {index} in
+     *   {src}, or 0 if the value doesn't end before {limit}.
+     *
+     * @param   src   buffer holding the encoded value.
+     * @param   index   index of the first byte of the value.
+     * @param   limit   index one past the last byte that may be examined.
+     *
+     * @return   the number of bytes of the encoded value, or 0 if it is
+     *   incomplete.
+     */
+    public static int sizeAt(ByteBuffer src, int index, int limit)
+    {
+        for(int i = 0; i < MAX_SIZE && index+i < limit; ++i)
+        {
+            if(src.get(index+i) >= 0)
+            {
+                return i+1;
+            }
+        }
+        if(limit-index >= MAX_SIZE)
+        {
+            throw new IllegalArgumentException("varint longer than "+MAX_SIZE+" bytes");
+        }
+        return 0;
+    }
+}